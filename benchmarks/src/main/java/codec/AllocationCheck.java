@@ -0,0 +1,55 @@
+package codec;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the context benchmarks under the GC profiler and fails when encoding or decoding an image allocates more
+ * than MAX_BYTES_PER_IMAGE in the steady state; run by mvn verify, or alone with
+ * java -cp target/benchmarks.jar codec.AllocationCheck
+ */
+public class AllocationCheck {
+
+    private static final double MAX_BYTES_PER_IMAGE = 1024;
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CodecBenchmark.class.getName() + ".(en|de)codeWithContext")
+                .param("size", "1920x1080")
+                .param("content", "PHOTOGRAPHIC")
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(2)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(1))
+                .forks(1)
+                .build();
+
+        boolean failed = false;
+        for (RunResult result : new Runner(options).run()) {
+            String benchmark = result.getParams().getBenchmark();
+            Result<?> allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            if (allocation == null) {
+                allocation = result.getSecondaryResults().get("·gc.alloc.rate.norm");
+            }
+            if (allocation == null) {
+                System.err.println(benchmark + ": no allocation rate reported");
+                failed = true;
+                continue;
+            }
+            double bytesPerImage = allocation.getScore();
+            boolean passed = bytesPerImage <= MAX_BYTES_PER_IMAGE;
+            System.out.printf("%s: %.0f bytes per image %s%n", benchmark, bytesPerImage, passed ? "OK" : "FAILED");
+            failed |= !passed;
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
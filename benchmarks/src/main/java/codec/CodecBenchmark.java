@@ -0,0 +1,85 @@
+package codec;
+
+import model.PPMImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full encoding of an image to a JFIF file and full decoding of that file
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Benchmark
+    public byte[] encode(ImageState state, Megapixels counter) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(state.jpeg.length);
+        state.encoder.encode(state.image, out);
+        counter.add(state);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encoding with colour conversion, transform and entropy coding overlapped on three threads
+     */
+    @Benchmark
+    public byte[] encodePipelined(ImageState state, Megapixels counter) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(state.jpeg.length);
+        state.pipelinedEncoder.encode(state.image, out);
+        counter.add(state);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public PPMImage decode(ImageState state, Megapixels counter) throws IOException {
+        PPMImage image = state.decoder.decode(ByteBuffer.wrap(state.jpeg));
+        counter.add(state);
+        return image;
+    }
+
+    /**
+     * Decoding at 1/8 of the size with the DC-only inverse DCT; megapixels are counted at full size
+     */
+    @Benchmark
+    public PPMImage decodeThumbnail(ImageState state, Megapixels counter) throws IOException {
+        PPMImage image = state.thumbnailDecoder.decode(ByteBuffer.wrap(state.jpeg), state.decoderContext);
+        counter.add(state);
+        return image;
+    }
+
+    /**
+     * Encoding into the reused context and output of the thread: run with -prof gc, gc.alloc.rate.norm stays
+     * under a kilobyte per image
+     */
+    @Benchmark
+    public int encodeWithContext(ImageState state, Megapixels counter) throws IOException {
+        state.output.reset();
+        state.encoder.encode(state.image, state.encoderContext, state.output);
+        counter.add(state);
+        return state.output.size();
+    }
+
+    /**
+     * Decoding into the reused context of the thread: run with -prof gc, gc.alloc.rate.norm stays under a kilobyte
+     * per image
+     */
+    @Benchmark
+    public PPMImage decodeWithContext(ImageState state, Megapixels counter) throws IOException {
+        PPMImage image = state.decoder.decode(ByteBuffer.wrap(state.jpeg), state.decoderContext);
+        counter.add(state);
+        return image;
+    }
+}
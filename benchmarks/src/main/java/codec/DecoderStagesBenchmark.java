@@ -0,0 +1,72 @@
+package codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each decoder stage applied to a whole image, from runlength decoding to colour conversion
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderStagesBenchmark {
+
+    @Benchmark
+    public void runLengthDecoding(ImageState state, Megapixels counter, Blackhole blackhole) {
+        byte[] symbols = state.symbols.array();
+        for (int i = 0; i < state.nrBlocks; i++) {
+            state.decoder.performRunlengthDecoding(symbols, state.symbolOffsets[i], state.zigZags[i]);
+        }
+        blackhole.consume(state.zigZags);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void zigZag(ImageState state, Megapixels counter, Blackhole blackhole) {
+        short[] coefficients = state.component.getCoefficients();
+        for (int i = 0; i < state.nrBlocks; i++) {
+            Decoder.parseZigZag(state.zigZags[i], coefficients, i * 64);
+        }
+        blackhole.consume(coefficients);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void deQuantization(ImageState state, Megapixels counter, Blackhole blackhole) {
+        short[] coefficients = state.component.getCoefficients();
+        for (int i = 0; i < state.nrBlocks; i++) {
+            state.decoder.performDeQuantization(coefficients, i * 64, state.table, state.dctValues[i]);
+        }
+        blackhole.consume(state.dctValues);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void inverseDiscreteCosineTransform(ImageState state, Megapixels counter, Blackhole blackhole) {
+        //the transform overwrites its input
+        for (int i = 0; i < state.nrBlocks; i++) {
+            System.arraycopy(state.dequantized[i], 0, state.dctValues[i], 0, 64);
+            state.decoder.inverseDiscreteCosineTransform(state.dctValues[i], state.samples[i]);
+        }
+        blackhole.consume(state.samples);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void colourConversion(ImageState state, Megapixels counter, Blackhole blackhole) {
+        state.decoder.convertToRGB(state.y.getSamples(), 0, state.u.getSamples(), 0, state.v.getSamples(), 0,
+                state.rgb, 0, state.width * state.height);
+        blackhole.consume(state.rgb);
+        counter.add(state);
+    }
+}
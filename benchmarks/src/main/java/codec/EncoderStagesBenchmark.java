@@ -0,0 +1,69 @@
+package codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each encoder stage applied to a whole image, from colour conversion to runlength encoding
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncoderStagesBenchmark {
+
+    @Benchmark
+    public void colourConversion(ImageState state, Megapixels counter, Blackhole blackhole) {
+        state.encoder.convertToYUV(state.image.getRgbData(), 0, state.y, state.u, state.v, 0, state.width * state.height);
+        blackhole.consume(state.y);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void forwardDiscreteCosineTransform(ImageState state, Megapixels counter, Blackhole blackhole) {
+        for (int i = 0; i < state.nrBlocks; i++) {
+            state.encoder.forwardDiscreteCosineTransform(state.samples[i], state.dctValues[i]);
+        }
+        blackhole.consume(state.dctValues);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void quantization(ImageState state, Megapixels counter, Blackhole blackhole) {
+        short[] coefficients = state.component.getCoefficients();
+        for (int i = 0; i < state.nrBlocks; i++) {
+            state.encoder.performQuantization(state.dctValues[i], state.table, coefficients, i * 64);
+        }
+        blackhole.consume(coefficients);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void zigZag(ImageState state, Megapixels counter, Blackhole blackhole) {
+        short[] coefficients = state.component.getCoefficients();
+        for (int i = 0; i < state.nrBlocks; i++) {
+            state.encoder.parseZigZag(coefficients, i * 64, state.zigZags[i]);
+        }
+        blackhole.consume(state.zigZags);
+        counter.add(state);
+    }
+
+    @Benchmark
+    public void runLengthEncoding(ImageState state, Megapixels counter, Blackhole blackhole) {
+        state.symbols.clear();
+        for (int i = 0; i < state.nrBlocks; i++) {
+            state.encoder.performRunLengthEncoding(state.zigZags[i], state.symbols);
+        }
+        blackhole.consume(state.symbols);
+        counter.add(state);
+    }
+}
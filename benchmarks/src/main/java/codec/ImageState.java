@@ -0,0 +1,104 @@
+package codec;
+
+import model.Component;
+import model.PPMImage;
+import model.Plane;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Synthetic image together with the input of every codec stage, so that each stage can be measured alone; the
+ * stages run on the blocks of the Y plane, which has one sample per pixel
+ */
+@State(Scope.Thread)
+public class ImageState {
+
+    @Param({"320x240", "1920x1080", "4096x2160"})
+    public String size;
+
+    @Param({"FLAT", "NOISY", "PHOTOGRAPHIC"})
+    public SyntheticImage content;
+
+    int width;
+    int height;
+    PPMImage image;
+    Encoder encoder = new Encoder();
+    Decoder decoder = new Decoder();
+    //decoder of 1/8 size previews
+    Decoder thumbnailDecoder = new Decoder();
+    //encoder running its stages on three threads
+    Encoder pipelinedEncoder = new Encoder();
+    //scratch memory reused by every invocation of the thread
+    EncoderContext encoderContext = new EncoderContext();
+    DecoderContext decoderContext = new DecoderContext();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    //colour conversion
+    Plane y;
+    Plane u;
+    Plane v;
+    byte[] rgb;
+
+    //blocks of the Y plane after each encoder stage
+    int nrBlocks;
+    int[][] samples;
+    float[][] dctValues;
+    float[][] dequantized;
+    Component component;
+    QuantizationTable table;
+    int[][] zigZags;
+    SymbolBuffer symbols;
+    //position of the runlength symbols of each block
+    int[] symbolOffsets;
+
+    //encoded file
+    byte[] jpeg;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        thumbnailDecoder.setScale(8);
+        pipelinedEncoder.setPipelined(true);
+        String[] dimensions = size.split("x");
+        width = Integer.parseInt(dimensions[0]);
+        height = Integer.parseInt(dimensions[1]);
+        image = content.create(width, height);
+
+        y = new Plane(width, height);
+        u = new Plane(width, height);
+        v = new Plane(width, height);
+        rgb = new byte[width * height * 3];
+        encoder.convertToYUV(image.getRgbData(), 0, y, u, v, 0, width * height);
+
+        int nrBlocksW = (width + 7) / 8;
+        int nrBlocksH = (height + 7) / 8;
+        nrBlocks = nrBlocksW * nrBlocksH;
+        samples = new int[nrBlocks][64];
+        dctValues = new float[nrBlocks][64];
+        dequantized = new float[nrBlocks][64];
+        component = new Component(nrBlocksW, nrBlocksH);
+        table = encoder.getQuantizationTable(component);
+        zigZags = new int[nrBlocks][64];
+        symbols = new SymbolBuffer(nrBlocks * 64);
+        symbolOffsets = new int[nrBlocks];
+        for (int i = 0; i < nrBlocks; i++) {
+            y.readBlock(i % nrBlocksW, i / nrBlocksW, samples[i]);
+            encoder.forwardDiscreteCosineTransform(samples[i], dctValues[i]);
+            encoder.performQuantization(dctValues[i], table, component.getCoefficients(), i * 64);
+            encoder.parseZigZag(component.getCoefficients(), i * 64, zigZags[i]);
+            symbolOffsets[i] = symbols.size();
+            encoder.performRunLengthEncoding(zigZags[i], symbols);
+        }
+        for (int i = 0; i < nrBlocks; i++) {
+            decoder.performDeQuantization(component.getCoefficients(), i * 64, table, dequantized[i]);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+        jpeg = out.toByteArray();
+    }
+}
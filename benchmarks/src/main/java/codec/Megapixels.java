@@ -0,0 +1,31 @@
+package codec;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary result counting the pixels processed, reported by JMH as megapixels per second
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Megapixels {
+
+    public double megapixels;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megapixels = 0;
+    }
+
+    /**
+     * Count one operation over a whole image
+     *
+     * @param state image processed by the operation
+     */
+    public void add(ImageState state) {
+        megapixels += state.width * (double) state.height / 1e6;
+    }
+}
@@ -0,0 +1,63 @@
+package codec;
+
+import model.PPMImage;
+
+import java.util.Random;
+
+/**
+ * Deterministic benchmark inputs with the content types a codec meets in practice
+ */
+public enum SyntheticImage {
+
+    //a single colour: every block reduces to its DC coefficient
+    FLAT,
+    //uniform random samples: the worst case for quantization and entropy coding
+    NOISY,
+    //smooth gradients crossed by sharp edges and a little sensor noise
+    PHOTOGRAPHIC;
+
+    /**
+     * Create an image of the content type
+     *
+     * @param width of the image
+     * @param height of the image
+     * @return image with the same samples on every call
+     */
+    public PPMImage create(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        byte[] rgb = new byte[width * height * 3];
+        for (int i = 0, p = 0; i < height; i++) {
+            for (int j = 0; j < width; j++, p += 3) {
+                switch (this) {
+                    case FLAT:
+                        rgb[p] = (byte) 96;
+                        rgb[p+1] = (byte) 160;
+                        rgb[p+2] = (byte) 208;
+                        break;
+                    case NOISY:
+                        rgb[p] = (byte) random.nextInt(256);
+                        rgb[p+1] = (byte) random.nextInt(256);
+                        rgb[p+2] = (byte) random.nextInt(256);
+                        break;
+                    default:
+                        int noise = random.nextInt(9) - 4;
+                        //diagonal stripes every 64 pixels over horizontal and vertical gradients
+                        int stripe = ((i + j) / 64) % 2 == 0 ? 0 : 48;
+                        rgb[p] = clamp(j * 255 / width + stripe + noise);
+                        rgb[p+1] = clamp(i * 255 / height + noise);
+                        rgb[p+2] = clamp(128 + (int) (64 * Math.sin(j / 23.0) * Math.cos(i / 17.0)) - stripe + noise);
+                }
+            }
+        }
+
+        PPMImage image = new PPMImage();
+        image.setWidth(width);
+        image.setHeight(height);
+        image.setRgbData(rgb);
+        return image;
+    }
+
+    private static byte clamp(int value) {
+        return (byte) (value > 255 ? 255 : (value < 0 ? 0 : value));
+    }
+}
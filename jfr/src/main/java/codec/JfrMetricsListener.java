@@ -0,0 +1,103 @@
+package codec;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Metrics listener committing a Java Flight Recorder event for every encode and decode, recorded when a recording
+ * enables codec.Encode or codec.Decode; needs a runtime with the jdk.jfr API (Java 8u262 and later)
+ */
+public class JfrMetricsListener implements MetricsListener {
+
+    @Override
+    public void encoded(CodecMetrics metrics) {
+        CodecEvent event = new EncodeEvent();
+        if (event.isEnabled()) {
+            event.set(metrics);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void decoded(CodecMetrics metrics) {
+        CodecEvent event = new DecodeEvent();
+        if (event.isEnabled()) {
+            event.set(metrics);
+            event.commit();
+        }
+    }
+
+    @Category("JPEG Codec")
+    abstract static class CodecEvent extends Event {
+
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Total Time")
+        @Timespan
+        long totalTime;
+        @Label("PPM Parsing")
+        @Timespan
+        long ppmParsing;
+        @Label("Colour Conversion")
+        @Timespan
+        long colourConversion;
+        @Label("Transform")
+        @Timespan
+        long transform;
+        @Label("Entropy Coding")
+        @Timespan
+        long entropyCoding;
+        @Label("Entropy Decoding")
+        @Timespan
+        long entropyDecoding;
+        @Label("Inverse Transform")
+        @Timespan
+        long inverseTransform;
+        @Label("Upsampling")
+        @Timespan
+        long upsampling;
+        @Label("Blocks")
+        long blocks;
+        @Label("Zero Blocks")
+        long zeroBlocks;
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+
+        void set(CodecMetrics metrics) {
+            width = metrics.getWidth();
+            height = metrics.getHeight();
+            totalTime = metrics.getTotalNanos();
+            ppmParsing = metrics.getNanos(CodecMetrics.Stage.PPM_PARSING);
+            colourConversion = metrics.getNanos(CodecMetrics.Stage.COLOUR_CONVERSION);
+            transform = metrics.getNanos(CodecMetrics.Stage.TRANSFORM);
+            entropyCoding = metrics.getNanos(CodecMetrics.Stage.ENTROPY_CODING);
+            entropyDecoding = metrics.getNanos(CodecMetrics.Stage.ENTROPY_DECODING);
+            inverseTransform = metrics.getNanos(CodecMetrics.Stage.INVERSE_TRANSFORM);
+            upsampling = metrics.getNanos(CodecMetrics.Stage.UPSAMPLING);
+            blocks = metrics.getNrBlocks();
+            zeroBlocks = metrics.getNrZeroBlocks();
+            bytesIn = metrics.getBytesIn();
+            bytesOut = metrics.getBytesOut();
+        }
+    }
+
+    @Name("codec.Encode")
+    @Label("JPEG Encode")
+    static class EncodeEvent extends CodecEvent {
+    }
+
+    @Name("codec.Decode")
+    @Label("JPEG Decode")
+    static class DecodeEvent extends CodecEvent {
+    }
+}
@@ -1,16 +1,74 @@
+import codec.BatchProcessor;
 import codec.Decoder;
 import codec.Encoder;
+import codec.JpegWriter;
+import model.BatchJob;
+import model.BatchReport;
 import model.EncodedImage;
 import model.PPMImage;
+import model.PPMReader;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
 
 public class App {
 
     public static void main(String[] args) {
+        if (args.length > 1 && "--batch".equals(args[0])) {
+            //App --batch inputDirectory outputDirectory | App --batch manifest: encode PPM and decode JPEG files
+            try {
+                Path input = Paths.get(args[1]);
+                List<BatchJob> jobs = Files.isDirectory(input)
+                        ? BatchProcessor.listDirectory(input, Paths.get(args.length > 2 ? args[2] : "."))
+                        : BatchProcessor.readManifest(input);
+                BatchReport report = new BatchProcessor().process(jobs);
+                for (Map.Entry<BatchJob, Exception> failure : report.getFailures().entrySet()) {
+                    System.err.println(failure.getKey() + ": " + failure.getValue());
+                }
+                System.out.println(report);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        if (args.length > 0) {
+            //App input.ppm [output.jpg]: stream the image through the encoder and decode the result back
+            Path input = Paths.get(args[0]);
+            Path output = Paths.get(args.length > 1 ? args[1] : "encodedImage.jpg");
+            try {
+                try (PPMReader reader = new PPMReader(input);
+                     OutputStream out = new FileOutputStream(output.toFile())) {
+                    new Encoder().encode(reader, reader.getWidth(), reader.getHeight(), out);
+                }
+                try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ)) {
+                    new Decoder().decode(channel).writeToFile(Paths.get("decodedImage.ppm"));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
         PPMImage image = new PPMImage("nt-P3.ppm");
 
         Encoder encoder = new Encoder();
         EncodedImage encodedImage = encoder.encode(image);
 
+        try (OutputStream out = new FileOutputStream("encodedImage.jpg")) {
+            new JpegWriter().write(encodedImage, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         Decoder decoder = new Decoder();
         PPMImage decodedImage = decoder.decode(encodedImage);
         decodedImage.writeToFile();
@@ -0,0 +1,340 @@
+package codec;
+
+import model.BatchJob;
+import model.BatchReport;
+import model.PPMImage;
+import model.PPMReader;
+import model.PPMWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Encodes and decodes many files at once: I/O threads read whole files, worker threads encode or decode them in
+ * memory and I/O threads write the results. The stages are joined by bounded queues, so a slow stage blocks the
+ * ones feeding it and at most about twice the queue capacity of files is held in memory. A file that cannot be
+ * read, coded or written is reported and does not stop the others
+ */
+public class BatchProcessor {
+
+    //marks the end of the work in a queue, once for every thread taking from it
+    private static final Item END = new Item(null, null);
+
+    private final Supplier<Encoder> encoders;
+    private final Supplier<Decoder> decoders;
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private int ioThreads = 4;
+    private int queueCapacity = 16;
+
+    public BatchProcessor() {
+        this(Encoder::new, Decoder::new);
+    }
+
+    /**
+     * @param encoders creates the encoder of each worker thread, configured for the whole batch
+     * @param decoders creates the decoder of each worker thread
+     */
+    public BatchProcessor(Supplier<Encoder> encoders, Supplier<Decoder> decoders) {
+        this.encoders = encoders;
+        this.decoders = decoders;
+    }
+
+    /**
+     * @param workerThreads number of threads encoding and decoding, the number of processors by default
+     */
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * @param ioThreads number of threads reading files, and of threads writing them, 4 by default
+     */
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * @param queueCapacity number of files waiting between two stages before the earlier stage blocks, 16 by
+     * default
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * List the PPM and JPEG files of a directory, PPM files being encoded to .jpg and JPEG files decoded to .ppm
+     *
+     * @param inputDirectory directory holding the files
+     * @param outputDirectory directory receiving the results
+     * @return jobs sorted by file name
+     */
+    public static List<BatchJob> listDirectory(Path inputDirectory, Path outputDirectory) throws IOException {
+        List<BatchJob> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDirectory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && (BatchJob.isPpm(file) || BatchJob.isJpeg(file))) {
+                    jobs.add(new BatchJob(file, outputDirectory.resolve(outputName(file))));
+                }
+            }
+        }
+        jobs.sort((a, b) -> a.getInput().compareTo(b.getInput()));
+        return jobs;
+    }
+
+    /**
+     * Read a manifest holding one job per line: the input path, then a tab and the output path; without an output
+     * path the result is written next to the input. Relative paths are resolved against the directory of the
+     * manifest, blank lines and lines starting with # are skipped
+     *
+     * @param manifest location of the manifest
+     * @return jobs in the order of the manifest
+     */
+    public static List<BatchJob> readManifest(Path manifest) throws IOException {
+        Path directory = manifest.toAbsolutePath().getParent();
+        List<BatchJob> jobs = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] paths = line.split("\t");
+            Path input = directory.resolve(paths[0].trim());
+            Path output = paths.length > 1
+                    ? directory.resolve(paths[1].trim())
+                    : input.resolveSibling(outputName(input));
+            jobs.add(new BatchJob(input, output));
+        }
+        return jobs;
+    }
+
+    /**
+     * Process all jobs and wait for their completion
+     *
+     * @param jobs files to encode or decode
+     * @return totals of the run and the error of each failed file
+     */
+    public BatchReport process(List<BatchJob> jobs) {
+        long start = System.nanoTime();
+        Run run = new Run(jobs);
+
+        ExecutorService readers = newPool("batch-reader", ioThreads);
+        ExecutorService workers = newPool("batch-worker", workerThreads);
+        ExecutorService writers = newPool("batch-writer", ioThreads);
+        BlockingQueue<Future<Void>> completions = new LinkedBlockingQueue<>();
+        int nrTasks = 0;
+        nrTasks += submit(new ExecutorCompletionService<>(readers, completions), ioThreads, run::read);
+        nrTasks += submit(new ExecutorCompletionService<>(workers, completions), workerThreads, run::work);
+        nrTasks += submit(new ExecutorCompletionService<>(writers, completions), ioThreads, run::write);
+
+        try {
+            for (int i = 0; i < nrTasks; i++) {
+                completions.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the batch", e);
+        } catch (ExecutionException e) {
+            //the per-file handling failed, for example on an error; the other stages may be blocked on a queue
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            readers.shutdownNow();
+            workers.shutdownNow();
+            writers.shutdownNow();
+        }
+
+        return new BatchReport(run.succeeded.get(), run.pixels.sum(), run.bytesRead.sum(), run.bytesWritten.sum(),
+                System.nanoTime() - start, new LinkedHashMap<>(run.failures));
+    }
+
+    private static int submit(CompletionService<Void> service, int nrTasks, Callable<Void> task) {
+        for (int i = 0; i < nrTasks; i++) {
+            service.submit(task);
+        }
+        return nrTasks;
+    }
+
+    private static ExecutorService newPool(String name, int nrThreads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(nrThreads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param input PPM or JPEG file
+     * @return name of the input with the extension of the result
+     */
+    private static String outputName(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + (BatchJob.isJpeg(input) ? ".ppm" : ".jpg");
+    }
+
+    /**
+     * A file travelling through the stages: its bytes after reading, its result after coding
+     */
+    private static class Item {
+
+        private final BatchJob job;
+        private byte[] data;
+        private ByteArrayOutputStream result;
+        private long pixels;
+
+        private Item(BatchJob job, byte[] data) {
+            this.job = job;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Queues and totals of one call to process
+     */
+    private class Run {
+
+        private final List<BatchJob> jobs;
+        //index of the next job to read
+        private final AtomicInteger next = new AtomicInteger();
+        private final BlockingQueue<Item> loaded = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Item> coded = new ArrayBlockingQueue<>(queueCapacity);
+        //threads of a stage still running; the last one to finish ends the next stage
+        private final AtomicInteger activeReaders = new AtomicInteger(ioThreads);
+        private final AtomicInteger activeWorkers = new AtomicInteger(workerThreads);
+
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final LongAdder pixels = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final Map<BatchJob, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        private Run(List<BatchJob> jobs) {
+            this.jobs = jobs;
+        }
+
+        private Void read() throws InterruptedException {
+            try {
+                for (int i = next.getAndIncrement(); i < jobs.size(); i = next.getAndIncrement()) {
+                    BatchJob job = jobs.get(i);
+                    byte[] data;
+                    try {
+                        data = Files.readAllBytes(job.getInput());
+                    } catch (IOException | RuntimeException e) {
+                        failures.put(job, e);
+                        continue;
+                    }
+                    bytesRead.add(data.length);
+                    //blocks while the workers are behind
+                    loaded.put(new Item(job, data));
+                }
+            } finally {
+                if (activeReaders.decrementAndGet() == 0) {
+                    for (int i = 0; i < workerThreads; i++) {
+                        loaded.put(END);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private Void work() throws InterruptedException {
+            Encoder encoder = encoders.get();
+            Decoder decoder = decoders.get();
+            DecoderContext context = new DecoderContext();
+            try {
+                for (Item item = loaded.take(); item != END; item = loaded.take()) {
+                    try {
+                        item.result = item.job.isDecoding() ? decode(decoder, context, item) : encode(encoder, item);
+                    } catch (IOException | RuntimeException e) {
+                        failures.put(item.job, e);
+                        continue;
+                    } finally {
+                        item.data = null;
+                    }
+                    //blocks while the writers are behind
+                    coded.put(item);
+                }
+            } finally {
+                if (activeWorkers.decrementAndGet() == 0) {
+                    for (int i = 0; i < ioThreads; i++) {
+                        coded.put(END);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private Void write() throws InterruptedException {
+            for (Item item = coded.take(); item != END; item = coded.take()) {
+                try {
+                    Path parent = item.job.getOutput().toAbsolutePath().getParent();
+                    if (parent != null) {
+                        Files.createDirectories(parent);
+                    }
+                    try (OutputStream out = Files.newOutputStream(item.job.getOutput())) {
+                        item.result.writeTo(out);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failures.put(item.job, e);
+                    continue;
+                }
+                bytesWritten.add(item.result.size());
+                pixels.add(item.pixels);
+                succeeded.incrementAndGet();
+            }
+            return null;
+        }
+
+        private ByteArrayOutputStream encode(Encoder encoder, Item item) throws IOException {
+            PPMReader reader = new PPMReader(Channels.newChannel(new ByteArrayInputStream(item.data)));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(item.data.length / 8 + 1024);
+            encoder.encode(reader, reader.getWidth(), reader.getHeight(), out);
+            item.pixels = (long) reader.getWidth() * reader.getHeight();
+            return out;
+        }
+
+        private ByteArrayOutputStream decode(Decoder decoder, DecoderContext context, Item item) throws IOException {
+            PPMImage image = decoder.decode(ByteBuffer.wrap(item.data), context);
+            int width = image.getWidth();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(width * image.getHeight() * 3 + 32);
+            try (PPMWriter writer = new PPMWriter(Channels.newChannel(out), width, image.getHeight(), true)) {
+                for (int i = 0; i < image.getHeight(); i++) {
+                    writer.writeRow(image.getRgbData(), i * width * 3);
+                }
+            }
+            item.pixels = (long) width * image.getHeight();
+            return out;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reader of entropy coded data, removing the 0x00 stuffed after 0xFF bytes and stopping in front of markers
+ */
+class BitReader {
+
+    private final ByteBuffer buffer;
+
+    //pending bits, aligned to the right
+    private long bitBuffer;
+    private int bitCount;
+    //marker found in the data, -1 while none was reached
+    private int marker = -1;
+    //zero bits supplied after the data ended without a marker, among the pending and consumed bits
+    private int paddingBits;
+
+    BitReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Get the next bits without consuming them, zeros being supplied past the end of the entropy coded data
+     *
+     * @param length number of bits, at most 25
+     * @return value of the bits
+     */
+    int peekBits(int length) {
+        if (bitCount < length) {
+            fill();
+        }
+        return (int) (bitBuffer >>> (bitCount - length)) & ((1 << length) - 1);
+    }
+
+    void skipBits(int length) {
+        bitCount -= length;
+    }
+
+    int readBits(int length) {
+        int value = peekBits(length);
+        bitCount -= length;
+        return value;
+    }
+
+    /**
+     * Read the size low-order bits of a value and undo the one's complement of negative values
+     *
+     * @param size number of bits
+     * @return signed value
+     */
+    int receiveExtend(int size) {
+        if (size == 0) {
+            return 0;
+        }
+        int value = readBits(size);
+        return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+    }
+
+    /**
+     * Discard the remaining bits of the current byte and consume the restart marker that follows
+     *
+     * @return the marker that was found, -1 if the data did not end with a marker
+     */
+    int readMarker() {
+        bitCount = 0;
+        bitBuffer = 0;
+        while (marker < 0 && buffer.remaining() >= 2) {
+            fill();
+            bitCount = 0;
+        }
+        int result = marker;
+        if (marker >= 0) {
+            buffer.position(buffer.position() + 2);
+            marker = -1;
+        }
+        return result;
+    }
+
+    /**
+     * @return true when bits past the end of truncated data, ending without a marker, were consumed
+     */
+    boolean isPastEnd() {
+        return bitCount < paddingBits;
+    }
+
+    /**
+     * Leave the buffer positioned on the marker ending the entropy coded data
+     */
+    void finish() {
+        bitCount = 0;
+        while (marker < 0 && buffer.hasRemaining()) {
+            fill();
+            bitCount = 0;
+        }
+    }
+
+    private void fill() {
+        while (bitCount <= 48) {
+            int b = 0;
+            if (marker < 0 && !buffer.hasRemaining()) {
+                paddingBits += 8;
+            } else if (marker < 0) {
+                int position = buffer.position();
+                b = buffer.get() & 0xFF;
+                if (b == 0xFF && !buffer.hasRemaining()) {
+                    //data cut after the first byte of a stuffed 0xFF or of a marker
+                    b = 0;
+                    paddingBits += 8;
+                } else if (b == 0xFF) {
+                    int next = buffer.get(position + 1) & 0xFF;
+                    if (next == 0x00) {
+                        buffer.get();
+                    } else {
+                        //stop in front of the marker
+                        marker = next;
+                        buffer.position(position);
+                        b = 0;
+                    }
+                }
+            }
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+    }
+}
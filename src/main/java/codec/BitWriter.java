@@ -0,0 +1,114 @@
+package codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered writer of JPEG segments and entropy coded data, inserting a 0x00 after every 0xFF data byte
+ */
+class BitWriter {
+
+    private OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    //bytes passed to the output before the buffered ones
+    private long flushed;
+
+    //pending bits, aligned to the right
+    private int bitBuffer;
+    private int bitCount;
+
+    BitWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Start writing to another output, keeping the buffer
+     *
+     * @param out destination of the following bytes
+     */
+    void reset(OutputStream out) {
+        this.out = out;
+        position = 0;
+        flushed = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    /**
+     * Append the lowest bits of a value to the entropy coded data
+     *
+     * @param value bits to write
+     * @param length number of bits, at most 16
+     */
+    void writeBits(int value, int length) throws IOException {
+        bitBuffer = (bitBuffer << length) | (value & ((1 << length) - 1));
+        bitCount += length;
+        while (bitCount >= 8) {
+            int b = (bitBuffer >>> (bitCount - 8)) & 0xFF;
+            bitCount -= 8;
+            writeByte(b);
+            if (b == 0xFF) {
+                writeByte(0);
+            }
+        }
+    }
+
+    /**
+     * Pad the entropy coded data to a whole byte with 1 bits
+     */
+    void alignBits() throws IOException {
+        if (bitCount > 0) {
+            writeBits(0x7F, 8 - bitCount);
+        }
+        bitBuffer = 0;
+    }
+
+    void writeByte(int value) throws IOException {
+        if (position == buffer.length) {
+            out.write(buffer, 0, position);
+            flushed += position;
+            position = 0;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Copy bytes, for example entropy coded data written beforehand, after the buffered ones
+     */
+    void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        out.write(buffer, 0, position);
+        flushed += position + length;
+        position = 0;
+        out.write(bytes, offset, length);
+    }
+
+    void writeShort(int value) throws IOException {
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    void writeInt(int value) throws IOException {
+        writeShort(value >> 16);
+        writeShort(value);
+    }
+
+    void writeMarker(int marker) throws IOException {
+        writeByte(0xFF);
+        writeByte(marker);
+    }
+
+    /**
+     * @return number of bytes written since the writer was created or reset, pending bits not included
+     */
+    long getByteCount() {
+        return flushed + position;
+    }
+
+    void flush() throws IOException {
+        out.write(buffer, 0, position);
+        flushed += position;
+        position = 0;
+        out.flush();
+    }
+}
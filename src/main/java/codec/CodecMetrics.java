@@ -0,0 +1,159 @@
+package codec;
+
+import model.Component;
+
+/**
+ * Measurements of one encode or decode, passed to the MetricsListener of the encoder or decoder: the time spent in
+ * every stage, summed over the threads that ran it, the number of blocks and the bytes read and written
+ */
+public final class CodecMetrics {
+
+    public enum Operation {
+        ENCODE, DECODE
+    }
+
+    public enum Stage {
+        //reading the rows of a PPM file given to Encoder.encode(Iterator, ...)
+        PPM_PARSING,
+        //RGB to YUV
+        COLOUR_CONVERSION,
+        //subsampling, FDCT and quantization
+        TRANSFORM,
+        //runlength and Huffman coding, and writing the file
+        ENTROPY_CODING,
+        //reading the segments of the file and Huffman decoding
+        ENTROPY_DECODING,
+        //dequantization and IDCT
+        INVERSE_TRANSFORM,
+        //upsampling of U and V and YUV to RGB
+        UPSAMPLING
+    }
+
+    private final Operation operation;
+    private int width;
+    private int height;
+    private final long[] nanos = new long[Stage.values().length];
+    private long nrBlocks;
+    private long nrZeroBlocks;
+    private long bytesIn;
+    private long bytesOut;
+
+    CodecMetrics(Operation operation, int width, int height) {
+        this.operation = operation;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Add the time a thread spent in a stage
+     */
+    synchronized void addNanos(Stage stage, long elapsedNanos) {
+        nanos[stage.ordinal()] += elapsedNanos;
+    }
+
+    /**
+     * Count the blocks of components, and those whose AC coefficients are all zero
+     */
+    synchronized void addBlocks(Component[] components) {
+        for (Component component : components) {
+            short[] coefficients = component.getCoefficients();
+            int count = component.getNrBlocksW() * component.getNrBlocksH();
+            for (int offset = 0; offset < count * 64; offset += 64) {
+                int k = 63;
+                while (k > 0 && coefficients[offset + k] == 0) {
+                    k--;
+                }
+                if (k == 0) {
+                    nrZeroBlocks++;
+                }
+            }
+            nrBlocks += count;
+        }
+    }
+
+    void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    void setBytes(long bytesIn, long bytesOut) {
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public synchronized long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    public synchronized long getTotalNanos() {
+        long total = 0;
+        for (long stageNanos : nanos) {
+            total += stageNanos;
+        }
+        return total;
+    }
+
+    public synchronized long getNrBlocks() {
+        return nrBlocks;
+    }
+
+    /**
+     * @return number of blocks whose AC coefficients are all zero, coded with their DC coefficient only
+     */
+    public synchronized long getNrZeroBlocks() {
+        return nrZeroBlocks;
+    }
+
+    public double getZeroBlockRatio() {
+        return (double) getNrZeroBlocks() / Math.max(getNrBlocks(), 1);
+    }
+
+    /**
+     * @return bytes of the PPM image or of the JPEG file read
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return bytes of the JPEG file or of the PPM image written
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return average number of bytes of the JPEG file per block
+     */
+    public double getBytesPerBlock() {
+        return (double) (operation == Operation.ENCODE ? bytesOut : bytesIn) / Math.max(getNrBlocks(), 1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format("%s %dx%d in %.2f ms (", operation, width, height,
+                getTotalNanos() / 1e6));
+        String separator = "";
+        for (Stage stage : Stage.values()) {
+            long stageNanos = getNanos(stage);
+            if (stageNanos > 0) {
+                builder.append(separator).append(String.format("%s %.2f ms", stage, stageNanos / 1e6));
+                separator = ", ";
+            }
+        }
+        return builder.append(String.format("): %d blocks, %.1f%% zero, %.1f bytes/block, %d bytes in, %d out",
+                getNrBlocks(), getZeroBlockRatio() * 100, getBytesPerBlock(), bytesIn, bytesOut)).toString();
+    }
+}
@@ -0,0 +1,152 @@
+package codec;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics listener keeping running totals of the encodes and decodes of any number of encoders and decoders,
+ * exposed as an MBean once registered
+ */
+public class CodecStatistics implements MetricsListener, CodecStatisticsMBean {
+
+    private final LongAdder encodeCount = new LongAdder();
+    private final LongAdder decodeCount = new LongAdder();
+    private final LongAdder[] nanos = new LongAdder[CodecMetrics.Stage.values().length];
+    private final LongAdder blockCount = new LongAdder();
+    private final LongAdder zeroBlockCount = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    //JPEG bytes written by the encodes and read by the decodes
+    private final LongAdder compressedBytes = new LongAdder();
+
+    public CodecStatistics() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Register the statistics with the platform MBean server
+     *
+     * @param name object name, for example "codec:type=CodecStatistics"
+     */
+    public void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(name));
+    }
+
+    @Override
+    public void encoded(CodecMetrics metrics) {
+        encodeCount.increment();
+        add(metrics);
+        compressedBytes.add(metrics.getBytesOut());
+    }
+
+    @Override
+    public void decoded(CodecMetrics metrics) {
+        decodeCount.increment();
+        add(metrics);
+        compressedBytes.add(metrics.getBytesIn());
+    }
+
+    private void add(CodecMetrics metrics) {
+        for (CodecMetrics.Stage stage : CodecMetrics.Stage.values()) {
+            nanos[stage.ordinal()].add(metrics.getNanos(stage));
+        }
+        blockCount.add(metrics.getNrBlocks());
+        zeroBlockCount.add(metrics.getNrZeroBlocks());
+        bytesIn.add(metrics.getBytesIn());
+        bytesOut.add(metrics.getBytesOut());
+    }
+
+    @Override
+    public long getEncodeCount() {
+        return encodeCount.sum();
+    }
+
+    @Override
+    public long getDecodeCount() {
+        return decodeCount.sum();
+    }
+
+    public long getNanos(CodecMetrics.Stage stage) {
+        return nanos[stage.ordinal()].sum();
+    }
+
+    @Override
+    public long getPpmParsingNanos() {
+        return getNanos(CodecMetrics.Stage.PPM_PARSING);
+    }
+
+    @Override
+    public long getColourConversionNanos() {
+        return getNanos(CodecMetrics.Stage.COLOUR_CONVERSION);
+    }
+
+    @Override
+    public long getTransformNanos() {
+        return getNanos(CodecMetrics.Stage.TRANSFORM);
+    }
+
+    @Override
+    public long getEntropyCodingNanos() {
+        return getNanos(CodecMetrics.Stage.ENTROPY_CODING);
+    }
+
+    @Override
+    public long getEntropyDecodingNanos() {
+        return getNanos(CodecMetrics.Stage.ENTROPY_DECODING);
+    }
+
+    @Override
+    public long getInverseTransformNanos() {
+        return getNanos(CodecMetrics.Stage.INVERSE_TRANSFORM);
+    }
+
+    @Override
+    public long getUpsamplingNanos() {
+        return getNanos(CodecMetrics.Stage.UPSAMPLING);
+    }
+
+    @Override
+    public long getBlockCount() {
+        return blockCount.sum();
+    }
+
+    @Override
+    public double getZeroBlockRatio() {
+        return (double) zeroBlockCount.sum() / Math.max(blockCount.sum(), 1);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public double getBytesPerBlock() {
+        return (double) compressedBytes.sum() / Math.max(blockCount.sum(), 1);
+    }
+
+    @Override
+    public void reset() {
+        encodeCount.reset();
+        decodeCount.reset();
+        for (LongAdder stageNanos : nanos) {
+            stageNanos.reset();
+        }
+        blockCount.reset();
+        zeroBlockCount.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        compressedBytes.reset();
+    }
+}
@@ -0,0 +1,40 @@
+package codec;
+
+/**
+ * Attributes of CodecStatistics shown by JMX clients such as JConsole
+ */
+public interface CodecStatisticsMBean {
+
+    long getEncodeCount();
+
+    long getDecodeCount();
+
+    long getPpmParsingNanos();
+
+    long getColourConversionNanos();
+
+    long getTransformNanos();
+
+    long getEntropyCodingNanos();
+
+    long getEntropyDecodingNanos();
+
+    long getInverseTransformNanos();
+
+    long getUpsamplingNanos();
+
+    long getBlockCount();
+
+    double getZeroBlockRatio();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getBytesPerBlock();
+
+    /**
+     * Start counting from zero again
+     */
+    void reset();
+}
@@ -0,0 +1,139 @@
+package codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 128-bit MurmurHash3 (x64 variant) of byte arrays, fast enough to hash an image in a fraction of the time taken
+ * to encode it; not a cryptographic hash
+ */
+final class ContentHash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long high;
+    private final long low;
+
+    private ContentHash(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param data bytes to hash
+     * @param seed hash of what else tells the content apart, for example the settings it is coded with
+     * @return hash of the bytes
+     */
+    static ContentHash of(byte[] data, long seed) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        long h1 = seed;
+        long h2 = seed;
+        int length = data.length;
+        int blocksEnd = length & ~15;
+        for (int i = 0; i < blocksEnd; i += 16) {
+            h1 ^= mixK1(buffer.getLong(i));
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(buffer.getLong(i + 8));
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        //the last 1 to 15 bytes
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = length - 1; i >= blocksEnd + 8; i--) {
+            k2 = (k2 << 8) | (data[i] & 0xFF);
+        }
+        for (int i = Math.min(length, blocksEnd + 8) - 1; i >= blocksEnd; i--) {
+            k1 = (k1 << 8) | (data[i] & 0xFF);
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new ContentHash(h1, h2);
+    }
+
+    /**
+     * Combine values into a seed
+     */
+    static long seed(long... values) {
+        long seed = 0;
+        for (long value : values) {
+            seed = fmix(seed * 31 + value);
+        }
+        return seed;
+    }
+
+    /**
+     * @param hex 32 hexadecimal digits, as given by toString
+     * @return hash, null when the digits are not a hash
+     */
+    static ContentHash parse(String hex) {
+        if (hex.length() != 32) {
+            return null;
+        }
+        try {
+            return new ContentHash(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+                    Long.parseUnsignedLong(hex.substring(16), 16));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    long getHigh() {
+        return high;
+    }
+
+    long getLow() {
+        return low;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ContentHash)) {
+            return false;
+        }
+        ContentHash other = (ContentHash) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) low;
+    }
+
+    /**
+     * @return 32 hexadecimal digits
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
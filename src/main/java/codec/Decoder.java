@@ -2,278 +2,659 @@ package codec;
 
 import model.*;
 
-import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 
 public class Decoder {
 
+    //JFIF YCbCr to RGB coefficients scaled by 2^16
+    private static final int SCALE_BITS = 16;
+    private static final int ONE_HALF = 1 << (SCALE_BITS - 1);
+    private static final int R_V = 91881;
+    private static final int G_U = 22554;
+    private static final int G_V = 46802;
+    private static final int B_U = 116130;
+
+    private final DiscreteCosineTransform transform;
+    private ExecutorService executor;
+    private int scale = 1;
+    //null when the decodes are not measured
+    private MetricsListener metricsListener;
+
+    public Decoder() {
+        this(new FastDCT());
+    }
+
+    public Decoder(DiscreteCosineTransform transform) {
+        this.transform = transform;
+    }
+
+    /**
+     * Decode the restart segments, the block rows and the colour conversion of the lines concurrently on an executor
+     *
+     * @param executor executor running the work, null to decode on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Decode images at a fraction of their size, for previews and thumbnails: each block goes through a 4x4, 2x2 or
+     * DC-only inverse DCT of its low frequencies, and the planes and the output are only as large as the result
+     *
+     * @param scale 1 (full size, the default), 2, 4 or 8; the image size is divided by it, rounding up
+     */
+    public void setScale(int scale) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("Scale must be 1, 2, 4 or 8: " + scale);
+        }
+        this.scale = scale;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Measure every decoded image: the time of each stage, the blocks and the bytes read are passed to the listener
+     * once the image is complete; without a listener no time is taken
+     *
+     * @param metricsListener receiver of the measurements, for example CodecStatistics, null by default
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
     public PPMImage decode(EncodedImage image) {
 
-        int nrBlocksW = image.getNrBlocksW();
-        int nrBlocksH = image.getGetNrBlocksH();
-
-        //perform Entropy Decoding
-        List<Integer> byteArray = image.getEncodedBytes();
-        List<Block> shuffledBlocks = performEntropyDecoding(byteArray);
-
-        Map<Integer, List<List<Block>>> YUVBlocks = orderBlocks(shuffledBlocks, nrBlocksW);
-        List<List<Block>> yBlocks = YUVBlocks.get(0);
-        List<List<Block>> uBlocks = YUVBlocks.get(1);
-        List<List<Block>> vBlocks = YUVBlocks.get(2);
-
-        //perform Inverse Discrete Cosine Transform and deQuantization
-        yBlocks.forEach(line -> line.forEach(block ->
-                block.setValues(inverseDiscreteCosineTransform(performDeQuantization(block.getValues())))
-        ));
-        uBlocks.forEach(line -> line.forEach(block ->
-                block.setValues(inverseDiscreteCosineTransform(performDeQuantization(block.getValues())))
-        ));
-        vBlocks.forEach(line -> line.forEach(block ->
-                block.setValues(inverseDiscreteCosineTransform(performDeQuantization(block.getValues())))
-        ));
-
-        //build YUV matrices
-        int width = nrBlocksW * 8;
-        int height = nrBlocksH * 8;
-        int[][] y = blocksToMatrix(yBlocks, nrBlocksW, nrBlocksH, width, height);
-        int[][] u = blocksToMatrix(uBlocks, nrBlocksW, nrBlocksH, width, height);
-        int[][] v = blocksToMatrix(vBlocks, nrBlocksW, nrBlocksH, width, height);
+        int nrMcusW = image.getNrMcusW();
+        int nrMcusH = image.getNrMcusH();
+
+        //perform Entropy Decoding, one restart segment at a time
+        Component[] components = Encoder.createComponents(image.getSubsampling(), nrMcusW, nrMcusH);
+        int nrMcus = nrMcusW * nrMcusH;
+        int restartInterval = image.getRestartInterval() > 0 ? image.getRestartInterval() : nrMcus;
+        int[] segmentOffsets = image.getSegmentOffsets() != null ? image.getSegmentOffsets() : new int[1];
+        Stripes.run(executor, segmentOffsets.length, (fromSegment, toSegment) -> {
+            for (int segment = fromSegment; segment < toSegment; segment++) {
+                int fromMcu = segment * restartInterval;
+                int toMcu = Math.min(fromMcu + restartInterval, nrMcus);
+                performEntropyDecoding(image.getEncodedBytes(), segmentOffsets[segment], fromMcu, toMcu, components);
+            }
+        });
+
+        return decode(new QuantizedImage(image.getWidth(), image.getHeight(), components, image.getQuantizationTables()));
+    }
+
+    /**
+     * Decode a baseline or progressive JPEG file
+     *
+     * @param buffer JPEG bytes
+     * @return decoded image
+     */
+    public PPMImage decode(ByteBuffer buffer) throws IOException {
+        long start = metricsListener != null ? System.nanoTime() : 0;
+        return decode(JpegReader.read(buffer, executor), new DecoderContext(), buffer.remaining(), start);
+    }
+
+    /**
+     * Decode a baseline or progressive JPEG file, keeping the scratch memory in a context; on the calling thread,
+     * images of the size, sampling and tables of the previous one are decoded without allocating any buffer
+     *
+     * @param buffer JPEG bytes
+     * @param context scratch memory, used by one thread at a time
+     * @return decoded image, owned by the context and overwritten by its next decode
+     */
+    public PPMImage decode(ByteBuffer buffer, DecoderContext context) throws IOException {
+        long start = metricsListener != null ? System.nanoTime() : 0;
+        return decode(JpegReader.read(buffer, executor, context), context, buffer.remaining(), start);
+    }
+
+    /**
+     * Decode a baseline or progressive JPEG file
+     *
+     * @param channel source of the JPEG bytes
+     * @return decoded image
+     */
+    public PPMImage decode(ReadableByteChannel channel) throws IOException {
+        return decode(JpegReader.load(channel));
+    }
+
+    /**
+     * Decode the beginning of a JPEG file that is still arriving: a progressive file gives a preview of the whole
+     * image that sharpens with every scan received, a sequential file its first rows of MCUs
+     *
+     * @param buffer JPEG bytes received so far
+     * @return image of the coefficients received so far
+     */
+    public PPMImage decodePartial(ByteBuffer buffer) throws IOException {
+        long start = metricsListener != null ? System.nanoTime() : 0;
+        return decode(JpegReader.readPartial(buffer), new DecoderContext(), buffer.remaining(), start);
+    }
+
+    /**
+     * Decode the beginning of a JPEG file that is still arriving, keeping the scratch memory in a context
+     *
+     * @param buffer JPEG bytes received so far
+     * @param context scratch memory, used by one thread at a time
+     * @return image of the coefficients received so far, owned by the context and overwritten by its next decode
+     */
+    public PPMImage decodePartial(ByteBuffer buffer, DecoderContext context) throws IOException {
+        long start = metricsListener != null ? System.nanoTime() : 0;
+        return decode(JpegReader.readPartial(buffer, context), context, buffer.remaining(), start);
+    }
+
+    /**
+     * Decode a rectangle of a JPEG file, for viewports and tiles of large images: only the restart segments of its
+     * MCU rows are Huffman decoded and only the blocks of its MCUs are transformed, see JpegReader.readRegion; the
+     * scale applies to the rectangle
+     *
+     * @param buffer JPEG bytes
+     * @param x left edge of the rectangle
+     * @param y top edge of the rectangle
+     * @param width of the rectangle
+     * @param height of the rectangle
+     * @return decoded rectangle
+     */
+    public PPMImage decodeRegion(ByteBuffer buffer, int x, int y, int width, int height) throws IOException {
+        long start = metricsListener != null ? System.nanoTime() : 0;
+        QuantizedImage window = JpegReader.readRegion(buffer, x, y, width, height);
+        PPMImage decoded = decode(window, new DecoderContext(), buffer.remaining(), start);
+
+        //the window starts on the MCU boundary at or before the rectangle
+        int fromX = x % (8 * window.getMaxHorizontalSampling()) / scale;
+        int fromY = y % (8 * window.getMaxVerticalSampling()) / scale;
+        int regionWidth = Math.min((width + scale - 1) / scale, decoded.getWidth() - fromX);
+        int regionHeight = Math.min((height + scale - 1) / scale, decoded.getHeight() - fromY);
+        byte[] rgbValues = new byte[regionWidth * regionHeight * 3];
+        for (int line = 0; line < regionHeight; line++) {
+            System.arraycopy(decoded.getRgbData(), ((fromY + line) * decoded.getWidth() + fromX) * 3, rgbValues,
+                    line * regionWidth * 3, regionWidth * 3);
+        }
+        PPMImage image = new PPMImage();
+        image.setWidth(regionWidth);
+        image.setHeight(regionHeight);
+        image.setRgbData(rgbValues);
+        return image;
+    }
+
+    /**
+     * Decode a JPEG file into an image held outside of the heap, one band of rows of MCUs at a time, so that images
+     * larger than the heap can be decoded; see JpegReader.readBands for the files whose coefficients are kept whole
+     *
+     * @param buffer JPEG bytes, which can be a mapped file
+     * @param output image of the size of the decoded one, in direct buffers or in a mapped file
+     */
+    public void decode(ByteBuffer buffer, ImageBuffer output) throws IOException {
+        decodeBands(buffer, new BandWriter(output, null));
+    }
+
+    /**
+     * Decode a JPEG file into a P6 PPM file, one band of rows of MCUs at a time, the file being mapped and written
+     * through the mapping
+     *
+     * @param buffer JPEG bytes, which can be a mapped file
+     * @param output location of the PPM file, replaced if it exists
+     * @return decoded image, backed by the file
+     */
+    public ImageBuffer decode(ByteBuffer buffer, Path output) throws IOException {
+        BandWriter writer = new BandWriter(null, output);
+        decodeBands(buffer, writer);
+        writer.output.force();
+        return writer.output;
+    }
+
+    private void decodeBands(ByteBuffer buffer, BandWriter writer) throws IOException {
+        long start = metricsListener != null ? System.nanoTime() : 0;
+        JpegReader.readBands(buffer, writer.context, writer);
+        if (writer.metrics != null) {
+            //the time not spent on the bands went into reading the file
+            CodecMetrics metrics = writer.metrics;
+            metrics.addNanos(CodecMetrics.Stage.ENTROPY_DECODING, System.nanoTime() - start - writer.bandNanos);
+            metrics.setSize(writer.output.getWidth(), writer.output.getHeight());
+            metrics.setBytes(buffer.remaining(), 3L * writer.output.getWidth() * writer.output.getHeight());
+            metricsListener.decoded(metrics);
+        }
+    }
+
+    /**
+     * Reconstruct an image from the quantized coefficients of its grayscale or Y, U and V components
+     *
+     * @param image quantized image
+     * @return decoded image
+     */
+    public PPMImage decode(QuantizedImage image) {
+        if (metricsListener == null) {
+            return decode(image, new DecoderContext(), null);
+        }
+        CodecMetrics metrics = new CodecMetrics(CodecMetrics.Operation.DECODE, image.getWidth(), image.getHeight());
+        PPMImage decoded = decode(image, new DecoderContext(), metrics);
+        report(metrics, image, decoded, 0);
+        return decoded;
+    }
+
+    /**
+     * Reconstruct the image of a JPEG file that was just read, measuring the read and the reconstruction when there
+     * is a metrics listener
+     *
+     * @param image quantized image read from the file
+     * @param context scratch memory
+     * @param bytesIn size of the file
+     * @param start System.nanoTime() before the file was read
+     * @return decoded image
+     */
+    private PPMImage decode(QuantizedImage image, DecoderContext context, long bytesIn, long start) {
+        if (metricsListener == null) {
+            return decode(image, context, null);
+        }
+        CodecMetrics metrics = new CodecMetrics(CodecMetrics.Operation.DECODE, image.getWidth(), image.getHeight());
+        metrics.addNanos(CodecMetrics.Stage.ENTROPY_DECODING, System.nanoTime() - start);
+        PPMImage decoded = decode(image, context, metrics);
+        report(metrics, image, decoded, bytesIn);
+        return decoded;
+    }
+
+    /**
+     * Pass the measurements of a decoded image to the listener
+     *
+     * @param bytesIn size of the JPEG file, 0 for an image given as quantized coefficients
+     */
+    private void report(CodecMetrics metrics, QuantizedImage image, PPMImage decoded, long bytesIn) {
+        metrics.setSize(decoded.getWidth(), decoded.getHeight());
+        metrics.addBlocks(image.getComponents());
+        metrics.setBytes(bytesIn, 3L * decoded.getWidth() * decoded.getHeight());
+        metricsListener.decoded(metrics);
+    }
+
+    /**
+     * Reconstruct an image into the planes and the output image of a context
+     *
+     * @param image quantized image
+     * @param context scratch memory
+     * @param metrics receives the time of the inverse transform and of the upsampling, null for none
+     * @return decoded image, owned by the context
+     */
+    private PPMImage decode(QuantizedImage image, DecoderContext context, CodecMetrics metrics) {
+        int width = (image.getWidth() + scale - 1) / scale;
+        int height = (image.getHeight() + scale - 1) / scale;
+
+        //perform deQuantization and Inverse Discrete Cosine Transform
+        Component[] components = image.getComponents();
+        Plane[] planes = new Plane[components.length];
+        for (int i = 0; i < components.length; i++) {
+            Component component = components[i];
+            QuantizationTable table = context.getPreparedTable(component.getQuantizationTableId(),
+                    image.getQuantizationTable(component), transform);
+            int blockWidth = getBlockSize(component.getHorizontalSampling(), image.getMaxHorizontalSampling());
+            int blockHeight = getBlockSize(component.getVerticalSampling(), image.getMaxVerticalSampling());
+            planes[i] = context.getPlane(i, (image.getComponentWidth(component) * blockWidth + 7) / 8,
+                    (image.getComponentHeight(component) * blockHeight + 7) / 8);
+            inverseTransformComponent(component, table, planes[i], blockWidth, blockHeight, context, metrics);
+        }
 
         //build RGB matrix
-        List<List<RGB>> rgbValues = new ArrayList<>();
-        for (int i = 0; i < height; i++) {
-            List<RGB> line = new ArrayList<>();
-            for (int j = 0; j < width; j++) {
-                int r = (int) (y[i][j] + 1.140*v[i][j]);
-                int g = (int) (y[i][j] - 0.395*u[i][j] - 0.581*v[i][j]);
-                int b = (int) (y[i][j] + 2.032*u[i][j]);
-                r = r > 255 ? 255 : r;
-                g = g > 255 ? 255 : g;
-                b = b > 255 ? 255 : b;
-
-                r = r < 0 ? 0 : r;
-                g = g < 0 ? 0 : g;
-                b = b < 0 ? 0 : b;
-
-                line.add(new RGB(r, g, b));
+        PPMImage decodedImage = context.getImage(width, height);
+        byte[] rgbValues = decodedImage.getRgbData();
+        if (executor == null) {
+            long start = metrics != null ? System.nanoTime() : 0;
+            convertLines(planes, width, height, rgbValues, 0, height, context.getLines(width), context.getColumns(width));
+            if (metrics != null) {
+                metrics.addNanos(CodecMetrics.Stage.UPSAMPLING, System.nanoTime() - start);
             }
-            rgbValues.add(line);
+        } else {
+            Stripes.run(executor, height, (fromLine, toLine) -> {
+                long start = metrics != null ? System.nanoTime() : 0;
+                convertLines(planes, width, height, rgbValues, fromLine, toLine, new short[3][width],
+                        new int[3][width]);
+                if (metrics != null) {
+                    metrics.addNanos(CodecMetrics.Stage.UPSAMPLING, System.nanoTime() - start);
+                }
+            });
         }
 
-        //create decoded image
-        PPMImage decodedImage = new PPMImage();
-        decodedImage.setWidth(width);
-        decodedImage.setHeight(height);
-        decodedImage.setRgbData(rgbValues);
-
         return decodedImage;
     }
 
     /**
-     * Transform a matrix of blocks into a matrix of integer pixel values
+     * Convert a range of lines of the planes to RGB, subsampled planes being upsampled by repeating their samples
      *
-     * @param blocks matrix of blocks
-     * @param nrBlocksW number of blocks in a row
-     * @param nrBlocksH number of blocks in a column
+     * @param planes Y plane, or Y, U and V planes
      * @param width of the image
      * @param height of the image
-     * @return matrix of pixel values
+     * @param rgbValues interleaved r, g, b output of the whole image
+     * @param fromLine first line
+     * @param toLine line after the last one
+     * @param lines scratch line of at least width samples for each plane
+     * @param columns scratch line of at least width indexes for each plane
      */
-    private int[][] blocksToMatrix(List<List<Block>> blocks, int nrBlocksW, int nrBlocksH, int width, int height) {
-        int[][] matrix = new int[height][width];
-        for (int i = 0; i < nrBlocksH; i++) {
-            for (int j = 0; j < nrBlocksW; j++) {
-                Block block = blocks.get(i).get(j);
-                for (int n = 0; n < 8; n++) {
-                    for (int m = 0; m < 8; m++) {
-                        matrix[i*8+n][j*8+m] = block.getValues().get(n).get(m);
-                    }
+    private void convertLines(Plane[] planes, int width, int height, byte[] rgbValues, int fromLine, int toLine,
+                              short[][] lines, int[][] columns) {
+        if (planes.length == 1) {
+            short[] ySamples = planes[0].getSamples();
+            for (int i = fromLine * width, p = i * 3; i < toLine * width; i++, p += 3) {
+                rgbValues[p] = rgbValues[p+1] = rgbValues[p+2] = (byte) clamp(ySamples[i]);
+            }
+            return;
+        }
+
+        boolean[] upsampled = new boolean[3];
+        for (int c = 0; c < 3; c++) {
+            if (planes[c].getWidth() != width || planes[c].getHeight() != height) {
+                upsampled[c] = true;
+                for (int j = 0; j < width; j++) {
+                    columns[c][j] = (int) ((long) j * planes[c].getWidth() / width);
                 }
             }
         }
-        return matrix;
+        for (int line = fromLine; line < toLine; line++) {
+            short[] y = lineOf(planes[0], upsampled[0], line, width, height, lines[0], columns[0]);
+            short[] u = lineOf(planes[1], upsampled[1], line, width, height, lines[1], columns[1]);
+            short[] v = lineOf(planes[2], upsampled[2], line, width, height, lines[2], columns[2]);
+            int yOffset = upsampled[0] ? 0 : line * planes[0].getStride();
+            int uOffset = upsampled[1] ? 0 : line * planes[1].getStride();
+            int vOffset = upsampled[2] ? 0 : line * planes[2].getStride();
+            convertToRGB(y, yOffset, u, uOffset, v, vOffset, rgbValues, line * width * 3, width);
+        }
     }
 
     /**
-     * Obtain an 8x8 block by multiplying the input to a quantization matrix
+     * Get the samples of a line of the image in a plane
      *
-     * @param quantizedValues 8x8 quantized block
-     * @return 8x8 deQuantized coefficients block
+     * @param plane Y, U or V plane
+     * @param upsampled whether the plane is smaller than the image
+     * @param line index of the line in the image
+     * @param width of the image
+     * @param height of the image
+     * @param scratch receives the upsampled line
+     * @param columns index of the plane column of each image column
+     * @return the plane's samples, or the scratch line for upsampled planes
      */
-    private List<List<Integer>> performDeQuantization(List<List<Integer>> quantizedValues) {
-        List<List<Integer>> deQuantizationResult = new ArrayList<>();
-        for (int i = 0; i < 8; i++) {
-            List<Integer> quantizationLine = new ArrayList<>();
-            for (int j = 0; j < 8; j++) {
-                int result = quantizedValues.get(i).get(j) * Quantization.matrix.get(i).get(j);
-                quantizationLine.add(result);
-            }
-            deQuantizationResult.add(quantizationLine);
+    private static short[] lineOf(Plane plane, boolean upsampled, int line, int width, int height, short[] scratch,
+                                  int[] columns) {
+        if (!upsampled) {
+            return plane.getSamples();
+        }
+        int row = (int) ((long) line * plane.getHeight() / height);
+        for (int j = 0; j < width; j++) {
+            scratch[j] = (short) plane.get(columns[j], row);
         }
-        return deQuantizationResult;
+        return scratch;
     }
 
-
     /**
-     * Transform an 8x8 DCT coefficient block into a Y/U/V block
+     * Convert YUV (JFIF YCbCr) samples to interleaved RGB values, in 16-bit fixed point
      *
-     * @param dctValues values of a DCT coefficient block matrix
-     * @return Y/U/V block
+     * @param ySamples Y samples
+     * @param yOffset position of the first Y sample
+     * @param uSamples U samples, centered on 128
+     * @param uOffset position of the first U sample
+     * @param vSamples V samples, centered on 128
+     * @param vOffset position of the first V sample
+     * @param rgbValues interleaved r, g, b output
+     * @param rgbOffset position of the first output value
+     * @param nrPixels number of pixels to convert
      */
-    private List<List<Integer>> inverseDiscreteCosineTransform(List<List<Integer>> dctValues) {
-        List<List<Integer>> values = new ArrayList<>();
-        for (int x = 0; x < 8; x++) {
-            List<Integer> line = new ArrayList<>();
-            for (int y = 0; y < 8; y++) {
-                //calculate value of f(x,y) in the output block matrix
-                double sum = 0;
-                for (int u = 0; u < 8; u++) {
-                    for (int v = 0; v < 8; v++) {
-                        double alphaU = u == 0 ? (1 / Math.sqrt(2)) : 1;
-                        double alphaV = v == 0 ? (1 / Math.sqrt(2)) : 1;
-                        sum += alphaU * alphaV * dctValues.get(u).get(v) * Math.cos(((2*x+1)*u*Math.PI)/16) * Math.cos(((2*y+1)*v*Math.PI)/16);
-                    }
-                }
-                int result = ((int) ((1.0/4.0) * sum)) + 128;
-                line.add(result);
-            }
-            values.add(line);
+    void convertToRGB(short[] ySamples, int yOffset, short[] uSamples, int uOffset, short[] vSamples, int vOffset,
+                      byte[] rgbValues, int rgbOffset, int nrPixels) {
+        for (int i = 0, p = rgbOffset; i < nrPixels; i++, p += 3) {
+            int y = ySamples[yOffset + i];
+            int cb = uSamples[uOffset + i] - 128;
+            int cr = vSamples[vOffset + i] - 128;
+            int r = y + ((R_V*cr + ONE_HALF) >> SCALE_BITS);
+            int g = y + ((ONE_HALF - G_U*cb - G_V*cr) >> SCALE_BITS);
+            int b = y + ((B_U*cb + ONE_HALF) >> SCALE_BITS);
+
+            rgbValues[p] = (byte) clamp(r);
+            rgbValues[p+1] = (byte) clamp(g);
+            rgbValues[p+2] = (byte) clamp(b);
         }
-        return values;
     }
 
     /**
-     * Iterate over the byte array and reconstruct the blocks by entropy decoding
+     * Limit a sample to the 0-255 range without branching
+     */
+    private static int clamp(int value) {
+        return Math.min(255, Math.max(0, value));
+    }
+
+    /**
+     * Get the side of the decoded blocks of a component at the scale: subsampled components are reduced less than
+     * the image, down to the resolution of the image, and upsampled above it
      *
-     * @param byteArray array of bytes obtained from the decoder
-     * @return list of blocks in shuffled order (an Y block followed by an U block followed by a V block)
+     * @param sampling sampling factor of the component
+     * @param maxSampling largest sampling factor of the image
+     * @return 8, 4, 2 or 1
      */
-    private List<Block> performEntropyDecoding(List<Integer> byteArray) {
-        List<Block> blocks = new ArrayList<>();
-
-        int startIndex = 0;
-        int currentIndex = 1;
-        while (currentIndex < byteArray.size()) {
-            currentIndex++;
-
-            //63 tuples (runlength, size)(amplitude) were read or a set of 2 consecutive zeros (0,0) was found
-            if (currentIndex - startIndex == 63 * 3 + 1 ||
-                    (byteArray.get(currentIndex - 1) == 0 && byteArray.get(currentIndex) == 0) && currentIndex - startIndex > 2) {
-                List<Integer> blockBytes = byteArray.subList(startIndex, currentIndex + 1);
-                List<List<Integer>> blockValues = parseZigZag(performRunlengthDecoding(blockBytes));
-                Block block = new Block(blockValues);
-                blocks.add(block);
-
-                startIndex = ++currentIndex;
-                currentIndex++;
+    private int getBlockSize(int sampling, int maxSampling) {
+        return Math.min(8, Integer.highestOneBit(Math.max(1, 8 * maxSampling / (scale * sampling))));
+    }
+
+    /**
+     * Perform deQuantization and Inverse DCT on each block of a component and compose the resulting plane
+     *
+     * @param component quantized coefficients of all blocks
+     * @param quantizationTable quantization table of the component, prepared for the transform
+     * @param plane receives the samples of the component
+     * @param blockWidth number of columns of a decoded block, less than 8 when decoding at a smaller scale
+     * @param blockHeight number of rows of a decoded block
+     * @param context scratch blocks used on the calling thread
+     * @param metrics receives the time of the inverse transform, null for none
+     */
+    private void inverseTransformComponent(Component component, QuantizationTable quantizationTable, Plane plane,
+                                           int blockWidth, int blockHeight, DecoderContext context,
+                                           CodecMetrics metrics) {
+        int nrBlocksW = Math.min(component.getNrBlocksW(), (plane.getWidth() + blockWidth - 1) / blockWidth);
+        int nrBlocksH = Math.min(component.getNrBlocksH(), (plane.getHeight() + blockHeight - 1) / blockHeight);
+
+        if (executor == null) {
+            long start = metrics != null ? System.nanoTime() : 0;
+            inverseTransformRows(component, quantizationTable, plane, blockWidth, blockHeight, nrBlocksW, 0,
+                    nrBlocksH, context.getDctValues(), context.getSamples());
+            if (metrics != null) {
+                metrics.addNanos(CodecMetrics.Stage.INVERSE_TRANSFORM, System.nanoTime() - start);
             }
+            return;
         }
-        return blocks;
+        Stripes.run(executor, nrBlocksH, (fromRow, toRow) -> {
+            long start = metrics != null ? System.nanoTime() : 0;
+            inverseTransformRows(component, quantizationTable, plane, blockWidth, blockHeight, nrBlocksW, fromRow,
+                    toRow, new float[64], new int[64]);
+            if (metrics != null) {
+                metrics.addNanos(CodecMetrics.Stage.INVERSE_TRANSFORM, System.nanoTime() - start);
+            }
+        });
     }
 
     /**
-     * Obtain a list representing coefficients that should be passed to the zig-zag parser
+     * Perform deQuantization and Inverse DCT on a range of rows of blocks of a component, with the reduced inverse
+     * DCT of ScaledIDCT for blocks decoded smaller than 8x8
      *
-     * @param byteArray sublist of the encoded byteArray that contains values from a single block
-     * @return array of corresponding integer coefficients
+     * @param blockWidth number of columns of a decoded block
+     * @param blockHeight number of rows of a decoded block
+     * @param nrBlocksW number of blocks of a row inside the plane
+     * @param fromRow first row of blocks
+     * @param toRow row of blocks after the last one
+     * @param dctValues scratch block of coefficients
+     * @param samples scratch block of samples
      */
-    private List<Integer> performRunlengthDecoding(List<Integer> byteArray) {
-        List<Integer> result = new ArrayList<>();
-
-        //read values corresponding to the DC coefficient
-        result.add(byteArray.get(1));
-
-        //read values corresponding to all AC coefficients
-        for (int i = 2; i < byteArray.size()-2; i += 3) {
-            int runlength = byteArray.get(i);
-            int amplitude = byteArray.get(i+2);
-            if (runlength != 0) {
-                for (int r = 0; r < runlength; r++) {
-                    result.add(0);
+    private void inverseTransformRows(Component component, QuantizationTable quantizationTable, Plane plane,
+                                      int blockWidth, int blockHeight, int nrBlocksW, int fromRow, int toRow,
+                                      float[] dctValues, int[] samples) {
+        short[] coefficients = component.getCoefficients();
+        if (blockWidth < 8 || blockHeight < 8) {
+            int[] table = quantizationTable.getValues();
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < nrBlocksW; j++) {
+                    ScaledIDCT.inverse(coefficients, component.getBlockOffset(j, i), table, blockWidth, blockHeight,
+                            dctValues, samples);
+                    plane.writeBlock(j, i, samples, blockWidth, blockHeight);
                 }
             }
-            result.add(amplitude);
+            return;
         }
-        //add missing zeros if array ends in (0,0)
-        if (byteArray.get(byteArray.size() - 2) == 0 && byteArray.get(byteArray.size() - 1) == 0) {
-            while (result.size() < 64) {
-                result.add(0);
+        for (int i = fromRow; i < toRow; i++) {
+            for (int j = 0; j < nrBlocksW; j++) {
+                performDeQuantization(coefficients, component.getBlockOffset(j, i), quantizationTable, dctValues);
+                inverseDiscreteCosineTransform(dctValues, samples);
+                plane.writeBlock(j, i, samples);
             }
         }
+    }
 
-        return result;
+    /**
+     * Obtain an 8x8 block by multiplying the input to a quantization matrix, premultiplied by the input scaling
+     * of the inverse transform
+     *
+     * @param quantizedValues array holding the 8x8 quantized block
+     * @param offset position of the block in the array
+     * @param quantizationTable quantization table prepared for the transform
+     * @param dctValues 8x8 deQuantized coefficients block
+     */
+    void performDeQuantization(short[] quantizedValues, int offset, QuantizationTable quantizationTable,
+                               float[] dctValues) {
+        quantizationTable.dequantize(quantizedValues, offset, dctValues);
     }
 
     /**
-     * Reconstruct a matrix from its zig-zag parsing representation
+     * Transform an 8x8 DCT coefficient block into an Y/U/V block
      *
-     * @param coefficients array of matrix coefficients parsed in zig-zag order
-     * @return reconstructed matrix
+     * @param dctValues values of a deQuantized coefficient block, overwritten by the transform
+     * @param samples Y/U/V block
      */
-    private static List<List<Integer>> parseZigZag(List<Integer> coefficients) {
-        int size = (int) Math.sqrt(coefficients.size());
-
-        int index = 0;
-        List<List<Integer>> diagonals = new ArrayList<>();
-        for (int i = 1; i < size * 2; i++) {
-            int diagonalLength = i < size ? i : size * 2 - i;
-            diagonals.add(new ArrayList<>(coefficients.subList(index, index + diagonalLength)));
-            index += diagonalLength;
-        }
+    void inverseDiscreteCosineTransform(float[] dctValues, int[] samples) {
+        transform.inverseUnscaled(dctValues, samples);
+    }
 
-        List<List<Integer>> matrix = new ArrayList<>();
-        for (int i = 0; i < size; i++) {
-            matrix.add(Arrays.asList(0,0,0,0,0,0,0,0));
+    /**
+     * Iterate over a segment of the byte array and reconstruct its blocks by entropy decoding
+     *
+     * @param byteArray array of bytes obtained from the encoder, containing the blocks in MCU order
+     *                  (the Y blocks of an MCU followed by its U block followed by its V block)
+     * @param index position of the first value of the segment
+     * @param fromMcu first MCU of the segment
+     * @param toMcu MCU after the last one of the segment
+     * @param components receive the Y, U and V blocks
+     */
+    private void performEntropyDecoding(byte[] byteArray, int index, int fromMcu, int toMcu, Component[] components) {
+        int nrMcusW = components[1].getNrBlocksW();
+
+        int[] zigZag = new int[64];
+        for (int mcu = fromMcu; mcu < toMcu; mcu++) {
+            int mcuX = mcu % nrMcusW;
+            int mcuY = mcu / nrMcusW;
+            for (Component component : components) {
+                int horizontalSampling = component.getHorizontalSampling();
+                int verticalSampling = component.getVerticalSampling();
+                for (int n = 0; n < verticalSampling; n++) {
+                    for (int m = 0; m < horizontalSampling; m++) {
+                        index = performRunlengthDecoding(byteArray, index, zigZag);
+                        parseZigZag(zigZag, component.getCoefficients(),
+                                component.getBlockOffset(mcuX * horizontalSampling + m, mcuY * verticalSampling + n));
+                    }
+                }
+            }
         }
+    }
 
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                int indexSum = i + j;
-                if (indexSum % 2 == 0) {
-                    matrix.get(j).set(i, diagonals.get(indexSum).get(0));
-                    diagonals.get(indexSum).remove(0);
-                }
-                else {
-                    matrix.get(j).set(i, diagonals.get(indexSum).get(diagonals.get(indexSum).size()-1));
-                    diagonals.get(indexSum).remove(diagonals.get(indexSum).size()-1);
-                }
+    /**
+     * Obtain an array representing coefficients that should be passed to the zig-zag parser
+     *
+     * @param byteArray encoded byteArray
+     * @param index position of the first value of the block
+     * @param result array of corresponding integer coefficients
+     * @return position of the first value of the next block
+     */
+    int performRunlengthDecoding(byte[] byteArray, int index, int[] result) {
+        //read values corresponding to the DC coefficient
+        int size = byteArray[index++];
+        result[0] = SymbolBuffer.readValue(byteArray, index, size);
+        index += SymbolBuffer.amplitudeLength(size);
+
+        //read values corresponding to all AC coefficients, until 63 were read or (0,0) was found; the zeros
+        //are written beforehand, so runs and the end of DC-only blocks cost nothing
+        Arrays.fill(result, 1, 64, 0);
+        int position = 1;
+        while (position < 64) {
+            int symbol = byteArray[index++] & 0xFF;
+            if (symbol == 0x00) {
+                break;
             }
+            position += symbol >> 4;
+            //(15,0) stands for 16 zeros
+            size = symbol & 0x0F;
+            if (size > 0) {
+                result[position] = SymbolBuffer.readValue(byteArray, index, size);
+                index += SymbolBuffer.amplitudeLength(size);
+            }
+            position++;
         }
 
-        return matrix;
+        return index;
     }
 
     /**
-     * Create the Y, U and V block matrices from a shuffled array of blocks
+     * Reconstruct a matrix from its zig-zag parsing representation
      *
-     * @param shuffledBlocks list of blocks in shuffled order obtained after the entropy decoding
-     * @param nrBlocksW number of blocks in a row
-     * @return block matrices ordered as a map with 0, 1 and 2 as keys for Y, U and V respectively
+     * @param coefficients array of matrix coefficients parsed in zig-zag order
+     * @param matrix array receiving the reconstructed matrix in row-major order
+     * @param offset position of the matrix in the array
      */
-    private Map<Integer, List<List<Block>>> orderBlocks(List<Block> shuffledBlocks, int nrBlocksW) {
-        // initialize hashMap with empty arrays of blocks
-        Map<Integer, List<Block>> YUVArrays = new HashMap<>();
-        for (int i = 0; i < 3; i++) {
-            YUVArrays.put(i, new ArrayList<>());
+    static void parseZigZag(int[] coefficients, short[] matrix, int offset) {
+        for (int i = 0; i < 64; i++) {
+            matrix[offset + ZigZag.ORDER[i]] = (short) coefficients[i];
         }
+    }
 
-        //sort blocks and add to corresponding array
-        for (int i = 0; i < shuffledBlocks.size(); i++) {
-            YUVArrays.get(i % 3).add(shuffledBlocks.get(i));
+    /**
+     * Reconstructs the bands of a file read in bands and copies them into the output image, created with the first
+     * band when a path is given
+     */
+    private class BandWriter implements JpegReader.BandListener {
+
+        private final Path path;
+        private final DecoderContext context = new DecoderContext();
+        private ImageBuffer output;
+        //null when the decode is not measured
+        private CodecMetrics metrics;
+        //time spent on the bands
+        private long bandNanos;
+
+        BandWriter(ImageBuffer output, Path path) {
+            this.output = output;
+            this.path = path;
         }
 
-        //arrange blocks in matrices
-        Map<Integer, List<List<Block>>> YUVBlocks = new HashMap<>();
-        for (int i = 0; i < 3; i++) {
-            AtomicInteger counter = new AtomicInteger();
-            Collection<List<Block>> matrix = YUVArrays.get(i).stream()
-                    .collect(Collectors.groupingBy(it -> counter.getAndIncrement() / nrBlocksW))
-                    .values();
-            YUVBlocks.put(i, new ArrayList<>(matrix));
-        }
+        @Override
+        public void band(QuantizedImage band, int y, int height) throws IOException {
+            long start = metricsListener != null ? System.nanoTime() : 0;
+            int width = (band.getWidth() + scale - 1) / scale;
+            int scaledHeight = (height + scale - 1) / scale;
+            if (output == null) {
+                output = ImageBuffer.create(path, width, scaledHeight);
+            } else if (output.getWidth() != width || output.getHeight() != scaledHeight) {
+                throw new IllegalArgumentException("Output of " + output.getWidth() + "x" + output.getHeight()
+                        + " for a decoded image of " + width + "x" + scaledHeight);
+            }
+            if (metricsListener != null && metrics == null) {
+                metrics = new CodecMetrics(CodecMetrics.Operation.DECODE, width, scaledHeight);
+            }
 
-        return YUVBlocks;
+            PPMImage decoded = decode(band, context, metrics);
+            //the bands start on MCU rows, whose height the scale divides
+            output.writePixels(0, y / scale, decoded.getWidth(), decoded.getHeight(), decoded.getRgbData(), 0);
+            if (metrics != null) {
+                metrics.addBlocks(band.getComponents());
+                bandNanos += System.nanoTime() - start;
+            }
+        }
     }
 }
@@ -0,0 +1,208 @@
+package codec;
+
+import model.Component;
+import model.PPMImage;
+import model.Plane;
+
+import java.util.Arrays;
+
+/**
+ * Scratch memory of a decoder kept from one image to the next: the tables read from the file and their prepared
+ * forms, the coefficients of the components, the planes and the decoded image. Decoding images of the same size,
+ * sampling and tables with one context allocates none of them again; a context is not thread-safe, so each thread
+ * keeps its own, and the image returned by a decode is only valid until the next decode with the same context
+ */
+public class DecoderContext {
+
+    //quantization tables as read from the last file, by table id
+    private final int[][] quantizationTables = new int[4][64];
+    //prepared quantization tables with the transform they were prepared for, by table id
+    private final QuantizationTable[] preparedTables = new QuantizationTable[4];
+    private final DiscreteCosineTransform[] preparedTransforms = new DiscreteCosineTransform[4];
+
+    //Huffman tables read last for each class and destination (DC 0-3, AC 4-7), with their decoders
+    private final HuffmanTable[] huffmanTables = new HuffmanTable[8];
+    private final HuffmanDecoder[] huffmanDecoders = new HuffmanDecoder[8];
+    //DHT table being read
+    private final int[] bits = new int[16];
+    private final int[] values = new int[256];
+
+    private Component[] components;
+    private final Plane[] planes = new Plane[3];
+    private PPMImage image;
+
+    private final float[] dctValues = new float[64];
+    private final int[] samples = new int[64];
+    //upsampled lines and source columns of each component, see Decoder
+    private short[][] lines = new short[3][0];
+    private int[][] columns = new int[3][0];
+
+    /**
+     * @param id table destination
+     * @return array receiving the table in row-major order
+     */
+    int[] getQuantizationTable(int id) {
+        return quantizationTables[id];
+    }
+
+    /**
+     * @param id table destination
+     * @param values quantization matrix in row-major order
+     * @param transform DCT the table is prepared for
+     * @return prepared table, kept from the previous image when its values did not change
+     */
+    QuantizationTable getPreparedTable(int id, int[] values, DiscreteCosineTransform transform) {
+        QuantizationTable table = preparedTables[id];
+        if (table == null || preparedTransforms[id] != transform || !Arrays.equals(table.getValues(), values)) {
+            //the values are copied, as the reader overwrites them with the tables of the next file
+            table = new QuantizationTable(values.clone(), transform);
+            preparedTables[id] = table;
+            preparedTransforms[id] = transform;
+        }
+        return table;
+    }
+
+    int[] getHuffmanBits() {
+        return bits;
+    }
+
+    int[] getHuffmanValues() {
+        return values;
+    }
+
+    /**
+     * @param slot table class times 4 plus destination
+     * @param count number of values read into getHuffmanValues()
+     * @return decoder of the table read into getHuffmanBits() and getHuffmanValues(), kept from the previous image
+     * when the table did not change
+     */
+    HuffmanDecoder getHuffmanDecoder(int slot, int count) {
+        HuffmanTable table = huffmanTables[slot];
+        if (table == null || !Arrays.equals(table.getBits(), bits) || table.getValues().length != count
+                || !equals(table.getValues(), values, count)) {
+            table = new HuffmanTable(bits.clone(), Arrays.copyOf(values, count));
+            huffmanTables[slot] = table;
+            huffmanDecoders[slot] = new HuffmanDecoder(table);
+        }
+        return huffmanDecoders[slot];
+    }
+
+    private static boolean equals(int[] a, int[] b, int count) {
+        for (int i = 0; i < count; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param ids component identifiers
+     * @param samplings horizontal sampling factor in the high nibble, vertical in the low nibble
+     * @param tables quantization table ids
+     * @param mcusW number of MCUs in a row
+     * @param mcusH number of rows of MCUs
+     * @return components rounded up to whole MCUs; those of the previous image are cleared and returned when they
+     * have the same layout
+     */
+    Component[] getComponents(int[] ids, int[] samplings, int[] tables, int mcusW, int mcusH) {
+        if (!matches(ids, samplings, tables, mcusW, mcusH)) {
+            components = new Component[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                int h = samplings[i] >> 4;
+                int v = samplings[i] & 0x0F;
+                Component component = new Component(mcusW * h, mcusH * v);
+                component.setId(ids[i]);
+                component.setHorizontalSampling(h);
+                component.setVerticalSampling(v);
+                component.setQuantizationTableId(tables[i]);
+                components[i] = component;
+            }
+            return components;
+        }
+
+        //only the non-zero coefficients of a block are decoded
+        for (Component component : components) {
+            Arrays.fill(component.getCoefficients(), (short) 0);
+        }
+        return components;
+    }
+
+    private boolean matches(int[] ids, int[] samplings, int[] tables, int mcusW, int mcusH) {
+        if (components == null || components.length != ids.length) {
+            return false;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            Component component = components[i];
+            int h = samplings[i] >> 4;
+            int v = samplings[i] & 0x0F;
+            if (component.getId() != ids[i] || component.getHorizontalSampling() != h
+                    || component.getVerticalSampling() != v || component.getQuantizationTableId() != tables[i]
+                    || component.getNrBlocksW() != mcusW * h || component.getNrBlocksH() != mcusH * v) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index index of the component
+     * @param width of the component
+     * @param height of the component
+     * @return plane of the component's samples, kept from the previous image when it had the same size
+     */
+    Plane getPlane(int index, int width, int height) {
+        Plane plane = planes[index];
+        if (plane == null || plane.getWidth() != width || plane.getHeight() != height) {
+            plane = new Plane(width, height);
+            planes[index] = plane;
+        }
+        return plane;
+    }
+
+    /**
+     * @param width of the image
+     * @param height of the image
+     * @return decoded image whose RGB values are overwritten, kept from the previous image when it had the same
+     * size
+     */
+    PPMImage getImage(int width, int height) {
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new PPMImage();
+            image.setWidth(width);
+            image.setHeight(height);
+            image.setRgbData(new byte[width * height * 3]);
+        }
+        return image;
+    }
+
+    float[] getDctValues() {
+        return dctValues;
+    }
+
+    int[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * @param width of the image
+     * @return one line of at least width samples for each component
+     */
+    short[][] getLines(int width) {
+        if (lines[0].length < width) {
+            lines = new short[3][width];
+        }
+        return lines;
+    }
+
+    /**
+     * @param width of the image
+     * @return one line of at least width column indexes for each component
+     */
+    int[][] getColumns(int width) {
+        if (columns[0].length < width) {
+            columns = new int[3][width];
+        }
+        return columns;
+    }
+}
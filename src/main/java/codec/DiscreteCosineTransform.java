@@ -0,0 +1,60 @@
+package codec;
+
+/**
+ * Two-dimensional 8x8 Discrete Cosine Transform working on primitive blocks stored in row-major order
+ */
+public interface DiscreteCosineTransform {
+
+    /**
+     * Transform an 8x8 block of samples into an 8x8 DCT coefficient block (samples are level shifted by -128)
+     *
+     * @param samples 64 input samples
+     * @param coefficients 64 output DCT coefficients
+     */
+    void forward(int[] samples, float[] coefficients);
+
+    /**
+     * Transform an 8x8 DCT coefficient block into an 8x8 block of samples (samples are level shifted by +128)
+     *
+     * @param coefficients 64 input DCT coefficients
+     * @param samples 64 output samples, rounded to the nearest integer
+     */
+    void inverse(float[] coefficients, int[] samples);
+
+    /**
+     * Transform a block of samples without applying the final per-coefficient scaling, which the caller folds into
+     * the quantization: coefficient i equals coefficients[i] * getForwardScale(i)
+     *
+     * @param samples 64 input samples
+     * @param coefficients 64 output values
+     */
+    default void forwardUnscaled(int[] samples, float[] coefficients) {
+        forward(samples, coefficients);
+    }
+
+    /**
+     * @param index position of the coefficient in row-major order
+     * @return factor left out by forwardUnscaled
+     */
+    default float getForwardScale(int index) {
+        return 1;
+    }
+
+    /**
+     * Transform a block of coefficients already multiplied by getInverseScale; the input may be overwritten
+     *
+     * @param coefficients 64 input DCT coefficients, premultiplied by the inverse scale
+     * @param samples 64 output samples, rounded to the nearest integer
+     */
+    default void inverseUnscaled(float[] coefficients, int[] samples) {
+        inverse(coefficients, samples);
+    }
+
+    /**
+     * @param index position of the coefficient in row-major order
+     * @return factor expected by inverseUnscaled
+     */
+    default float getInverseScale(int index) {
+        return 1;
+    }
+}
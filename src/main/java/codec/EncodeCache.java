@@ -0,0 +1,373 @@
+package codec;
+
+import model.PPMImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of JPEG files in front of an encoder, keyed by a hash of the pixels of the image and of the settings of the
+ * encoder, so that an image encoded again with the same settings is not encoded at all; the least recently used
+ * files are evicted once the cache holds more than a given number of bytes. An optional directory keeps the files
+ * across runs, read back through memory-mapped buffers. Used by any number of threads at once
+ */
+public class EncodeCache {
+
+    private static final String EXTENSION = ".jpg";
+
+    private final long maxBytes;
+    //access-ordered, the least recently used file first
+    private final LinkedHashMap<ContentHash, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    //null without a directory
+    private final DiskTier disk;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes bytes of JPEG files kept in memory
+     */
+    public EncodeCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.disk = null;
+    }
+
+    /**
+     * @param maxBytes bytes of JPEG files kept in memory
+     * @param directory directory keeping the files evicted from memory and those of earlier runs, created if needed
+     * @param maxDiskBytes bytes of JPEG files kept in the directory
+     */
+    public EncodeCache(long maxBytes, Path directory, long maxDiskBytes) throws IOException {
+        if (maxBytes < 0 || maxDiskBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + Math.min(maxBytes, maxDiskBytes));
+        }
+        this.maxBytes = maxBytes;
+        this.disk = new DiskTier(directory, maxDiskBytes);
+    }
+
+    /**
+     * Encode an image, or find the file of an earlier encode of the same pixels with the same settings
+     *
+     * @param encoder encoder used on a miss, its settings being part of the key
+     * @param image input image
+     * @return bytes of the JFIF file, shared with the cache and not to be modified
+     */
+    public byte[] encode(Encoder encoder, PPMImage image) throws IOException {
+        ContentHash key = key(encoder, image);
+        byte[] data = get(key);
+        if (data != null) {
+            hits.increment();
+            return data;
+        }
+        if (disk != null) {
+            data = disk.get(key);
+            if (data != null) {
+                diskHits.increment();
+                put(key, data);
+                return data;
+            }
+        }
+
+        //encoded outside the lock; two threads missing the same image both encode it, to the same bytes
+        misses.increment();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+        data = out.toByteArray();
+        put(key, data);
+        if (disk != null) {
+            disk.put(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * Encode an image, or copy the file of an earlier encode of the same pixels with the same settings
+     *
+     * @param encoder encoder used on a miss, its settings being part of the key
+     * @param image input image
+     * @param out destination of the JFIF bytes
+     */
+    public void encode(Encoder encoder, PPMImage image, OutputStream out) throws IOException {
+        out.write(encode(encoder, image));
+    }
+
+    /**
+     * Hash the pixels together with every setting of the encoder that changes its output
+     */
+    static ContentHash key(Encoder encoder, PPMImage image) {
+        int[][] tables = encoder.getQuantizationTables();
+        //the class name goes through MurmurHash3 whole, its 32-bit String hash colliding too easily
+        ContentHash transform = ContentHash.of(encoder.getTransform().getClass().getName()
+                .getBytes(StandardCharsets.UTF_8), 0);
+        long[] parameters = new long[9 + tables[0].length + tables[1].length];
+        parameters[0] = image.getWidth();
+        parameters[1] = image.getHeight();
+        parameters[2] = encoder.getSubsampling().ordinal();
+        parameters[3] = encoder.getRestartInterval();
+        parameters[4] = encoder.isOptimizeHuffmanTables() ? 1 : 0;
+        parameters[5] = encoder.isProgressive() ? 1 : 0;
+        parameters[6] = encoder.isRestartIndex() ? 1 : 0;
+        parameters[7] = transform.getHigh();
+        parameters[8] = transform.getLow();
+        int i = 9;
+        for (int[] table : tables) {
+            for (int value : table) {
+                parameters[i++] = value;
+            }
+        }
+        return ContentHash.of(image.getRgbData(), ContentHash.seed(parameters));
+    }
+
+    private byte[] get(ContentHash key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Keep a file in memory, evicting the least recently used ones over the limit
+     */
+    private void put(ContentHash key, byte[] data) {
+        if (data.length > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] previous = entries.put(key, data);
+            size += data.length - (previous != null ? previous.length : 0);
+            Iterator<byte[]> eldest = entries.values().iterator();
+            while (size > maxBytes) {
+                size -= eldest.next().length;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drop the files kept in memory and in the directory
+     */
+    public void clear() throws IOException {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of files found in the directory but not in memory
+     */
+    public long getDiskHitCount() {
+        return diskHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of files evicted from memory
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return share of the encodes found in memory or in the directory
+     */
+    public double getHitRatio() {
+        long found = getHitCount() + getDiskHitCount();
+        return (double) found / Math.max(found + getMissCount(), 1);
+    }
+
+    /**
+     * @return bytes of the files kept in memory
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return bytes of the files kept in the directory, 0 without a directory
+     */
+    public long getDiskSize() {
+        return disk != null ? disk.getSize() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d disk hits, %d misses (%.1f%% hit ratio), %d files in %d bytes, "
+                        + "%d evicted, %d bytes on disk", getHitCount(), getDiskHitCount(), getMissCount(),
+                getHitRatio() * 100, getEntryCount(), getSize(), getEvictionCount(), getDiskSize());
+    }
+
+    /**
+     * Files named by the hex digits of their key, evicted least recently used first as well
+     */
+    private static final class DiskTier {
+
+        private final Path directory;
+        private final long maxBytes;
+        //access-ordered sizes of the files, the least recently used first
+        private final LinkedHashMap<ContentHash, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        DiskTier(Path directory, long maxBytes) throws IOException {
+            this.directory = directory;
+            this.maxBytes = maxBytes;
+            Files.createDirectories(directory);
+
+            //the files of earlier runs, oldest first
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+                for (Path path : stream) {
+                    if (keyOf(path) != null) {
+                        paths.add(path);
+                    }
+                }
+            }
+            Map<Path, Long> modified = new LinkedHashMap<>();
+            for (Path path : paths) {
+                modified.put(path, Files.getLastModifiedTime(path).toMillis());
+            }
+            paths.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+            for (Path path : paths) {
+                long length = Files.size(path);
+                files.put(keyOf(path), length);
+                size += length;
+            }
+            evict();
+        }
+
+        /**
+         * @return bytes of the file, null when not kept
+         */
+        byte[] get(ContentHash key) throws IOException {
+            synchronized (this) {
+                if (files.get(key) == null) {
+                    return null;
+                }
+            }
+            try (FileChannel channel = FileChannel.open(pathOf(key), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                return data;
+            } catch (NoSuchFileException e) {
+                //evicted by another thread since
+                return null;
+            }
+        }
+
+        /**
+         * Write a file next to its final name and move it there, so that no reader sees half of it
+         */
+        void put(ContentHash key, byte[] data) throws IOException {
+            if (data.length > maxBytes) {
+                return;
+            }
+            Path path = pathOf(key);
+            Path temp = Files.createTempFile(directory, key.toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            synchronized (this) {
+                Long previous = files.put(key, (long) data.length);
+                size += data.length - (previous != null ? previous : 0);
+            }
+            evict();
+        }
+
+        private void evict() throws IOException {
+            List<ContentHash> evicted = new ArrayList<>();
+            synchronized (this) {
+                Iterator<Map.Entry<ContentHash, Long>> eldest = files.entrySet().iterator();
+                while (size > maxBytes) {
+                    Map.Entry<ContentHash, Long> entry = eldest.next();
+                    size -= entry.getValue();
+                    evicted.add(entry.getKey());
+                    eldest.remove();
+                }
+            }
+            for (ContentHash key : evicted) {
+                Files.deleteIfExists(pathOf(key));
+            }
+        }
+
+        void clear() throws IOException {
+            List<ContentHash> keys;
+            synchronized (this) {
+                keys = new ArrayList<>(files.keySet());
+                files.clear();
+                size = 0;
+            }
+            for (ContentHash key : keys) {
+                Files.deleteIfExists(pathOf(key));
+            }
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+
+        private Path pathOf(ContentHash key) {
+            return directory.resolve(key + EXTENSION);
+        }
+
+        /**
+         * @return key of a file of the cache, null for any other file
+         */
+        private static ContentHash keyOf(Path path) {
+            String name = path.getFileName().toString();
+            if (name.length() != 32 + EXTENSION.length()) {
+                return null;
+            }
+            return ContentHash.parse(name.substring(0, 32));
+        }
+    }
+}
@@ -1,284 +1,687 @@
 package codec;
 
-import com.google.common.primitives.Ints;
-import model.Block;
+import model.Component;
 import model.EncodedImage;
+import model.ImageBuffer;
 import model.PPMImage;
+import model.Plane;
 import model.Quantization;
+import model.QuantizedImage;
+import model.Subsampling;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 
 public class Encoder {
 
-    public EncodedImage encode(PPMImage image) {
+    //JFIF YCbCr coefficients scaled by 2^16
+    private static final int SCALE_BITS = 16;
+    private static final int ONE_HALF = 1 << (SCALE_BITS - 1);
+    private static final int CENTER = 128 << SCALE_BITS;
+    private static final int Y_R = 19595;
+    private static final int Y_G = 38470;
+    private static final int Y_B = 7471;
+    private static final int U_R = 11059;
+    private static final int U_G = 21709;
+    private static final int U_B = 32768;
+    private static final int V_R = 32768;
+    private static final int V_G = 27439;
+    private static final int V_B = 5329;
+
+    private final DiscreteCosineTransform transform;
+    private ExecutorService executor;
+    private int restartInterval;
+    private Subsampling subsampling = Subsampling.YUV420;
+    private boolean optimizeHuffmanTables;
+    private boolean progressive;
+    private boolean restartIndex;
+    private boolean pipelined;
+    //threads of the conversion and transform stages of pipelined encodes, created by the first one
+    private ExecutorService pipelineExecutor;
+    //null when the encodes are not measured
+    private MetricsListener metricsListener;
+    //luminance and chrominance matrices in row-major order, prepared for the transform
+    private QuantizationTable[] quantizationTables;
+
+    public Encoder() {
+        this(new FastDCT());
+    }
 
-        //convert to YUV
-        List<List<Integer>> y = new ArrayList<>();
-        List<List<Integer>> u = new ArrayList<>();
-        List<List<Integer>> v = new ArrayList<>();
-
-        image.getRgbData().forEach(line -> {
-            List<Integer> lineY = new ArrayList<>();
-            List<Integer> lineU = new ArrayList<>();
-            List<Integer> lineV = new ArrayList<>();
-            line.forEach(pixel -> {
-                lineY.add((int) (0.299*pixel.getR() + 0.587*pixel.getG() + 0.114*pixel.getB()));
-                lineU.add((int) (-0.147*pixel.getR() - 0.289*pixel.getG() + 0.436*pixel.getB()));
-                lineV.add((int) (0.615*pixel.getR() - 0.515*pixel.getG() - 0.1*pixel.getB()));
-            });
-            y.add(lineY);
-            u.add(lineU);
-            v.add(lineV);
-        });
-
-        //divide into 8x8 blocks and do subsampling for U and V
-        List<List<Block>> yBlocks = divideIntoBlocks(y, image.getWidth(), image.getHeight());
-        List<List<Block>> uBlocks = divideIntoBlocksAndSubSample(u, image.getWidth(), image.getHeight());
-        List<List<Block>> vBlocks = divideIntoBlocksAndSubSample(v, image.getWidth(), image.getHeight());
-
-        //do upsampling for U and V
-        int nrBlocksW = yBlocks.get(0).size();
-        int nrBlocksH = yBlocks.size();
-        upSample(uBlocks, nrBlocksW, nrBlocksH);
-        upSample(vBlocks, nrBlocksW, nrBlocksH);
-
-        //perform Forward Discrete Cosine Transform and quantization
-        yBlocks.forEach(line -> line.forEach(block ->
-                block.setValues(performQuantization(forwardDiscreteCosineTransform(block)))
-        ));
-        uBlocks.forEach(line -> line.forEach(block ->
-                block.setValues(performQuantization(forwardDiscreteCosineTransform(block)))
-        ));
-        vBlocks.forEach(line -> line.forEach(block ->
-                block.setValues(performQuantization(forwardDiscreteCosineTransform(block)))
-        ));
+    public Encoder(DiscreteCosineTransform transform) {
+        this.transform = transform;
+        setQuality(75);
+    }
 
-        //perform Entropy Encoding
-        List<Integer> encodedByteArray = performEntropyEncoding(yBlocks, uBlocks, vBlocks);
+    /**
+     * Spread colour conversion, FDCT and quantization of the block rows over an executor (for example a
+     * ForkJoinPool); entropy coding stays sequential, so the output is identical to the single-threaded one
+     *
+     * @param executor executor running the block rows, null to encode on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
 
-        return new EncodedImage(encodedByteArray, nrBlocksW, nrBlocksH);
+    /**
+     * Split the entropy coded data into independently decodable segments, allowing parallel decoding
+     *
+     * @param restartInterval number of MCUs in each segment, 0 for a single segment; at most 65535, the largest
+     * interval a DRI segment holds
+     */
+    public void setRestartInterval(int restartInterval) {
+        if (restartInterval < 0 || restartInterval > 65535) {
+            throw new IllegalArgumentException("Restart interval must be 0 to 65535: " + restartInterval);
+        }
+        this.restartInterval = restartInterval;
     }
 
+    /**
+     * Choose the resolution at which U and V are stored, transformed and entropy coded
+     *
+     * @param subsampling chroma subsampling mode, 4:2:0 by default
+     */
+    public void setSubsampling(Subsampling subsampling) {
+        this.subsampling = subsampling;
+    }
 
     /**
-     * Divide image matrix into 8x8 blocks
+     * Write JFIF files with Huffman tables built from the symbol frequencies of each image instead of the standard
+     * tables: the files are smaller, and the symbols are Huffman coded in a second pass over the symbols kept from
+     * the first one; streamed images keep their symbols until the end of the image
      *
-     * @param matrix image matrix
-     * @param width of the image
-     * @param height of the image
-     * @return matrix of blocks
+     * @param optimizeHuffmanTables true to build optimized tables, false by default
      */
-    private List<List<Block>> divideIntoBlocks(List<List<Integer>> matrix, int width, int height) {
-        List<List<Block>> blocks = new ArrayList<>();
-
-        for (int i = 0; i < height; i+=8) {
-            List<Block> lineBlocks = new ArrayList<>();
-            for (int j = 0; j < width; j+=8) {
-                //construct the 8x8 block
-                int[][] blockTmp = new int[8][8];
-                for (int n = 0; n < 8; n++) {
-                    for (int m = 0; m < 8; m++) {
-                        blockTmp[n][m] = matrix.get(i+n).get(j+m);
-                    }
-                }
-                List<List<Integer>> blockValues = Arrays.stream(blockTmp)
-                        .map(Ints::asList)
-                        .collect(Collectors.toList());
-                lineBlocks.add(new Block(blockValues));
+    public void setOptimizeHuffmanTables(boolean optimizeHuffmanTables) {
+        this.optimizeHuffmanTables = optimizeHuffmanTables;
+    }
+
+    /**
+     * Write progressive JFIF files (SOF2) instead of baseline ones: the DC coefficients come first at half
+     * precision, followed by bands of AC coefficients and refinement scans, so that a coarse image can be shown
+     * from the first part of the file; the Huffman tables are built for every scan. Applies to the encode methods
+     * writing to an OutputStream, streamed images keeping their coefficients until the end of the image
+     *
+     * @param progressive true for progressive files, false by default
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    /**
+     * Write the byte offset of every restart segment in an APP9 segment, so that Decoder.decodeRegion can seek to
+     * the segments of a region; other decoders skip the segment. Applies to baseline files with a restart interval
+     * written by the encode methods taking an OutputStream, not to streamed images
+     *
+     * @param restartIndex true to write the index, false by default
+     */
+    public void setRestartIndex(boolean restartIndex) {
+        this.restartIndex = restartIndex;
+    }
+
+    /**
+     * Encode baseline files in a pipeline of three threads, one for the colour conversion, one for the subsampling,
+     * FDCT and quantization and the calling one for the entropy coding, the rows of MCUs being handed from stage to
+     * stage through lock-free rings; the stages overlap, so a large image is encoded sooner on a single call, with
+     * the scratch memory of a few rows of MCUs instead of the coefficients of the whole image. The two stage threads
+     * belong to the encoder and are reused from one image to the next. Applies to the encode methods writing to an
+     * OutputStream, the executor being left unused
+     *
+     * @param pipelined true to encode in a pipeline, false by default
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Measure every image encoded to an OutputStream or a StreamingEncoder: the time of each stage, the blocks and
+     * the bytes written are passed to the listener once the file is written; without a listener no time is taken
+     *
+     * @param metricsListener receiver of the measurements, for example CodecStatistics, null by default
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Scale the standard luminance and chrominance quantization matrices
+     *
+     * @param quality quality factor from 1 (smallest files) to 100 (best quality), 75 by default
+     */
+    public void setQuality(int quality) {
+        quantizationTables = new QuantizationTable[]{
+                new QuantizationTable(Quantization.scale(Quantization.LUMINANCE, quality), transform),
+                new QuantizationTable(Quantization.scale(Quantization.CHROMINANCE, quality), transform)};
+    }
+
+    public EncodedImage encode(PPMImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        EncoderContext context = new EncoderContext();
+        Component[] components = transform(image, context, null);
+        int nrMcusW = components[1].getNrBlocksW();
+        int nrMcusH = components[1].getNrBlocksH();
+
+        //perform Entropy Encoding
+        int nrSegments = restartInterval > 0 ? (nrMcusW * nrMcusH + restartInterval - 1) / restartInterval : 1;
+        int[] segmentOffsets = new int[nrSegments];
+        SymbolBuffer symbols = performEntropyEncoding(components, segmentOffsets, context);
+
+        EncodedImage encodedImage = new EncodedImage(symbols.toArray(), width, height, nrMcusW, nrMcusH);
+        encodedImage.setSubsampling(subsampling);
+        encodedImage.setQuantizationTables(getQuantizationTables());
+        encodedImage.setRestartInterval(restartInterval);
+        encodedImage.setSegmentOffsets(segmentOffsets);
+        return encodedImage;
+    }
+
+    /**
+     * Encode an image and write it as a baseline JFIF file
+     *
+     * @param image input image
+     * @param out destination of the JFIF bytes
+     */
+    public void encode(PPMImage image, OutputStream out) throws IOException {
+        encode(image, new EncoderContext(), out);
+    }
+
+    /**
+     * Encode an image and write it as a baseline JFIF file, keeping the scratch memory in a context; on the calling
+     * thread, images of the size and mode of the previous one are encoded without allocating any buffer
+     *
+     * @param image input image
+     * @param context scratch memory, used by one thread at a time
+     * @param out destination of the JFIF bytes
+     */
+    public void encode(PPMImage image, EncoderContext context, OutputStream out) throws IOException {
+        CodecMetrics metrics = metricsListener != null
+                ? new CodecMetrics(CodecMetrics.Operation.ENCODE, image.getWidth(), image.getHeight()) : null;
+        BitWriter bitWriter = context.getWriter(out);
+        if (pipelined && !progressive) {
+            JpegWriter writer = new JpegWriter();
+            writer.setOptimizeHuffmanTables(optimizeHuffmanTables);
+            writer.setRestartIndex(restartIndex);
+            new PipelinedEncoder(this, image, metrics).encode(bitWriter, writer, getPipelineExecutor());
+            if (metrics != null) {
+                report(metrics, bitWriter.getByteCount());
             }
-            blocks.add(lineBlocks);
+            return;
+        }
+
+        Component[] components = transform(image, context, metrics);
+        long start = metrics != null ? System.nanoTime() : 0;
+        if (progressive) {
+            new ProgressiveWriter(components, image.getWidth(), image.getHeight(), subsampling, restartInterval)
+                    .write(bitWriter, getQuantizationTables());
+        } else {
+            int nrMcus = components[1].getNrBlocksW() * components[1].getNrBlocksH();
+            SymbolBuffer symbols = performEntropyEncoding(components, null, context);
+
+            JpegWriter writer = new JpegWriter();
+            writer.setOptimizeHuffmanTables(optimizeHuffmanTables);
+            writer.setRestartIndex(restartIndex);
+            writer.write(bitWriter, image.getWidth(), image.getHeight(), subsampling, getQuantizationTables(),
+                    restartInterval, symbols.array(), nrMcus);
+        }
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.ENTROPY_CODING, System.nanoTime() - start);
+            metrics.addBlocks(components);
+            report(metrics, bitWriter.getByteCount());
         }
-        return blocks;
     }
 
     /**
-     * Divide image matrix into 8x8 blocks and convert each one to a 4x4 block by downSampling
+     * Pass the measurements of an encoded image to the listener
      *
-     * @param matrix image matrix
-     * @param width of the image
-     * @param height of the image
-     * @return matrix of blocks
+     * @param bytesOut size of the JFIF file
      */
-    private List<List<Block>> divideIntoBlocksAndSubSample(List<List<Integer>> matrix, int width, int height) {
-        List<List<Block>> blocks = new ArrayList<>();
-
-        for (int i = 0; i < height; i+=8) {
-            List<Block> lineBlocks = new ArrayList<>();
-            for (int j = 0; j < width; j+=8) {
-                //construct the 4x4 block
-                int[][] blockTmp = new int[4][4];
-                for (int n = 0; n < 8; n+=2) {
-                    for (int m = 0; m < 8; m+=2) {
-                        int sum = matrix.get(i+n).get(j+m) + matrix.get(i+n+1).get(j+m) + matrix.get(i+n).get(j+m+1) + matrix.get(i+n+1).get(j+m+1);
-                        blockTmp[n/2][m/2] = (int) (Math.round(sum)) / 4;
-                    }
+    void report(CodecMetrics metrics, long bytesOut) {
+        metrics.setBytes(3L * metrics.getWidth() * metrics.getHeight(), bytesOut);
+        metricsListener.encoded(metrics);
+    }
+
+    private synchronized ExecutorService getPipelineExecutor() {
+        if (pipelineExecutor == null) {
+            pipelineExecutor = PipelinedEncoder.newExecutor();
+        }
+        return pipelineExecutor;
+    }
+
+    /**
+     * Entropy code already quantized coefficients, for example read by JpegReader and changed by Transcoder, and
+     * write them as a JFIF file with their own quantization tables; the quality and subsampling of the encoder do
+     * not apply, its restart interval, Huffman table and progressive settings do
+     *
+     * @param image Y, Cb and Cr components, Cb and Cr sampled 1x1 with one quantization table
+     * @param out destination of the JFIF bytes
+     */
+    public void encode(QuantizedImage image, OutputStream out) throws IOException {
+        Component[] components = image.getComponents();
+        Subsampling mode = components.length == 3 ? Subsampling.of(components[0].getHorizontalSampling(),
+                components[0].getVerticalSampling()) : null;
+        if (mode == null || components[1].getHorizontalSampling() != 1 || components[1].getVerticalSampling() != 1
+                || components[2].getHorizontalSampling() != 1 || components[2].getVerticalSampling() != 1
+                || components[1].getQuantizationTableId() != components[2].getQuantizationTableId()) {
+            throw new IOException("Unsupported JPEG: only YCbCr images in one of the subsampling modes can be written");
+        }
+        int[][] tables = {image.getQuantizationTable(components[0]), image.getQuantizationTable(components[1])};
+        for (int[] table : tables) {
+            for (int value : table) {
+                if (value > 255) {
+                    throw new IOException("Unsupported JPEG: only 8-bit quantization tables can be written");
                 }
-                List<List<Integer>> blockValues = Arrays.stream(blockTmp)
-                        .map(Ints::asList)
-                        .collect(Collectors.toList());
-                lineBlocks.add(new Block(blockValues));
             }
-            blocks.add(lineBlocks);
         }
-        return blocks;
+
+        EncoderContext context = new EncoderContext();
+        if (progressive) {
+            new ProgressiveWriter(components, image.getWidth(), image.getHeight(), mode, restartInterval)
+                    .write(context.getWriter(out), tables);
+            return;
+        }
+        int nrMcus = components[1].getNrBlocksW() * components[1].getNrBlocksH();
+        SymbolBuffer symbols = performEntropyEncoding(components, null, context);
+
+        JpegWriter writer = new JpegWriter();
+        writer.setOptimizeHuffmanTables(optimizeHuffmanTables);
+        writer.setRestartIndex(restartIndex);
+        writer.write(context.getWriter(out), image.getWidth(), image.getHeight(), mode, tables, restartInterval,
+                symbols.array(), nrMcus);
     }
 
     /**
-     * Convert a matrix of 4x4 blocks to 8x8 blocks by upSampling
+     * Convert, subsample, transform and quantize an image into the components of a context
      *
-     * @param blocks matrix of 4x4 blocks
-     * @param nrBlocksW number of blocks in a line
-     * @param nrBlocksH number of blocks in a column
+     * @param image input image
+     * @param context scratch memory holding the components
+     * @param metrics receives the time of the colour conversion and of the transform, null for none
+     * @return Y, U and V components
      */
-    private void upSample(List<List<Block>> blocks, int nrBlocksW, int nrBlocksH) {
-        for (int i = 0; i < nrBlocksH; i++) {
-            for (int j = 0; j < nrBlocksW; j++) {
-                Block block = blocks.get(i).get(j);
-                int[][] blockTmp = new int[8][8];
-                for (int n = 0; n < 4; n++) {
-                    for (int m = 0; m < 4; m++) {
-                        int averageValue = block.getValues().get(n).get(m);
-                        blockTmp[n * 2][m * 2] = averageValue;
-                        blockTmp[n * 2][m * 2 + 1] = averageValue;
-                        blockTmp[n * 2 + 1][m * 2] = averageValue;
-                        blockTmp[n * 2 + 1][m * 2 + 1] = averageValue;
-                    }
-                }
-                List<List<Integer>> blockValues = Arrays.stream(blockTmp)
-                        .map(Ints::asList)
-                        .collect(Collectors.toList());
-                blocks.get(i).set(j, new Block(blockValues));
+    private Component[] transform(PPMImage image, EncoderContext context, CodecMetrics metrics) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Subsampling mode = subsampling;
+        int nrMcusW = (width + mode.getMcuWidth() - 1) / mode.getMcuWidth();
+        int nrMcusH = (height + mode.getMcuHeight() - 1) / mode.getMcuHeight();
+
+        Component[] components = context.getComponents(mode, nrMcusW, nrMcusH);
+
+        //every row of MCUs is independent up to the entropy encoding
+        if (executor == null) {
+            transformRows(image, context.getStripe(this, mode, width), mode, components, 0, nrMcusH, metrics);
+        } else {
+            Stripes.run(executor, nrMcusH, (fromRow, toRow) ->
+                    transformRows(image, new StripeEncoder(this, mode, width), mode, components, fromRow, toRow,
+                            metrics));
+        }
+        return components;
+    }
+
+    /**
+     * Transform a range of rows of MCUs
+     *
+     * @param image input image
+     * @param stripe scratch planes of one row of MCUs
+     * @param mode chroma subsampling mode
+     * @param components receive the Y, U and V blocks
+     * @param fromRow first row of MCUs
+     * @param toRow row of MCUs after the last one
+     * @param metrics receives the time of the colour conversion and of the transform, null for none
+     */
+    private void transformRows(PPMImage image, StripeEncoder stripe, Subsampling mode, Component[] components,
+                               int fromRow, int toRow, CodecMetrics metrics) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int mcuHeight = mode.getMcuHeight();
+        long convertNanos = 0;
+        long transformNanos = 0;
+        for (int row = fromRow; row < toRow; row++) {
+            int fromLine = row * mcuHeight;
+            int toLine = Math.min(fromLine + mcuHeight, height);
+            long start = metrics != null ? System.nanoTime() : 0;
+
+            //convert to YUV (JFIF YCbCr, with U and V centered on 128)
+            for (int line = fromLine; line < toLine; line++) {
+                stripe.convertLine(image.getRgbData(), line * width * 3, line - fromLine);
             }
+            long converted = metrics != null ? System.nanoTime() : 0;
+
+            //subsample U and V, perform Forward Discrete Cosine Transform and quantization on 8x8 blocks
+            stripe.transform(toLine - fromLine, components, row);
+            if (metrics != null) {
+                convertNanos += converted - start;
+                transformNanos += System.nanoTime() - converted;
+            }
+        }
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.COLOUR_CONVERSION, convertNanos);
+            metrics.addNanos(CodecMetrics.Stage.TRANSFORM, transformNanos);
         }
     }
 
     /**
-     * Transform an Y/U/V 8x8 block into another 8x8 DCT coefficient block
+     * Encode an image delivered one row at a time, writing it as a baseline JFIF file while only the rows of one
+     * row of MCUs are kept
      *
-     * @param block initial block
-     * @return DCT coefficient block
+     * @param rows interleaved r, g, b values of each row, from top to bottom
+     * @param width of the image
+     * @param height of the image
+     * @param out destination of the JFIF bytes
      */
-    private List<List<Double>> forwardDiscreteCosineTransform(Block block) {
-        List<List<Double>> dctValues = new ArrayList<>();
-        for (int u = 0; u < 8; u++) {
-            List<Double> dctLine = new ArrayList<>();
-            for (int v = 0; v < 8; v++) {
-                //calculate value of G(u,v) in the output DCT block matrix
-                double alphaU = u == 0 ? (1 / Math.sqrt(2)) : 1;
-                double alphaV = v == 0 ? (1 / Math.sqrt(2)) : 1;
-                double sum = 0;
-                for (int x = 0; x < 8; x++) {
-                    for (int y = 0; y < 8; y++) {
-                        sum += (block.getValues().get(x).get(y)-128) * Math.cos(((2*x+1)*u*Math.PI)/16) * Math.cos(((2*y+1)*v*Math.PI)/16);
-                    }
+    public void encode(Iterator<byte[]> rows, int width, int height, OutputStream out) throws IOException {
+        try (StreamingEncoder stream = openStream(width, height, out)) {
+            CodecMetrics metrics = stream.getMetrics();
+            while (true) {
+                //reading the rows of a PPMReader parses the file
+                long start = metrics != null ? System.nanoTime() : 0;
+                if (!rows.hasNext()) {
+                    break;
                 }
-                double dctResult = (1.0/4.0) * alphaU * alphaV * sum;
-                dctLine.add(dctResult);
+                byte[] row = rows.next();
+                if (metrics != null) {
+                    metrics.addNanos(CodecMetrics.Stage.PPM_PARSING, System.nanoTime() - start);
+                }
+                stream.writeRow(row, 0);
             }
-            dctValues.add(dctLine);
         }
-        return dctValues;
     }
 
     /**
-     * Obtain an 8x8 block by dividing the input to a quantization matrix
+     * Encode an image held outside of the heap, copying one row at a time out of it, so that images larger than the
+     * heap can be encoded; see StreamingEncoder for the memory kept with optimized Huffman tables or progressive files
      *
-     * @param dctValues 8x8 block of DCT coefficients
-     * @return 8x8 quantized coefficients block
+     * @param image image in direct buffers or in a mapped file
+     * @param out destination of the JFIF bytes
      */
-    private List<List<Integer>> performQuantization(List<List<Double>> dctValues) {
-        List<List<Integer>> quantizationResult = new ArrayList<>();
-        for (int i = 0; i < 8; i++) {
-            List<Integer> quantizationLine = new ArrayList<>();
-            for (int j = 0; j < 8; j++) {
-                int result = (int) (dctValues.get(i).get(j) / Quantization.matrix.get(i).get(j));
-                quantizationLine.add(result);
+    public void encode(ImageBuffer image, OutputStream out) throws IOException {
+        byte[] row = new byte[image.getWidth() * 3];
+        try (StreamingEncoder stream = openStream(image.getWidth(), image.getHeight(), out)) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.readRow(y, row, 0);
+                stream.writeRow(row, 0);
             }
-            quantizationResult.add(quantizationLine);
         }
-        return quantizationResult;
     }
 
     /**
-     * Perform zig-zag parsing and runlength encoding of each Y, U and V block
+     * Start encoding an image whose rows will be supplied one at a time
      *
-     * @param yBlocks Y blocks
-     * @param uBlocks U blocks
-     * @param vBlocks V blocks
-     * @return resulting byte array
+     * @param width of the image
+     * @param height of the image
+     * @param out destination of the JFIF bytes, written after every row of MCUs
+     * @return stream accepting the rows
      */
-    private List<Integer> performEntropyEncoding(List<List<Block>> yBlocks, List<List<Block>> uBlocks, List<List<Block>> vBlocks) {
-        List<List<Integer>> byteArray = new ArrayList<>();
+    public StreamingEncoder openStream(int width, int height, OutputStream out) throws IOException {
+        return new StreamingEncoder(this, width, height, out);
+    }
+
+    public int getRestartInterval() {
+        return restartInterval;
+    }
 
-        int nrBlocksH = yBlocks.size();
-        int nrBlocksW = yBlocks.get(0).size();
+    public boolean isOptimizeHuffmanTables() {
+        return optimizeHuffmanTables;
+    }
 
-        for (int i = 0; i < nrBlocksH; i++) {
-            for (int j = 0; j < nrBlocksW; j++) {
-                byteArray.add(performRunLengthEncoding(parseZigZag(yBlocks.get(i).get(j).getValues())));
-                byteArray.add(performRunLengthEncoding(parseZigZag(uBlocks.get(i).get(j).getValues())));
-                byteArray.add(performRunLengthEncoding(parseZigZag(vBlocks.get(i).get(j).getValues())));
-            }
-        }
+    public boolean isProgressive() {
+        return progressive;
+    }
 
-        return byteArray.stream().flatMap(List::stream).collect(Collectors.toList());
+    public boolean isRestartIndex() {
+        return restartIndex;
     }
 
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    DiscreteCosineTransform getTransform() {
+        return transform;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
 
     /**
-     * Obtain an array representing the zig-zag parsing of a matrix
+     * @return luminance and chrominance quantization matrices in row-major order, indexed by table id
+     */
+    public int[][] getQuantizationTables() {
+        return new int[][]{quantizationTables[0].getValues(), quantizationTables[1].getValues()};
+    }
+
+    /**
+     * Create the Y, U and V components of an image, the Y component holding the blocks of all MCUs
      *
-     * @param matrix input matrix
-     * @return matrix parsed in zig-zag
+     * @param subsampling chroma subsampling mode
+     * @param nrMcusW number of MCUs in a row
+     * @param nrMcusH number of rows of MCUs
+     * @return Y, U and V components with ids 1 to 3, U and V using quantization table 1
      */
-    private List<Integer> parseZigZag(List<List<Integer>> matrix) {
-        int size = matrix.size();
+    static Component[] createComponents(Subsampling subsampling, int nrMcusW, int nrMcusH) {
+        int horizontalFactor = subsampling.getHorizontalFactor();
+        int verticalFactor = subsampling.getVerticalFactor();
+        Component[] components = {
+                new Component(nrMcusW * horizontalFactor, nrMcusH * verticalFactor),
+                new Component(nrMcusW, nrMcusH),
+                new Component(nrMcusW, nrMcusH)};
+        components[0].setHorizontalSampling(horizontalFactor);
+        components[0].setVerticalSampling(verticalFactor);
+        for (int i = 0; i < 3; i++) {
+            components[i].setId(i + 1);
+            components[i].setQuantizationTableId(i == 0 ? 0 : 1);
+        }
+        return components;
+    }
 
-        List<List<Integer>> diagonals = new ArrayList<>();
-        for (int i = 0; i < size * 2 - 1; i++) {
-            diagonals.add(new ArrayList<>());
+    /**
+     * Convert consecutive pixels from interleaved RGB values to Y, U and V samples, in 16-bit fixed point
+     *
+     * @param rgb interleaved r, g, b values
+     * @param rgbOffset position of the first r value
+     * @param y Y plane
+     * @param u U plane
+     * @param v V plane
+     * @param planeOffset position of the first sample in the planes
+     * @param nrPixels number of pixels to convert
+     */
+    void convertToYUV(byte[] rgb, int rgbOffset, Plane y, Plane u, Plane v, int planeOffset, int nrPixels) {
+        short[] ySamples = y.getSamples();
+        short[] uSamples = u.getSamples();
+        short[] vSamples = v.getSamples();
+        int from = planeOffset;
+        int to = planeOffset + nrPixels;
+        for (int i = from, p = rgbOffset; i < to; i++, p += 3) {
+            int r = rgb[p] & 0xFF;
+            int g = rgb[p+1] & 0xFF;
+            int b = rgb[p+2] & 0xFF;
+            ySamples[i] = (short) ((Y_R*r + Y_G*g + Y_B*b + ONE_HALF) >> SCALE_BITS);
+            //rounding down at one half keeps U and V within 255
+            uSamples[i] = (short) ((U_B*b - U_R*r - U_G*g + CENTER + ONE_HALF - 1) >> SCALE_BITS);
+            vSamples[i] = (short) ((V_R*r - V_G*g - V_B*b + CENTER + ONE_HALF - 1) >> SCALE_BITS);
         }
+    }
 
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                int indexSum = i + j;
-                if (indexSum % 2 == 0) {
-                    diagonals.get(indexSum).add(0, matrix.get(i).get(j));
+    /**
+     * Store the average of each group of samples of a plane in a plane of reduced resolution
+     *
+     * @param plane U or V plane at full resolution
+     * @param subsampled plane receiving the averages
+     * @param horizontalFactor number of samples of a group in a line
+     * @param verticalFactor number of lines of a group
+     */
+    void subSample(Plane plane, Plane subsampled, int horizontalFactor, int verticalFactor) {
+        int width = plane.getWidth();
+        for (int i = 0; i < subsampled.getHeight(); i++) {
+            int y0 = i * verticalFactor;
+            for (int j = 0; j < subsampled.getWidth(); j++) {
+                int x0 = j * horizontalFactor;
+                int x1 = Math.min(x0 + horizontalFactor, width);
+                int sum = 0;
+                for (int y = y0; y < y0 + verticalFactor; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        sum += plane.get(x, y);
+                    }
                 }
-                else {
-                    diagonals.get(indexSum).add(matrix.get(i).get(j));
+                int count = (x1 - x0) * verticalFactor;
+                subsampled.set(j, i, (sum + count / 2) / count);
+            }
+        }
+    }
+
+    /**
+     * Perform Forward DCT and quantization on each 8x8 block of a row of blocks
+     *
+     * @param plane Y/U/V plane
+     * @param planeRow index of the row of blocks in the plane
+     * @param component receives the quantized coefficients
+     * @param row index of the row of blocks in the component
+     * @param samples scratch block of samples
+     * @param dctValues scratch block of DCT coefficients
+     */
+    void transformRow(Plane plane, int planeRow, Component component, int row, int[] samples, float[] dctValues) {
+        short[] coefficients = component.getCoefficients();
+        QuantizationTable table = getQuantizationTable(component);
+        for (int j = 0; j < component.getNrBlocksW(); j++) {
+            plane.readBlock(j, planeRow, samples);
+            forwardDiscreteCosineTransform(samples, dctValues);
+            performQuantization(dctValues, table, coefficients, component.getBlockOffset(j, row));
+        }
+    }
+
+    /**
+     * Transform an Y/U/V 8x8 block into another 8x8 DCT coefficient block, leaving the final scaling of the
+     * coefficients to the quantization
+     *
+     * @param samples initial block
+     * @param dctValues unscaled DCT coefficient block
+     */
+    void forwardDiscreteCosineTransform(int[] samples, float[] dctValues) {
+        transform.forwardUnscaled(samples, dctValues);
+    }
+
+    /**
+     * Obtain an 8x8 block by dividing the input to a quantization matrix, through multiplications by the
+     * prepared reciprocals
+     *
+     * @param dctValues 8x8 block of unscaled DCT coefficients
+     * @param table luminance or chrominance quantization table
+     * @param quantized array receiving the quantized coefficients
+     * @param offset position of the block in the quantized array
+     */
+    void performQuantization(float[] dctValues, QuantizationTable table, short[] quantized, int offset) {
+        table.quantize(dctValues, quantized, offset);
+    }
+
+    /**
+     * Get the prepared quantization table of a component
+     *
+     * @param component Y, U or V component
+     * @return table matching the component's table id
+     */
+    QuantizationTable getQuantizationTable(Component component) {
+        return quantizationTables[component.getQuantizationTableId()];
+    }
+
+    /**
+     * Perform zig-zag parsing and runlength encoding of each MCU
+     *
+     * @param components Y, U and V blocks
+     * @param segmentOffsets receives the position of the first value of each restart segment, null when not needed
+     * @param context scratch memory holding the symbols
+     * @return symbols of all MCUs
+     */
+    private SymbolBuffer performEntropyEncoding(Component[] components, int[] segmentOffsets,
+                                               EncoderContext context) {
+        int nrMcusH = components[1].getNrBlocksH();
+        int nrMcusW = components[1].getNrBlocksW();
+        int blocksPerMcu = components[0].getHorizontalSampling() * components[0].getVerticalSampling() + 2;
+        SymbolBuffer byteArray = context.getSymbols(nrMcusW * nrMcusH * blocksPerMcu * 16);
+
+        int[] zigZag = context.getZigZag();
+        for (int i = 0; i < nrMcusH; i++) {
+            for (int j = 0; j < nrMcusW; j++) {
+                int mcu = i * nrMcusW + j;
+                if (segmentOffsets != null && restartInterval > 0 && mcu % restartInterval == 0) {
+                    segmentOffsets[mcu / restartInterval] = byteArray.size();
                 }
+                performEntropyEncoding(components, j, i, zigZag, byteArray);
             }
         }
 
-        return diagonals.stream().flatMap(List::stream).collect(Collectors.toList());
+        return byteArray;
     }
 
     /**
-     * Obtain an array of maximum 64*3-1 bytes by performing runlength encoding
+     * Perform zig-zag parsing and runlength encoding of the blocks of one MCU: the Y blocks in raster order,
+     * followed by the U and the V blocks
      *
-     * @param coefficients an array of 64 integer values
-     * @return encoded byte array
+     * @param components Y, U and V blocks
+     * @param mcuX horizontal index of the MCU
+     * @param mcuY vertical index of the MCU
+     * @param zigZag scratch array of 64 values
+     * @param byteArray encoded byte array
      */
-    private List<Integer> performRunLengthEncoding(List<Integer> coefficients) {
+    void performEntropyEncoding(Component[] components, int mcuX, int mcuY, int[] zigZag, SymbolBuffer byteArray) {
+        for (Component component : components) {
+            int horizontalSampling = component.getHorizontalSampling();
+            int verticalSampling = component.getVerticalSampling();
+            for (int n = 0; n < verticalSampling; n++) {
+                for (int m = 0; m < horizontalSampling; m++) {
+                    int offset = component.getBlockOffset(mcuX * horizontalSampling + m, mcuY * verticalSampling + n);
+                    parseZigZag(component.getCoefficients(), offset, zigZag);
+                    performRunLengthEncoding(zigZag, byteArray);
+                }
+            }
+        }
+    }
 
-        List<Integer> result = new ArrayList<>();
+    /**
+     * Obtain an array representing the zig-zag parsing of a matrix
+     *
+     * @param matrix array holding the 8x8 input matrix in row-major order
+     * @param offset position of the matrix in the array
+     * @param result matrix parsed in zig-zag
+     */
+    void parseZigZag(short[] matrix, int offset, int[] result) {
+        for (int i = 0; i < 64; i++) {
+            result[i] = matrix[offset + ZigZag.ORDER[i]];
+        }
+    }
 
+    /**
+     * Append the runlength encoding of a block (maximum 3 + 63*3 bytes) to the byte array
+     *
+     * @param coefficients an array of 64 integer values
+     * @param byteArray encoded byte array
+     */
+    void performRunLengthEncoding(int[] coefficients, SymbolBuffer byteArray) {
         // add size and amplitude of the DC coefficient
-        result.add(countBits(coefficients.get(0)));
-        result.add(coefficients.get(0));
+        byteArray.add(0, countBits(coefficients[0]), coefficients[0]);
+
+        // find the last non-zero AC coefficient; blocks of flat regions stop right after the DC coefficient
+        int last = 63;
+        while (last > 0 && coefficients[last] == 0) {
+            last--;
+        }
 
-        // add runlength, size and amplitude of all AC coefficients
+        // add runlength, size and amplitude of the AC coefficients up to the last non-zero one
         int runLengthCounter = 0;
-        for (Integer elem : coefficients.subList(1, coefficients.size())) {
+        for (int i = 1; i <= last; i++) {
+            int elem = coefficients[i];
             if (elem != 0) {
-                result.add(runLengthCounter);
-                result.add(countBits(elem));
-                result.add(elem);
+                // runs longer than 15 zeros are split by (15,0) symbols, each standing for 16 zeros
+                while (runLengthCounter > 15) {
+                    byteArray.add(15, 0, 0);
+                    runLengthCounter -= 16;
+                }
+                byteArray.add(runLengthCounter, countBits(elem), elem);
                 runLengthCounter = 0;
             }
             else {
@@ -286,21 +689,18 @@ public class Encoder {
             }
         }
         // add (0,0) if the block ends with a consecutive sequence of zeroes
-        if (runLengthCounter > 0) {
-            result.add(0);
-            result.add(0);
+        if (last < 63) {
+            byteArray.add(0, 0, 0);
         }
-
-        return result;
     }
 
     /**
      * Get the number of bits needed to represent a number
      *
      * @param number an integer number
-     * @return number of bits
+     * @return number of bits, 0 for 0
      */
-    private Integer countBits(int number) {
-        return (int) (Math.log(Math.abs(number)) / Math.log(2) + 1);
+    private int countBits(int number) {
+        return 32 - Integer.numberOfLeadingZeros(number < 0 ? -number : number);
     }
 }
@@ -0,0 +1,82 @@
+package codec;
+
+import model.Component;
+import model.Subsampling;
+
+import java.io.OutputStream;
+
+/**
+ * Scratch memory of an encoder kept from one image to the next: the coefficients of the components, the planes of a
+ * row of MCUs, the runlength symbols and the output buffer. Encoding images of the same size and mode with one
+ * context allocates none of them again; a context is not thread-safe, so each thread keeps its own
+ */
+public class EncoderContext {
+
+    private Component[] components;
+    private Subsampling componentSubsampling;
+
+    private StripeEncoder stripe;
+    private Encoder stripeEncoder;
+    private Subsampling stripeSubsampling;
+    private int stripeWidth;
+
+    private SymbolBuffer symbols;
+    private final int[] zigZag = new int[64];
+    private final BitWriter writer = new BitWriter(null);
+
+    /**
+     * @param subsampling chroma subsampling mode
+     * @param nrMcusW number of MCUs in a row
+     * @param nrMcusH number of rows of MCUs
+     * @return Y, U and V components, kept from the previous image when it had the same MCUs
+     */
+    Component[] getComponents(Subsampling subsampling, int nrMcusW, int nrMcusH) {
+        if (components == null || componentSubsampling != subsampling
+                || components[1].getNrBlocksW() != nrMcusW || components[1].getNrBlocksH() != nrMcusH) {
+            components = Encoder.createComponents(subsampling, nrMcusW, nrMcusH);
+            componentSubsampling = subsampling;
+        }
+        return components;
+    }
+
+    /**
+     * @param encoder encoder transforming the rows
+     * @param subsampling chroma subsampling mode
+     * @param width of the image
+     * @return scratch planes of one row of MCUs
+     */
+    StripeEncoder getStripe(Encoder encoder, Subsampling subsampling, int width) {
+        if (stripe == null || stripeEncoder != encoder || stripeSubsampling != subsampling || stripeWidth != width) {
+            stripe = new StripeEncoder(encoder, subsampling, width);
+            stripeEncoder = encoder;
+            stripeSubsampling = subsampling;
+            stripeWidth = width;
+        }
+        return stripe;
+    }
+
+    /**
+     * @param initialCapacity expected number of bytes, used when no buffer was created yet
+     * @return empty symbol buffer, keeping the capacity it grew to
+     */
+    SymbolBuffer getSymbols(int initialCapacity) {
+        if (symbols == null) {
+            symbols = new SymbolBuffer(initialCapacity);
+        }
+        symbols.clear();
+        return symbols;
+    }
+
+    int[] getZigZag() {
+        return zigZag;
+    }
+
+    /**
+     * @param out destination of the JFIF bytes
+     * @return writer buffering into the context's buffer
+     */
+    BitWriter getWriter(OutputStream out) {
+        writer.reset(out);
+        return writer;
+    }
+}
@@ -0,0 +1,171 @@
+package codec;
+
+import model.Subsampling;
+
+import java.io.IOException;
+
+/**
+ * Huffman coder of the runlength symbols of consecutive MCUs, keeping the DC predictions and the restart markers
+ * across calls so that an image can be written in pieces; without a BitWriter it only counts how often each
+ * Huffman symbol occurs, for building optimized tables
+ */
+class EntropyWriter {
+
+    private static final int RST0 = 0xD0;
+
+    //standard tables in the order luminance DC, luminance AC, chrominance DC, chrominance AC
+    static final HuffmanTable[] STANDARD_TABLES = {
+            HuffmanTable.LUMINANCE_DC, HuffmanTable.LUMINANCE_AC,
+            HuffmanTable.CHROMINANCE_DC, HuffmanTable.CHROMINANCE_AC};
+
+    private final BitWriter writer;
+    private final HuffmanTable[] tables;
+    //occurrences of each symbol for each table, when counting
+    private final int[][] frequencies;
+    private final int restartInterval;
+    //number of blocks of each component in an MCU
+    private final int[] blockCounts;
+    private final int[] predictions = new int[3];
+    //number of MCUs written so far
+    private int mcu;
+
+    EntropyWriter(BitWriter writer, Subsampling subsampling, int restartInterval) {
+        this(writer, subsampling, restartInterval, STANDARD_TABLES);
+    }
+
+    /**
+     * @param tables Huffman tables in the order luminance DC, luminance AC, chrominance DC, chrominance AC
+     */
+    EntropyWriter(BitWriter writer, Subsampling subsampling, int restartInterval, HuffmanTable[] tables) {
+        this.writer = writer;
+        this.tables = tables;
+        this.frequencies = writer == null ? new int[4][256] : null;
+        this.blockCounts = new int[]{subsampling.getHorizontalFactor() * subsampling.getVerticalFactor(), 1, 1};
+        this.restartInterval = restartInterval;
+    }
+
+    /**
+     * Build the Huffman tables giving the shortest entropy coded data for a sequence of MCUs
+     *
+     * @param byteArray runlength symbols
+     * @param index position of the first symbol of the first MCU
+     * @param nrMcus number of MCUs
+     * @param subsampling chroma subsampling mode of the MCUs
+     * @param restartInterval number of MCUs between restart markers, 0 for none
+     * @return tables in the order luminance DC, luminance AC, chrominance DC, chrominance AC
+     */
+    static HuffmanTable[] optimizeTables(byte[] byteArray, int index, int nrMcus, Subsampling subsampling,
+                                         int restartInterval) throws IOException {
+        EntropyWriter counter = new EntropyWriter(null, subsampling, restartInterval, STANDARD_TABLES);
+        counter.writeMcus(byteArray, index, nrMcus);
+        HuffmanTable[] tables = new HuffmanTable[4];
+        for (int i = 0; i < 4; i++) {
+            tables[i] = HuffmanTable.optimal(counter.frequencies[i]);
+        }
+        return tables;
+    }
+
+    /**
+     * Huffman code the symbols of a number of MCUs, replacing each DC coefficient by its difference to the
+     * DC coefficient of the previous block of the same component; the prediction restarts from 0 after each
+     * restart marker
+     *
+     * @param byteArray runlength symbols
+     * @param index position of the first symbol of the first MCU
+     * @param nrMcus number of MCUs to write
+     * @return position of the first symbol after the written MCUs
+     */
+    int writeMcus(byte[] byteArray, int index, int nrMcus) throws IOException {
+        for (int i = 0; i < nrMcus; i++, mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                if (writer != null) {
+                    writer.alignBits();
+                    writer.writeMarker(RST0 + (mcu / restartInterval - 1) % 8);
+                }
+                predictions[0] = predictions[1] = predictions[2] = 0;
+            }
+            for (int c = 0; c < 3; c++) {
+                for (int block = 0; block < blockCounts[c]; block++) {
+                    index = writeBlock(byteArray, index, c);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Huffman code the symbols of one block
+     *
+     * @param byteArray runlength symbols
+     * @param index position of the first symbol of the block
+     * @param c index of the component of the block
+     * @return position of the first symbol after the block
+     */
+    private int writeBlock(byte[] byteArray, int index, int c) throws IOException {
+        //Y uses the luminance tables, U and V the chrominance ones
+        int dcTable = c == 0 ? 0 : 2;
+        int acTable = dcTable + 1;
+
+        //DC coefficient: size and amplitude, coded as the difference to the prediction
+        int size = byteArray[index++];
+        int dc = SymbolBuffer.readValue(byteArray, index, size);
+        int difference = dc - predictions[c];
+        int differenceSize = 32 - Integer.numberOfLeadingZeros(difference < 0 ? -difference : difference);
+        writeSymbol(dcTable, differenceSize);
+        if (differenceSize > 0) {
+            writeBits(difference < 0 ? difference - 1 : difference, differenceSize);
+        }
+        predictions[c] = dc;
+        index += SymbolBuffer.amplitudeLength(size);
+
+        //AC coefficients: (runlength, size) symbols followed by their amplitude bits, until 63 were read or (0,0)
+        //was found
+        int position = 1;
+        while (position < 64) {
+            int symbol = byteArray[index++] & 0xFF;
+            writeSymbol(acTable, symbol);
+            if (symbol == 0x00) {
+                break;
+            }
+            size = symbol & 0x0F;
+            if (size > 0) {
+                writeBits(SymbolBuffer.readBits(byteArray, index, size), size);
+                index += SymbolBuffer.amplitudeLength(size);
+            }
+            position += (symbol >> 4) + 1;
+        }
+        return index;
+    }
+
+    /**
+     * Pad the entropy coded data to a whole byte
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.alignBits();
+        }
+    }
+
+    /**
+     * Write the Huffman code of a symbol, or count the symbol
+     *
+     * @param table index of the table
+     * @param symbol size, preceded by the runlength in the high nibble for AC symbols
+     */
+    private void writeSymbol(int table, int symbol) throws IOException {
+        if (writer == null) {
+            frequencies[table][symbol]++;
+        } else {
+            writer.writeBits(tables[table].getCode(symbol), tables[table].getCodeLength(symbol));
+        }
+    }
+
+    /**
+     * Write the low-order bits of an amplitude, negative values being given in one's complement
+     */
+    private void writeBits(int bits, int count) throws IOException {
+        if (writer != null) {
+            writer.writeBits(bits, count);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package codec;
+
+/**
+ * Factored 8-point DCT after Arai, Agui and Nakajima (the floating point variant used by libjpeg),
+ * needing 5 multiplications per 8-point pass instead of 64
+ */
+public class FastDCT implements DiscreteCosineTransform {
+
+    //AAN_SCALE[k] = cos(k*PI/16) * sqrt(2) for k > 0, 1 for k = 0
+    private static final double[] AAN_SCALE = new double[8];
+
+    //factors removing the AAN output scaling after the forward transform
+    private static final float[] FORWARD_DESCALE = new float[64];
+
+    //factors applying the AAN input scaling before the inverse transform
+    private static final float[] INVERSE_SCALE = new float[64];
+
+    static {
+        for (int k = 0; k < 8; k++) {
+            AAN_SCALE[k] = k == 0 ? 1 : Math.cos(k * Math.PI / 16) * Math.sqrt(2);
+        }
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                FORWARD_DESCALE[u*8+v] = (float) (1.0 / (AAN_SCALE[u] * AAN_SCALE[v] * 8));
+                INVERSE_SCALE[u*8+v] = (float) (AAN_SCALE[u] * AAN_SCALE[v] / 8);
+            }
+        }
+    }
+
+    @Override
+    public void forward(int[] samples, float[] coefficients) {
+        forwardUnscaled(samples, coefficients);
+        for (int i = 0; i < 64; i++) {
+            coefficients[i] *= FORWARD_DESCALE[i];
+        }
+    }
+
+    @Override
+    public void forwardUnscaled(int[] samples, float[] coefficients) {
+        float[] data = coefficients;
+        for (int i = 0; i < 64; i++) {
+            data[i] = samples[i] - 128;
+        }
+
+        //transform the rows
+        for (int offset = 0; offset < 64; offset += 8) {
+            forwardPass(data, offset, 1);
+        }
+
+        //transform the columns
+        for (int offset = 0; offset < 8; offset++) {
+            forwardPass(data, offset, 8);
+        }
+    }
+
+    @Override
+    public float getForwardScale(int index) {
+        return FORWARD_DESCALE[index];
+    }
+
+    @Override
+    public void inverse(float[] coefficients, int[] samples) {
+        float[] data = new float[64];
+        for (int i = 0; i < 64; i++) {
+            data[i] = coefficients[i] * INVERSE_SCALE[i];
+        }
+        inverseUnscaled(data, samples);
+    }
+
+    @Override
+    public void inverseUnscaled(float[] coefficients, int[] samples) {
+        float[] data = coefficients;
+
+        //transform the columns
+        for (int offset = 0; offset < 8; offset++) {
+            inversePass(data, offset, 8);
+        }
+
+        //transform the rows
+        for (int offset = 0; offset < 64; offset += 8) {
+            inversePass(data, offset, 1);
+        }
+
+        for (int i = 0; i < 64; i++) {
+            samples[i] = Math.round(data[i]) + 128;
+        }
+    }
+
+    @Override
+    public float getInverseScale(int index) {
+        return INVERSE_SCALE[index];
+    }
+
+    /**
+     * Perform the scaled forward 8-point DCT in place on one row or column of a block
+     *
+     * @param data block values
+     * @param offset index of the first value
+     * @param step distance between two consecutive values
+     */
+    private static void forwardPass(float[] data, int offset, int step) {
+        int i0 = offset, i1 = i0 + step, i2 = i1 + step, i3 = i2 + step;
+        int i4 = i3 + step, i5 = i4 + step, i6 = i5 + step, i7 = i6 + step;
+
+        float tmp0 = data[i0] + data[i7];
+        float tmp7 = data[i0] - data[i7];
+        float tmp1 = data[i1] + data[i6];
+        float tmp6 = data[i1] - data[i6];
+        float tmp2 = data[i2] + data[i5];
+        float tmp5 = data[i2] - data[i5];
+        float tmp3 = data[i3] + data[i4];
+        float tmp4 = data[i3] - data[i4];
+
+        //even part
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        data[i0] = tmp10 + tmp11;
+        data[i4] = tmp10 - tmp11;
+
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        data[i2] = tmp13 + z1;
+        data[i6] = tmp13 - z1;
+
+        //odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+
+        data[i5] = z13 + z2;
+        data[i3] = z13 - z2;
+        data[i1] = z11 + z4;
+        data[i7] = z11 - z4;
+    }
+
+    /**
+     * Perform the scaled inverse 8-point DCT in place on one row or column of a block
+     *
+     * @param data block values
+     * @param offset index of the first value
+     * @param step distance between two consecutive values
+     */
+    private static void inversePass(float[] data, int offset, int step) {
+        int i0 = offset, i1 = i0 + step, i2 = i1 + step, i3 = i2 + step;
+        int i4 = i3 + step, i5 = i4 + step, i6 = i5 + step, i7 = i6 + step;
+
+        //even part
+        float tmp0 = data[i0];
+        float tmp1 = data[i2];
+        float tmp2 = data[i4];
+        float tmp3 = data[i6];
+
+        float tmp10 = tmp0 + tmp2;
+        float tmp11 = tmp0 - tmp2;
+        float tmp13 = tmp1 + tmp3;
+        float tmp12 = (tmp1 - tmp3) * 1.414213562f - tmp13;
+
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+
+        //odd part
+        float tmp4 = data[i1];
+        float tmp5 = data[i3];
+        float tmp6 = data[i5];
+        float tmp7 = data[i7];
+
+        float z13 = tmp6 + tmp5;
+        float z10 = tmp6 - tmp5;
+        float z11 = tmp4 + tmp7;
+        float z12 = tmp4 - tmp7;
+
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * 1.414213562f;
+
+        float z5 = (z10 + z12) * 1.847759065f;
+        tmp10 = 1.082392200f * z12 - z5;
+        tmp12 = -2.613125930f * z10 + z5;
+
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 + tmp5;
+
+        data[i0] = tmp0 + tmp7;
+        data[i7] = tmp0 - tmp7;
+        data[i1] = tmp1 + tmp6;
+        data[i6] = tmp1 - tmp6;
+        data[i2] = tmp2 + tmp5;
+        data[i5] = tmp2 - tmp5;
+        data[i4] = tmp3 + tmp4;
+        data[i3] = tmp3 - tmp4;
+    }
+}
@@ -0,0 +1,64 @@
+package codec;
+
+import java.io.IOException;
+
+/**
+ * Table-driven decoder of Huffman codes: codes of up to LOOKAHEAD bits are resolved by a single table lookup,
+ * longer codes by comparing against the largest code of each length
+ */
+class HuffmanDecoder {
+
+    private static final int LOOKAHEAD = 9;
+
+    //for every LOOKAHEAD bit prefix: code length in the high byte and symbol in the low byte, 0 for longer codes
+    private final int[] lookup = new int[1 << LOOKAHEAD];
+    //largest code of each length, -1 if there is none
+    private final int[] maxCode = new int[18];
+    //offset to add to a code of each length to find its index in values
+    private final int[] valueOffset = new int[17];
+    private final int[] values;
+
+    HuffmanDecoder(HuffmanTable table) {
+        int[] bits = table.getBits();
+        values = table.getValues();
+
+        int code = 0;
+        int index = 0;
+        for (int length = 1; length <= 16; length++) {
+            int count = bits[length - 1];
+            valueOffset[length] = index - code;
+            for (int i = 0; i < count; i++, index++, code++) {
+                if (length <= LOOKAHEAD) {
+                    //fill every prefix starting with this code
+                    int shift = LOOKAHEAD - length;
+                    for (int suffix = 0; suffix < (1 << shift); suffix++) {
+                        lookup[(code << shift) | suffix] = (length << 8) | values[index];
+                    }
+                }
+            }
+            maxCode[length] = count > 0 ? code - 1 : -1;
+            code <<= 1;
+        }
+        maxCode[17] = Integer.MAX_VALUE;
+    }
+
+    int decode(BitReader reader) throws IOException {
+        int entry = lookup[reader.peekBits(LOOKAHEAD)];
+        if (entry != 0) {
+            reader.skipBits(entry >> 8);
+            return entry & 0xFF;
+        }
+
+        int length = LOOKAHEAD + 1;
+        int code = reader.peekBits(length);
+        while (code > maxCode[length]) {
+            length++;
+            code = reader.peekBits(length);
+        }
+        if (length > 16) {
+            throw new IOException("Invalid JPEG: corrupt Huffman code");
+        }
+        reader.skipBits(length);
+        return values[code + valueOffset[length]];
+    }
+}
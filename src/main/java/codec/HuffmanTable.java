@@ -0,0 +1,193 @@
+package codec;
+
+import java.util.Arrays;
+
+/**
+ * Huffman table in the form stored by a DHT segment: the number of codes of each length and the symbols in code order
+ */
+public class HuffmanTable {
+
+    public static final HuffmanTable LUMINANCE_DC = new HuffmanTable(
+            new int[]{0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0},
+            new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11});
+
+    public static final HuffmanTable CHROMINANCE_DC = new HuffmanTable(
+            new int[]{0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0},
+            new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11});
+
+    public static final HuffmanTable LUMINANCE_AC = new HuffmanTable(
+            new int[]{0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d},
+            new int[]{
+                    0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+                    0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+                    0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+                    0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+                    0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+                    0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+                    0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+                    0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+                    0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+                    0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+                    0xf9, 0xfa});
+
+    public static final HuffmanTable CHROMINANCE_AC = new HuffmanTable(
+            new int[]{0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77},
+            new int[]{
+                    0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+                    0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+                    0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+                    0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+                    0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+                    0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+                    0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+                    0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+                    0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+                    0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+                    0xf9, 0xfa});
+
+    //number of codes of each length from 1 to 16 bits
+    private final int[] bits;
+    //symbols ordered by code
+    private final int[] values;
+    //code and code length of each symbol, a length of 0 marks a symbol without code
+    private final int[] codes = new int[256];
+    private final int[] codeLengths = new int[256];
+
+    public HuffmanTable(int[] bits, int[] values) {
+        this.bits = bits;
+        this.values = values;
+        generateCodes();
+    }
+
+    /**
+     * Build the optimal table for the given symbol frequencies with code lengths limited to 16 bits, following
+     * Annex K.2 of the JPEG standard; a reserved symbol keeps any code from consisting of 1 bits only
+     *
+     * @param frequencies number of occurrences of each of the 256 symbols
+     * @return table holding a code for every symbol that occurs
+     */
+    public static HuffmanTable optimal(int[] frequencies) {
+        long[] frequency = new long[257];
+        int[] codeSize = new int[257];
+        int[] others = new int[257];
+        for (int i = 0; i < 256; i++) {
+            frequency[i] = frequencies[i];
+        }
+        frequency[256] = 1;
+        Arrays.fill(others, -1);
+
+        //merge the two least frequent trees until one is left, the larger symbol winning ties
+        while (true) {
+            int c1 = -1;
+            int c2 = -1;
+            for (int i = 0; i <= 256; i++) {
+                if (frequency[i] == 0) {
+                    continue;
+                }
+                if (c1 < 0 || frequency[i] <= frequency[c1]) {
+                    c2 = c1;
+                    c1 = i;
+                } else if (c2 < 0 || frequency[i] <= frequency[c2]) {
+                    c2 = i;
+                }
+            }
+            if (c2 < 0) {
+                break;
+            }
+
+            frequency[c1] += frequency[c2];
+            frequency[c2] = 0;
+            codeSize[c1]++;
+            while (others[c1] >= 0) {
+                c1 = others[c1];
+                codeSize[c1]++;
+            }
+            others[c1] = c2;
+            codeSize[c2]++;
+            while (others[c2] >= 0) {
+                c2 = others[c2];
+                codeSize[c2]++;
+            }
+        }
+
+        int[] counts = new int[33];
+        for (int i = 0; i <= 256; i++) {
+            counts[codeSize[i]]++;
+        }
+
+        //move pairs of codes longer than 16 bits up the tree: one of them takes the place of a shorter code that
+        //becomes the prefix of two codes
+        for (int i = 32; i > 16; i--) {
+            while (counts[i] > 0) {
+                int j = i - 2;
+                while (counts[j] == 0) {
+                    j--;
+                }
+                counts[i] -= 2;
+                counts[i - 1]++;
+                counts[j + 1] += 2;
+                counts[j]--;
+            }
+        }
+
+        //drop the reserved symbol, which has one of the longest codes
+        int longest = 16;
+        while (longest > 0 && counts[longest] == 0) {
+            longest--;
+        }
+        if (longest > 0) {
+            counts[longest]--;
+        }
+
+        int[] bits = new int[16];
+        System.arraycopy(counts, 1, bits, 0, 16);
+        int[] values = new int[256];
+        int nrValues = 0;
+        for (int length = 1; length <= 32; length++) {
+            for (int symbol = 0; symbol < 256; symbol++) {
+                if (codeSize[symbol] == length) {
+                    values[nrValues++] = symbol;
+                }
+            }
+        }
+        return new HuffmanTable(bits, Arrays.copyOf(values, nrValues));
+    }
+
+    public int[] getBits() {
+        return bits;
+    }
+
+    public int[] getValues() {
+        return values;
+    }
+
+    public int getCode(int symbol) {
+        return codes[symbol];
+    }
+
+    public int getCodeLength(int symbol) {
+        return codeLengths[symbol];
+    }
+
+    /**
+     * Assign the canonical codes: consecutive values within a length, shifted left when moving to the next length;
+     * the code of all 1 bits stays reserved
+     */
+    private void generateCodes() {
+        int code = 0;
+        int index = 0;
+        for (int length = 1; length <= 16; length++) {
+            if (code + bits[length - 1] >= 1 << length || index + bits[length - 1] > values.length) {
+                throw new IllegalArgumentException("Huffman table with more codes of " + length
+                        + " bits than fit in the code space or than values");
+            }
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[values[index]] = code;
+                codeLengths[values[index]] = length;
+                index++;
+                code++;
+            }
+            code <<= 1;
+        }
+    }
+}
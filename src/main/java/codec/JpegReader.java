@@ -0,0 +1,1214 @@
+package codec;
+
+import model.Component;
+import model.QuantizedImage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Reader of baseline sequential and progressive JPEG files, recovering the quantized DCT coefficients of every
+ * component
+ */
+public class JpegReader {
+
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int SOF2 = 0xC2;
+    private static final int DHT = 0xC4;
+    private static final int RST0 = 0xD0;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DRI = 0xDD;
+    private static final int APP9 = 0xE9;
+    //approximate number of pixels in a band of a file read in bands
+    private static final int BAND_PIXELS = 1 << 20;
+
+    private final ByteBuffer buffer;
+    private final int[][] quantizationTables = new int[4][];
+    private final HuffmanDecoder[] dcDecoders = new HuffmanDecoder[4];
+    private final HuffmanDecoder[] acDecoders = new HuffmanDecoder[4];
+    private int restartInterval;
+
+    private int width;
+    private int height;
+    private Component[] components;
+    private int maxH;
+    private int maxV;
+    private int mcusW;
+    private int mcusH;
+    private boolean progressive;
+
+    private final ExecutorService executor;
+    private final DecoderContext context;
+    //stop at the end of truncated data instead of failing, see readPartial
+    private final boolean partial;
+    //stop before the end of the image: at the end of the data of a partial read, or once a region was read
+    private boolean stopped;
+
+    //rectangle of a region read, see readRegion, and its window of whole MCUs
+    private final int[] region;
+    private int windowMcuX;
+    private int windowMcuY;
+    private int windowMcusW;
+    private int windowMcusH;
+    //offset of each restart segment in the entropy coded data, from the APP9 segments of JpegWriter
+    private int[] restartOffsets;
+    private int nrRestartOffsets;
+    //bit mask of the components that were scanned
+    private int scannedComponents;
+
+    //receiver of the bands of a file read in bands, see readBands, null otherwise
+    private BandListener bandListener;
+    //rows of MCUs in a band
+    private int bandMcusH;
+    //whether the bands were passed on while the scan was decoded
+    private boolean banded;
+    //ids, sampling factors and quantization tables of the components of the frame
+    private int[] componentIds;
+    private int[] componentSamplings;
+    private int[] componentTables;
+
+    private JpegReader(ByteBuffer buffer, ExecutorService executor, DecoderContext context, boolean partial) {
+        this(buffer, executor, context, partial, null);
+    }
+
+    private JpegReader(ByteBuffer buffer, ExecutorService executor, DecoderContext context, boolean partial,
+                       int[] region) {
+        this.buffer = buffer;
+        this.executor = executor;
+        this.context = context;
+        this.partial = partial;
+        this.region = region;
+    }
+
+    /**
+     * Read a JPEG file from a channel, memory-mapping it when the channel is a file
+     *
+     * @param channel source of the JPEG bytes
+     * @return quantized coefficients of the image
+     */
+    public static QuantizedImage read(ReadableByteChannel channel) throws IOException {
+        return read(channel, null);
+    }
+
+    /**
+     * Read a JPEG file from a channel, memory-mapping it when the channel is a file
+     *
+     * @param channel source of the JPEG bytes
+     * @param executor executor decoding the restart segments concurrently, null to decode on the calling thread
+     * @return quantized coefficients of the image
+     */
+    public static QuantizedImage read(ReadableByteChannel channel, ExecutorService executor) throws IOException {
+        return read(load(channel), executor);
+    }
+
+    /**
+     * @param channel source of the JPEG bytes
+     * @return the remaining bytes of the channel, memory-mapped when the channel is a file
+     */
+    static ByteBuffer load(ReadableByteChannel channel) throws IOException {
+        if (channel instanceof FileChannel) {
+            FileChannel file = (FileChannel) channel;
+            return file.map(FileChannel.MapMode.READ_ONLY, file.position(), file.size() - file.position());
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Read a JPEG file held in a buffer, starting at its current position
+     *
+     * @param buffer JPEG bytes
+     * @return quantized coefficients of the image
+     */
+    public static QuantizedImage read(ByteBuffer buffer) throws IOException {
+        return read(buffer, null);
+    }
+
+    /**
+     * Read a JPEG file held in a buffer, starting at its current position
+     *
+     * @param buffer JPEG bytes
+     * @param executor executor decoding the restart segments concurrently, null to decode on the calling thread
+     * @return quantized coefficients of the image
+     */
+    public static QuantizedImage read(ByteBuffer buffer, ExecutorService executor) throws IOException {
+        return read(buffer, executor, new DecoderContext());
+    }
+
+    /**
+     * Read a JPEG file held in a buffer into the tables and components of a context
+     *
+     * @param buffer JPEG bytes, from their current position
+     * @param executor executor decoding the restart segments concurrently, null to decode on the calling thread
+     * @param context scratch memory receiving the tables and the coefficients
+     * @return quantized coefficients of the image
+     */
+    static QuantizedImage read(ByteBuffer buffer, ExecutorService executor, DecoderContext context)
+            throws IOException {
+        return new JpegReader(buffer.slice(), executor, context, false).readImage();
+    }
+
+    /**
+     * Read the beginning of a JPEG file that may still be arriving: reading stops at the end of the data, keeping
+     * the MCUs that were completely received, so that a truncated progressive file gives a coarse preview of the
+     * whole image and a truncated sequential file its first rows
+     *
+     * @param buffer JPEG bytes received so far, from their current position
+     * @return quantized coefficients decoded so far, zero for the blocks not received yet
+     */
+    public static QuantizedImage readPartial(ByteBuffer buffer) throws IOException {
+        return readPartial(buffer, new DecoderContext());
+    }
+
+    /**
+     * Read the beginning of a JPEG file that may still be arriving into the tables and components of a context
+     *
+     * @param buffer JPEG bytes received so far, from their current position
+     * @param context scratch memory receiving the tables and the coefficients
+     * @return quantized coefficients decoded so far, zero for the blocks not received yet
+     */
+    static QuantizedImage readPartial(ByteBuffer buffer, DecoderContext context) throws IOException {
+        return new JpegReader(buffer.slice(), null, context, true).readImage();
+    }
+
+    /**
+     * Read a JPEG file one band of rows of MCUs at a time, so that the coefficients of the whole image are never
+     * kept: a sequential file whose scan holds every component is Huffman decoded band by band into components of
+     * one band, while progressive files and files with a scan per component are read in full and then passed on in
+     * bands
+     *
+     * @param buffer JPEG bytes, from their current position
+     * @param context scratch memory receiving the tables and the coefficients of a band
+     * @param listener receiver of the bands, from top to bottom
+     */
+    static void readBands(ByteBuffer buffer, DecoderContext context, BandListener listener) throws IOException {
+        JpegReader reader = new JpegReader(buffer.slice(), null, context, false);
+        reader.bandListener = listener;
+        QuantizedImage image = reader.readImage();
+        if (reader.banded) {
+            return;
+        }
+        int bandHeight = reader.bandMcusH * 8 * reader.maxV;
+        for (int y = 0; y < image.getHeight(); y += bandHeight) {
+            listener.band(Transcoder.crop(image, 0, y, image.getWidth(), Math.min(bandHeight, image.getHeight() - y)),
+                    y, image.getHeight());
+        }
+    }
+
+    /**
+     * Read the blocks of a rectangle of a JPEG file: only the restart segments holding the MCU rows of the rectangle
+     * are Huffman decoded, and in them the MCUs up to its right edge; the segments are located by the restart index
+     * written by Encoder.setRestartIndex, or else by looking for their markers. Progressive files are read in full
+     *
+     * @param buffer JPEG bytes, from their current position
+     * @param x left edge of the rectangle
+     * @param y top edge of the rectangle
+     * @param width of the rectangle
+     * @param height of the rectangle
+     * @return quantized coefficients of the whole MCUs covering the rectangle, its top left corner being the MCU
+     * boundary at or before x, y
+     */
+    public static QuantizedImage readRegion(ByteBuffer buffer, int x, int y, int width, int height)
+            throws IOException {
+        return readRegion(buffer, x, y, width, height, new DecoderContext());
+    }
+
+    /**
+     * Read the blocks of a rectangle of a JPEG file into the tables and components of a context
+     *
+     * @param buffer JPEG bytes, from their current position
+     * @param context scratch memory receiving the tables and the coefficients
+     * @return quantized coefficients of the whole MCUs covering the rectangle
+     */
+    static QuantizedImage readRegion(ByteBuffer buffer, int x, int y, int width, int height, DecoderContext context)
+            throws IOException {
+        if (x < 0 || y < 0 || width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid region: " + width + "x" + height + "+" + x + "+" + y);
+        }
+        return new JpegReader(buffer.slice(), null, context, false, new int[]{x, y, width, height}).readImage();
+    }
+
+    private QuantizedImage readImage() throws IOException {
+        if (nextMarker() != SOI) {
+            throw new IOException("Invalid JPEG: missing SOI marker");
+        }
+
+        int marker;
+        while (!stopped && (marker = nextMarker()) != EOI) {
+            if (partial && (marker < 0 || buffer.remaining() < 2)) {
+                break;
+            }
+            if (buffer.remaining() < 2) {
+                throw new IOException("Invalid JPEG: unexpected end of data");
+            }
+            int length = readShort() - 2;
+            if (length < 0) {
+                throw new IOException("Invalid JPEG: segment length " + (length + 2));
+            }
+            int end = buffer.position() + length;
+            if (end > buffer.limit()) {
+                if (partial) {
+                    break;
+                }
+                throw new IOException("Invalid JPEG: unexpected end of data");
+            }
+            if (marker == SOS) {
+                readScan(end);
+                continue;
+            }
+            readSegment(marker, end);
+            buffer.position(end);
+        }
+
+        if (components == null) {
+            throw new IOException("Invalid JPEG: missing frame header");
+        }
+        if (region == null) {
+            return new QuantizedImage(width, height, components, quantizationTables);
+        }
+        int windowX = windowMcuX * 8 * maxH;
+        int windowY = windowMcuY * 8 * maxV;
+        int windowWidth = region[0] + region[2] - windowX;
+        int windowHeight = region[1] + region[3] - windowY;
+        if (progressive) {
+            return Transcoder.crop(new QuantizedImage(width, height, components, quantizationTables), windowX,
+                    windowY, windowWidth, windowHeight);
+        }
+        return new QuantizedImage(windowWidth, windowHeight, components, quantizationTables);
+    }
+
+    /**
+     * Read a segment other than SOS, whose reads are kept inside of its length
+     *
+     * @param end position following the segment
+     */
+    private void readSegment(int marker, int end) throws IOException {
+        int limit = buffer.limit();
+        buffer.limit(end);
+        try {
+            switch (marker) {
+                case DQT:
+                    readQuantizationTables(end);
+                    break;
+                case DHT:
+                    readHuffmanTables(end);
+                    break;
+                case SOF0:
+                case SOF1:
+                    readFrameHeader();
+                    break;
+                case SOF2:
+                    progressive = true;
+                    readFrameHeader();
+                    break;
+                case DRI:
+                    restartInterval = readShort();
+                    break;
+                case APP9:
+                    if (region != null) {
+                        readRestartIndex(end);
+                    }
+                    break;
+                default:
+                    if (marker >= 0xC2 && marker <= 0xCF && marker != DHT && marker != 0xC8 && marker != 0xCC) {
+                        throw new IOException("Unsupported JPEG: only baseline and progressive frames can be read");
+                    }
+                    //APPn, COM and other segments carry nothing needed for decoding
+                    break;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Invalid JPEG: segment " + Integer.toHexString(0xFF00 | marker).toUpperCase()
+                    + " shorter than its content");
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    /**
+     * @return next marker, -1 at the end of the data of a partial read
+     */
+    private int nextMarker() throws IOException {
+        int b;
+        do {
+            if (!buffer.hasRemaining()) {
+                return endOfData();
+            }
+            b = buffer.get() & 0xFF;
+        } while (b != 0xFF);
+
+        //markers may be preceded by any number of 0xFF fill bytes
+        do {
+            if (!buffer.hasRemaining()) {
+                return endOfData();
+            }
+            b = buffer.get() & 0xFF;
+        } while (b == 0xFF);
+        return b;
+    }
+
+    /**
+     * Read an APP9 segment of the restart index, ignoring APP9 segments of other applications
+     */
+    private void readRestartIndex(int end) {
+        int start = buffer.position();
+        if (end - start < JpegWriter.RESTART_INDEX.length + 4) {
+            return;
+        }
+        for (byte b : JpegWriter.RESTART_INDEX) {
+            if (buffer.get() != b) {
+                buffer.position(start);
+                return;
+            }
+        }
+        int first = buffer.getInt();
+        int count = (end - buffer.position()) / 4;
+        if (first < 0 || first > Integer.MAX_VALUE - count) {
+            return;
+        }
+        if (restartOffsets == null) {
+            restartOffsets = new int[first + count];
+        } else if (first + count > restartOffsets.length) {
+            restartOffsets = Arrays.copyOf(restartOffsets, Math.max(first + count, 2 * restartOffsets.length));
+        }
+        for (int i = first; i < first + count; i++) {
+            restartOffsets[i] = buffer.getInt();
+        }
+        nrRestartOffsets = Math.max(nrRestartOffsets, first + count);
+    }
+
+    private int endOfData() throws IOException {
+        if (partial) {
+            return -1;
+        }
+        throw new IOException("Invalid JPEG: unexpected end of data");
+    }
+
+    private int readByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    private int readShort() {
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    /**
+     * Read the tables of a DQT segment, converting them from zig-zag to row-major order
+     */
+    private void readQuantizationTables(int end) throws IOException {
+        while (buffer.position() < end) {
+            int precisionAndId = readByte();
+            if ((precisionAndId >> 4) != 0) {
+                throw new IOException("Invalid JPEG: 16-bit quantization table in an 8-bit image");
+            }
+            int id = precisionAndId & 0x0F;
+            if (id > 3) {
+                throw new IOException("Invalid JPEG: quantization table id " + id);
+            }
+            int[] table = context.getQuantizationTable(id);
+            for (int i = 0; i < 64; i++) {
+                table[ZigZag.ORDER[i]] = readByte();
+            }
+            quantizationTables[id] = table;
+        }
+    }
+
+    private void readHuffmanTables(int end) throws IOException {
+        while (buffer.position() < end) {
+            int tableClassAndId = readByte();
+            if ((tableClassAndId >> 4) > 1 || (tableClassAndId & 0x0F) > 3) {
+                throw new IOException("Invalid JPEG: Huffman table class " + (tableClassAndId >> 4) + " and id "
+                        + (tableClassAndId & 0x0F));
+            }
+            int[] bits = context.getHuffmanBits();
+            int count = 0;
+            int code = 0;
+            for (int i = 0; i < 16; i++) {
+                bits[i] = readByte();
+                count += bits[i];
+                //the codes of each length follow the shifted codes of the shorter ones, a code of all 1 bits being
+                //reserved
+                code += bits[i];
+                if (code >= 1 << (i + 1)) {
+                    throw new IOException("Invalid JPEG: Huffman table with more codes than fit in " + (i + 1)
+                            + " bits");
+                }
+                code <<= 1;
+            }
+            if (count > 256) {
+                throw new IOException("Invalid JPEG: Huffman table with more than 256 values");
+            }
+            int[] values = context.getHuffmanValues();
+            for (int i = 0; i < count; i++) {
+                values[i] = readByte();
+            }
+
+            int slot = ((tableClassAndId >> 4) == 0 ? 0 : 4) + (tableClassAndId & 0x03);
+            HuffmanDecoder decoder = context.getHuffmanDecoder(slot, count);
+            if ((tableClassAndId >> 4) == 0) {
+                dcDecoders[tableClassAndId & 0x03] = decoder;
+            } else {
+                acDecoders[tableClassAndId & 0x03] = decoder;
+            }
+        }
+    }
+
+    /**
+     * Read the SOF segment and allocate the coefficients of every component, rounded up to whole MCUs
+     */
+    private void readFrameHeader() throws IOException {
+        if (readByte() != 8) {
+            throw new IOException("Unsupported JPEG: only 8-bit samples can be read");
+        }
+        height = readShort();
+        width = readShort();
+        int nrComponents = readByte();
+        if (height == 0 || (nrComponents != 1 && nrComponents != 3)) {
+            throw new IOException("Unsupported JPEG: only grayscale and YCbCr images with a known height can be read");
+        }
+
+        componentIds = new int[nrComponents];
+        componentSamplings = new int[nrComponents];
+        componentTables = new int[nrComponents];
+        maxH = 1;
+        maxV = 1;
+        for (int i = 0; i < nrComponents; i++) {
+            componentIds[i] = readByte();
+            componentSamplings[i] = readByte();
+            componentTables[i] = readByte();
+            int h = componentSamplings[i] >> 4;
+            int v = componentSamplings[i] & 0x0F;
+            if (h < 1 || h > 4 || v < 1 || v > 4) {
+                throw new IOException("Invalid JPEG: sampling factors " + h + "x" + v);
+            }
+            if (componentTables[i] > 3) {
+                throw new IOException("Invalid JPEG: quantization table id " + componentTables[i]);
+            }
+            maxH = Math.max(maxH, componentSamplings[i] >> 4);
+            maxV = Math.max(maxV, componentSamplings[i] & 0x0F);
+        }
+
+        mcusW = (width + 8 * maxH - 1) / (8 * maxH);
+        mcusH = (height + 8 * maxV - 1) / (8 * maxV);
+        windowMcusW = mcusW;
+        windowMcusH = mcusH;
+        if (region != null) {
+            if (region[0] + region[2] > width || region[1] + region[3] > height) {
+                throw new IllegalArgumentException("Region outside of the " + width + "x" + height + " image: "
+                        + region[2] + "x" + region[3] + "+" + region[0] + "+" + region[1]);
+            }
+            windowMcuX = region[0] / (8 * maxH);
+            windowMcuY = region[1] / (8 * maxV);
+            windowMcusW = (region[0] + region[2] - 1) / (8 * maxH) - windowMcuX + 1;
+            windowMcusH = (region[1] + region[3] - 1) / (8 * maxV) - windowMcuY + 1;
+        }
+        if (bandListener != null) {
+            bandMcusH = Math.max(1, Math.min(mcusH, BAND_PIXELS / (mcusW * 64 * maxH * maxV)));
+            windowMcusH = bandMcusH;
+        }
+        //progressive files are read in full, the MCUs of a region being cropped at the end
+        if (progressive) {
+            components = context.getComponents(componentIds, componentSamplings, componentTables, mcusW, mcusH);
+        } else {
+            components = context.getComponents(componentIds, componentSamplings, componentTables, windowMcusW,
+                    windowMcusH);
+        }
+    }
+
+    /**
+     * Read a SOS segment and Huffman decode its entropy coded data, decoding the restart segments in parallel when
+     * an executor is available
+     *
+     * @param end position following the SOS segment, where the entropy coded data starts
+     */
+    private void readScan(int end) throws IOException {
+        if (components == null) {
+            throw new IOException("Invalid JPEG: scan before frame header");
+        }
+
+        int nrScanComponents = end > buffer.position() ? readByte() : 0;
+        if (nrScanComponents < 1 || nrScanComponents > components.length) {
+            throw new IOException("Invalid JPEG: scan of " + nrScanComponents + " components");
+        }
+        if (end - buffer.position() != 2 * nrScanComponents + 3) {
+            throw new IOException("Invalid JPEG: SOS segment length " + (end - buffer.position() + 3));
+        }
+        Scan scan = new Scan(nrScanComponents);
+        int[] tableIds = new int[nrScanComponents];
+        for (int i = 0; i < nrScanComponents; i++) {
+            int id = readByte();
+            tableIds[i] = readByte();
+            for (int c = 0; c < components.length; c++) {
+                if (components[c].getId() == id) {
+                    scan.components[i] = components[c];
+                    scannedComponents |= 1 << c;
+                }
+            }
+            if (scan.components[i] == null) {
+                throw new IOException("Invalid JPEG: scan refers to an undefined component or table");
+            }
+        }
+        scan.spectralStart = readByte();
+        scan.spectralEnd = readByte();
+        int approximation = readByte();
+        scan.approximationHigh = approximation >> 4;
+        scan.approximationLow = approximation & 0x0F;
+        if (!progressive) {
+            //spectral selection and successive approximation are fixed in sequential scans
+            scan.spectralStart = 0;
+            scan.spectralEnd = 63;
+            scan.approximationHigh = 0;
+            scan.approximationLow = 0;
+        } else if ((scan.spectralStart == 0 ? scan.spectralEnd != 0
+                : scan.spectralEnd < scan.spectralStart || scan.spectralEnd > 63 || scan.isInterleaved())
+                || scan.approximationHigh > 13 || scan.approximationLow > 13) {
+            throw new IOException("Invalid JPEG: invalid spectral selection or successive approximation");
+        }
+
+        //progressive scans use the DC tables in the first DC scan and the AC tables in AC scans only
+        boolean usesDc = !progressive || scan.spectralStart == 0 && scan.approximationHigh == 0;
+        boolean usesAc = !progressive || scan.spectralStart > 0;
+        for (int i = 0; i < nrScanComponents; i++) {
+            if ((tableIds[i] >> 4) > 3 || (tableIds[i] & 0x0F) > 3) {
+                throw new IOException("Invalid JPEG: Huffman table ids " + (tableIds[i] >> 4) + " and "
+                        + (tableIds[i] & 0x0F));
+            }
+            if (quantizationTables[scan.components[i].getQuantizationTableId()] == null) {
+                throw new IOException("Invalid JPEG: scan refers to an undefined quantization table");
+            }
+            scan.dcTables[i] = dcDecoders[tableIds[i] >> 4];
+            scan.acTables[i] = acDecoders[tableIds[i] & 0x0F];
+            if (usesDc && scan.dcTables[i] == null || usesAc && scan.acTables[i] == null) {
+                throw new IOException("Invalid JPEG: scan refers to an undefined component or table");
+            }
+        }
+
+        //a scan of a single component covers only the blocks inside the component, one block per MCU
+        scan.mcusW = mcusW;
+        scan.mcusH = mcusH;
+        if (!scan.isInterleaved()) {
+            Component component = scan.components[0];
+            int componentWidth = (width * component.getHorizontalSampling() + maxH - 1) / maxH;
+            int componentHeight = (height * component.getVerticalSampling() + maxV - 1) / maxV;
+            scan.mcusW = (componentWidth + 7) / 8;
+            scan.mcusH = (componentHeight + 7) / 8;
+        }
+
+        int nrMcus = scan.mcusW * scan.mcusH;
+        if (bandListener != null && !progressive) {
+            if (scan.components.length == components.length) {
+                readBands(scan, nrMcus);
+                return;
+            }
+            if (components[0].getNrBlocksH() < mcusH * components[0].getVerticalSampling()) {
+                //with a scan per component the blocks of the whole image are needed, before any of them is read
+                components = context.getComponents(componentIds, componentSamplings, componentTables, mcusW, mcusH);
+                for (int i = 0; i < nrScanComponents; i++) {
+                    for (Component component : components) {
+                        if (component.getId() == scan.components[i].getId()) {
+                            scan.components[i] = component;
+                        }
+                    }
+                }
+            }
+        }
+        if (region != null && !progressive) {
+            //the window of the region in MCUs of the scan, which are blocks in a scan of a single component
+            int h = scan.isInterleaved() ? 1 : scan.components[0].getHorizontalSampling();
+            int v = scan.isInterleaved() ? 1 : scan.components[0].getVerticalSampling();
+            scan.windowX = windowMcuX * h;
+            scan.windowY = windowMcuY * v;
+            scan.windowEndX = Math.min(scan.mcusW, (windowMcuX + windowMcusW) * h);
+            scan.windowEndY = Math.min(scan.mcusH, (windowMcuY + windowMcusH) * v);
+            readRegionSegments(scan, nrMcus);
+            return;
+        }
+        scan.windowEndX = scan.mcusW;
+        scan.windowEndY = scan.mcusH;
+        if (executor != null && !progressive && !partial && restartInterval > 0 && nrMcus > restartInterval) {
+            readSegmentsInParallel(scan, nrMcus);
+            return;
+        }
+
+        BitReader reader = new BitReader(buffer);
+        ScanState state = new ScanState(scan, partial);
+        for (int mcu = 0; mcu < nrMcus; mcu += restartInterval > 0 ? restartInterval : nrMcus) {
+            if (mcu > 0) {
+                int marker = reader.readMarker();
+                if (marker < RST0 || marker > RST0 + 7) {
+                    if (partial) {
+                        stopped = true;
+                        return;
+                    }
+                    throw new IOException("Invalid JPEG: missing restart marker");
+                }
+            }
+            state.reset();
+            if (!decodeMcus(reader, scan, mcu, restartInterval > 0 ? Math.min(mcu + restartInterval, nrMcus) : nrMcus,
+                    state)) {
+                stopped = true;
+                return;
+            }
+        }
+        reader.finish();
+    }
+
+    /**
+     * Huffman decode a scan holding every component one band of MCU rows at a time, passing each band on before
+     * the next one overwrites its blocks
+     */
+    private void readBands(Scan scan, int nrMcus) throws IOException {
+        //a scan of a single component has one block per MCU
+        int v = scan.isInterleaved() ? 1 : scan.components[0].getVerticalSampling();
+        int interval = restartInterval > 0 ? restartInterval : nrMcus;
+        BitReader reader = new BitReader(buffer);
+        ScanState state = new ScanState(scan, false);
+        scan.windowEndX = scan.mcusW;
+        for (int row = 0; row < scan.mcusH; row += bandMcusH * v) {
+            scan.windowY = row;
+            scan.windowEndY = Math.min(scan.mcusH, row + bandMcusH * v);
+            if (row > 0) {
+                //only the non-zero coefficients of a block are decoded
+                for (Component component : components) {
+                    Arrays.fill(component.getCoefficients(), (short) 0);
+                }
+            }
+            int toMcu = scan.windowEndY * scan.mcusW;
+            for (int mcu = row * scan.mcusW; mcu < toMcu; ) {
+                if (mcu % interval == 0) {
+                    if (mcu > 0) {
+                        int marker = reader.readMarker();
+                        if (marker < RST0 || marker > RST0 + 7) {
+                            throw new IOException("Invalid JPEG: missing restart marker");
+                        }
+                    }
+                    state.reset();
+                }
+                int to = Math.min(toMcu, (mcu / interval + 1) * interval);
+                decodeMcus(reader, scan, mcu, to, state);
+                mcu = to;
+            }
+
+            int y = row / v * 8 * maxV;
+            int bandHeight = Math.min(bandMcusH * 8 * maxV, height - y);
+            QuantizedImage band = new QuantizedImage(width, bandHeight, components, quantizationTables);
+            //the last band leaves the blocks below the image out
+            bandListener.band(bandHeight < bandMcusH * 8 * maxV ? Transcoder.crop(band, 0, 0, width, bandHeight)
+                    : band, y, height);
+        }
+        reader.finish();
+        banded = true;
+        //the bands were passed on, the rest of the file is not needed
+        stopped = true;
+    }
+
+    /**
+     * Huffman decode the MCU rows of the window of a region read: each restart segment holding some of them is
+     * decoded from its start up to the last MCU of the window in it, the others are skipped
+     */
+    private void readRegionSegments(Scan scan, int nrMcus) throws IOException {
+        int interval = restartInterval > 0 ? restartInterval : nrMcus;
+        int nrSegments = (nrMcus + interval - 1) / interval;
+        int dataStart = buffer.position();
+        //the index locates the segments of a scan of every component
+        boolean indexed = scan.components.length == components.length;
+        //start of the last segment located so far
+        int located = 0;
+        int locatedPosition = dataStart;
+
+        ScanState state = new ScanState(scan, false);
+        BitReader reader = null;
+        int segment = -1;
+        int decodedTo = 0;
+        for (int row = scan.windowY; row < scan.windowEndY; row++) {
+            int toMcu = row * scan.mcusW + scan.windowEndX;
+            for (int mcu = row * scan.mcusW + scan.windowX; mcu < toMcu; mcu = decodedTo) {
+                if (mcu / interval != segment) {
+                    segment = mcu / interval;
+                    int position = indexed ? indexedSegmentStart(dataStart, segment) : -1;
+                    if (position < 0) {
+                        position = skipSegments(locatedPosition, segment - located) + 2;
+                    }
+                    located = segment;
+                    locatedPosition = position;
+                    ByteBuffer data = buffer.duplicate();
+                    data.position(position);
+                    reader = new BitReader(data);
+                    state.reset();
+                    decodedTo = segment * interval;
+                }
+                //the MCUs of the segment before the window are decoded for their DC predictions
+                int to = Math.min(toMcu, (segment + 1) * interval);
+                decodeMcus(reader, scan, decodedTo, to, state);
+                decodedTo = to;
+            }
+        }
+
+        if (scannedComponents == (1 << components.length) - 1) {
+            //every component has its blocks, the rest of the file is not needed
+            stopped = true;
+            return;
+        }
+        buffer.position(skipSegments(locatedPosition, nrSegments - located));
+    }
+
+    /**
+     * @param dataStart position of the entropy coded data
+     * @param segment index of a restart segment after the first one
+     * @return position of the segment in the restart index, -1 when the index does not locate it
+     */
+    private int indexedSegmentStart(int dataStart, int segment) {
+        if (segment == 0) {
+            return dataStart;
+        }
+        if (segment >= nrRestartOffsets || restartOffsets[segment] < 2
+                || restartOffsets[segment] > buffer.limit() - dataStart) {
+            return -1;
+        }
+        //the index is trusted only when the restart marker of the segment precedes the position it gives
+        int position = dataStart + restartOffsets[segment];
+        if ((buffer.get(position - 2) & 0xFF) != 0xFF
+                || (buffer.get(position - 1) & 0xFF) != RST0 + (segment - 1) % 8) {
+            return -1;
+        }
+        return position;
+    }
+
+    /**
+     * Look for the markers ending restart segments of the entropy coded data
+     *
+     * @param position start of a segment
+     * @param nrSegments number of segments to pass, all but the last one ending with a restart marker
+     * @return position of the marker ending the last segment, or position itself for no segment
+     */
+    private int skipSegments(int position, int nrSegments) throws IOException {
+        int limit = buffer.limit();
+        while (nrSegments > 0) {
+            //inside the data 0xFF is always followed by 0x00 or a marker
+            if (position >= limit - 1) {
+                throw new IOException("Invalid JPEG: unexpected end of data");
+            }
+            if ((buffer.get(position) & 0xFF) != 0xFF) {
+                position++;
+                continue;
+            }
+            int next = buffer.get(position + 1) & 0xFF;
+            if (next == 0x00 || next == 0xFF) {
+                position += next == 0x00 ? 2 : 1;
+                continue;
+            }
+            if (--nrSegments == 0) {
+                break;
+            }
+            if (next < RST0 || next > RST0 + 7) {
+                throw new IOException("Invalid JPEG: missing restart marker");
+            }
+            position += 2;
+        }
+        return position;
+    }
+    /**
+     * Locate the restart markers of the entropy coded data and decode the segments between them concurrently
+     */
+    private void readSegmentsInParallel(Scan scan, int nrMcus) throws IOException {
+        int nrSegments = (nrMcus + restartInterval - 1) / restartInterval;
+        int[] starts = new int[nrSegments];
+        int[] ends = new int[nrSegments];
+
+        //find the segment boundaries; inside the data 0xFF is always followed by 0x00 or a marker
+        int segment = 0;
+        int position = buffer.position();
+        starts[0] = position;
+        int limit = buffer.limit();
+        while (position < limit - 1) {
+            if ((buffer.get(position) & 0xFF) != 0xFF) {
+                position++;
+                continue;
+            }
+            int next = buffer.get(position + 1) & 0xFF;
+            if (next == 0x00 || next == 0xFF) {
+                position += next == 0x00 ? 2 : 1;
+                continue;
+            }
+            ends[segment] = position;
+            if (next < RST0 || next > RST0 + 7 || segment == nrSegments - 1) {
+                break;
+            }
+            position += 2;
+            starts[++segment] = position;
+        }
+        if (ends[segment] == 0) {
+            ends[segment] = limit;
+        }
+        if (segment != nrSegments - 1) {
+            throw new IOException("Invalid JPEG: expected " + nrSegments + " restart segments");
+        }
+        int scanEnd = ends[segment];
+
+        try {
+            Stripes.run(executor, nrSegments, (fromSegment, toSegment) -> {
+                ScanState state = new ScanState(scan, false);
+                for (int i = fromSegment; i < toSegment; i++) {
+                    ByteBuffer data = buffer.duplicate();
+                    data.limit(ends[i]).position(starts[i]);
+                    int fromMcu = i * restartInterval;
+                    state.reset();
+                    try {
+                        decodeMcus(new BitReader(data), scan, fromMcu, Math.min(fromMcu + restartInterval, nrMcus),
+                                state);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        buffer.position(scanEnd);
+    }
+
+    /**
+     * Decode a range of MCUs of a scan
+     *
+     * @param state DC predictions and end-of-band run at the first MCU, reset at the start of a restart segment
+     * @return false when a partial read reached the end of the data, the MCU it was in being left as it was
+     */
+    private boolean decodeMcus(BitReader reader, Scan scan, int fromMcu, int toMcu, ScanState state)
+            throws IOException {
+        for (int mcu = fromMcu; mcu < toMcu; mcu++) {
+            int nrBlocks = state.locateBlocks(mcu);
+            if (partial) {
+                state.saveBlocks(nrBlocks);
+            }
+            boolean complete;
+            try {
+                for (int i = 0; i < nrBlocks; i++) {
+                    decodeBlock(reader, scan, state, state.blockComponents[i], state.blockCoefficients[i],
+                            state.blockOffsets[i]);
+                }
+                complete = !reader.isPastEnd();
+            } catch (IOException e) {
+                //a truncated code may decode to garbage before the data runs out
+                if (!partial) {
+                    throw e;
+                }
+                complete = false;
+            }
+            if (!complete) {
+                //only a partial read keeps a copy of the blocks, any other read needs the whole data
+                if (!partial) {
+                    throw new IOException("Invalid JPEG: unexpected end of data");
+                }
+                state.restoreBlocks(nrBlocks);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the part of one block coded in the scan
+     *
+     * @param c index of the block's component in the scan
+     * @param coefficients coefficients of the component, or a scratch block for a block outside of a region
+     * @param offset offset of the block in the coefficients
+     */
+    private void decodeBlock(BitReader reader, Scan scan, ScanState state, int c, short[] coefficients, int offset)
+            throws IOException {
+        if (!progressive) {
+            state.predictions[c] = decodeBlock(reader, scan.dcTables[c], scan.acTables[c], state.predictions[c],
+                    coefficients, offset);
+        } else if (scan.spectralStart == 0 && scan.approximationHigh == 0) {
+            state.predictions[c] += reader.receiveExtend(scan.dcTables[c].decode(reader));
+            coefficients[offset] = (short) (state.predictions[c] << scan.approximationLow);
+        } else if (scan.spectralStart == 0) {
+            //each DC refinement adds one bit
+            if (reader.readBits(1) != 0) {
+                coefficients[offset] |= 1 << scan.approximationLow;
+            }
+        } else if (scan.approximationHigh == 0) {
+            decodeAcFirst(reader, scan, state, coefficients, offset);
+        } else {
+            decodeAcRefine(reader, scan, state, coefficients, offset);
+        }
+    }
+
+    /**
+     * Decode the first approximation of a band of AC coefficients, where runs of blocks with an empty band are
+     * coded as one end-of-band symbol
+     */
+    private void decodeAcFirst(BitReader reader, Scan scan, ScanState state, short[] coefficients, int offset)
+            throws IOException {
+        if (state.eobRun > 0) {
+            state.eobRun--;
+            return;
+        }
+        HuffmanDecoder acTable = scan.acTables[0];
+        for (int k = scan.spectralStart; k <= scan.spectralEnd; k++) {
+            int symbol = acTable.decode(reader);
+            int runlength = symbol >> 4;
+            int size = symbol & 0x0F;
+            if (size == 0) {
+                if (runlength != 15) {
+                    //this block and eobRun following ones end here
+                    state.eobRun = (1 << runlength) - 1 + (runlength > 0 ? reader.readBits(runlength) : 0);
+                    break;
+                }
+                k += 15;
+                continue;
+            }
+            k += runlength;
+            if (k > scan.spectralEnd) {
+                throw new IOException("Invalid JPEG: coefficient index out of range");
+            }
+            coefficients[offset + ZigZag.ORDER[k]] = (short) (reader.receiveExtend(size) << scan.approximationLow);
+        }
+    }
+
+    /**
+     * Decode one more bit of a band of AC coefficients: coefficients that became non-zero are coded with their run
+     * of zero coefficients, those already non-zero get a correction bit each
+     */
+    private void decodeAcRefine(BitReader reader, Scan scan, ScanState state, short[] coefficients, int offset)
+            throws IOException {
+        HuffmanDecoder acTable = scan.acTables[0];
+        int positive = 1 << scan.approximationLow;
+        int negative = -1 << scan.approximationLow;
+        int k = scan.spectralStart;
+        if (state.eobRun == 0) {
+            for (; k <= scan.spectralEnd; k++) {
+                int symbol = acTable.decode(reader);
+                int runlength = symbol >> 4;
+                int size = symbol & 0x0F;
+                int value = 0;
+                if (size != 0) {
+                    if (size != 1) {
+                        throw new IOException("Invalid JPEG: refined coefficient larger than one bit");
+                    }
+                    value = reader.readBits(1) != 0 ? positive : negative;
+                } else if (runlength != 15) {
+                    //the rest of the band of this block and eobRun - 1 following ones only have correction bits
+                    state.eobRun = (1 << runlength) + (runlength > 0 ? reader.readBits(runlength) : 0);
+                    break;
+                }
+
+                //skip runlength zero coefficients, correcting the non-zero ones on the way
+                for (; k <= scan.spectralEnd; k++) {
+                    int index = offset + ZigZag.ORDER[k];
+                    if (coefficients[index] != 0) {
+                        refine(reader, coefficients, index, positive, negative);
+                    } else if (--runlength < 0) {
+                        break;
+                    }
+                }
+                if (value != 0) {
+                    if (k > scan.spectralEnd) {
+                        throw new IOException("Invalid JPEG: coefficient index out of range");
+                    }
+                    coefficients[offset + ZigZag.ORDER[k]] = (short) value;
+                }
+            }
+        }
+
+        if (state.eobRun > 0) {
+            for (; k <= scan.spectralEnd; k++) {
+                int index = offset + ZigZag.ORDER[k];
+                if (coefficients[index] != 0) {
+                    refine(reader, coefficients, index, positive, negative);
+                }
+            }
+            state.eobRun--;
+        }
+    }
+
+    /**
+     * Add the next bit to the magnitude of a non-zero coefficient when its correction bit is set
+     */
+    private static void refine(BitReader reader, short[] coefficients, int index, int positive, int negative) {
+        if (reader.readBits(1) != 0 && (coefficients[index] & positive) == 0) {
+            coefficients[index] += coefficients[index] >= 0 ? positive : negative;
+        }
+    }
+
+    /**
+     * Huffman decode the coefficients of one block into row-major order
+     *
+     * @param prediction DC coefficient of the previous block of the component
+     * @return DC coefficient of the block
+     */
+    private int decodeBlock(BitReader reader, HuffmanDecoder dcTable, HuffmanDecoder acTable, int prediction,
+                            short[] coefficients, int offset) throws IOException {
+        int dc = prediction + reader.receiveExtend(dcTable.decode(reader));
+        coefficients[offset] = (short) dc;
+
+        for (int k = 1; k < 64; k++) {
+            int symbol = acTable.decode(reader);
+            int runlength = symbol >> 4;
+            int size = symbol & 0x0F;
+            if (size == 0) {
+                if (runlength != 15) {
+                    //end of block
+                    break;
+                }
+                k += 15;
+                continue;
+            }
+            k += runlength;
+            if (k > 63) {
+                throw new IOException("Invalid JPEG: coefficient index out of range");
+            }
+            coefficients[offset + ZigZag.ORDER[k]] = (short) reader.receiveExtend(size);
+        }
+        return dc;
+    }
+
+    /**
+     * Receiver of the bands of a file read with readBands
+     */
+    interface BandListener {
+
+        /**
+         * @param band quantized coefficients of a band of whole rows of MCUs, overwritten by the next band
+         * @param y top edge of the band in the image
+         * @param height of the whole image
+         */
+        void band(QuantizedImage band, int y, int height) throws IOException;
+    }
+
+    /**
+     * Components and Huffman tables of the scan being decoded
+     */
+    private static class Scan {
+
+        final Component[] components;
+        final HuffmanDecoder[] dcTables;
+        final HuffmanDecoder[] acTables;
+        int mcusW;
+        int mcusH;
+        //MCUs of the scan whose blocks are kept, the others only being decoded for the DC predictions
+        int windowX;
+        int windowY;
+        int windowEndX;
+        int windowEndY;
+        //band of zig-zag indexes and bit positions coded in a progressive scan
+        int spectralStart;
+        int spectralEnd;
+        int approximationHigh;
+        int approximationLow;
+
+        Scan(int nrComponents) {
+            components = new Component[nrComponents];
+            dcTables = new HuffmanDecoder[nrComponents];
+            acTables = new HuffmanDecoder[nrComponents];
+        }
+
+        boolean isInterleaved() {
+            return components.length > 1;
+        }
+    }
+
+    /**
+     * Decoding state of a range of MCUs of a scan: the DC predictions, the remaining end-of-band run and the blocks
+     * of the current MCU, with a copy of them for partial reads and a scratch block for the blocks outside of the
+     * window of a region
+     */
+    private static class ScanState {
+
+        final Scan scan;
+        final int[] predictions;
+        int eobRun;
+        final int[] blockComponents;
+        final short[][] blockCoefficients;
+        final int[] blockOffsets;
+        final short[] savedBlocks;
+        //null when every MCU of the scan is in the window
+        final short[] discardedBlock;
+
+        ScanState(Scan scan, boolean partial) {
+            this.scan = scan;
+            predictions = new int[scan.components.length];
+            int nrBlocks = 1;
+            if (scan.isInterleaved()) {
+                nrBlocks = 0;
+                for (Component component : scan.components) {
+                    nrBlocks += component.getHorizontalSampling() * component.getVerticalSampling();
+                }
+            }
+            blockComponents = new int[nrBlocks];
+            blockCoefficients = new short[nrBlocks][];
+            blockOffsets = new int[nrBlocks];
+            savedBlocks = partial ? new short[nrBlocks * 64] : null;
+            discardedBlock = scan.windowX > 0 || scan.windowY > 0 || scan.windowEndX < scan.mcusW
+                    || scan.windowEndY < scan.mcusH ? new short[64] : null;
+        }
+
+        /**
+         * Start a restart segment with zero DC predictions and no end-of-band run
+         */
+        void reset() {
+            Arrays.fill(predictions, 0);
+            eobRun = 0;
+        }
+
+        /**
+         * @param mcu index of the MCU in the scan
+         * @return number of blocks of the MCU, whose components, coefficients and offsets are stored in
+         * blockComponents, blockCoefficients and blockOffsets
+         */
+        int locateBlocks(int mcu) {
+            int mcuX = mcu % scan.mcusW;
+            int mcuY = mcu / scan.mcusW;
+            boolean inside = mcuX >= scan.windowX && mcuX < scan.windowEndX && mcuY >= scan.windowY
+                    && mcuY < scan.windowEndY;
+            mcuX -= scan.windowX;
+            mcuY -= scan.windowY;
+            int nrBlocks = 0;
+            for (int c = 0; c < scan.components.length; c++) {
+                Component component = scan.components[c];
+                //a scan of a single component has one block per MCU
+                int h = scan.isInterleaved() ? component.getHorizontalSampling() : 1;
+                int v = scan.isInterleaved() ? component.getVerticalSampling() : 1;
+                for (int by = 0; by < v; by++) {
+                    for (int bx = 0; bx < h; bx++) {
+                        blockComponents[nrBlocks] = c;
+                        blockCoefficients[nrBlocks] = inside ? component.getCoefficients() : discardedBlock;
+                        blockOffsets[nrBlocks++] = inside ? component.getBlockOffset(mcuX * h + bx, mcuY * v + by)
+                                : 0;
+                    }
+                }
+            }
+            return nrBlocks;
+        }
+
+        void saveBlocks(int nrBlocks) {
+            for (int i = 0; i < nrBlocks; i++) {
+                System.arraycopy(blockCoefficients[i], blockOffsets[i], savedBlocks, i * 64, 64);
+            }
+        }
+
+        void restoreBlocks(int nrBlocks) {
+            for (int i = 0; i < nrBlocks; i++) {
+                System.arraycopy(savedBlocks, i * 64, blockCoefficients[i], blockOffsets[i], 64);
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package codec;
+
+import model.EncodedImage;
+import model.Subsampling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writer of baseline sequential JFIF files, Huffman coding the runlength symbols produced by the encoder
+ */
+public class JpegWriter {
+
+    private static final int SOI = 0xD8;
+    private static final int APP0 = 0xE0;
+    private static final int APP9 = 0xE9;
+    private static final int DQT = 0xDB;
+    private static final int SOF0 = 0xC0;
+    private static final int SOF2 = 0xC2;
+    private static final int DHT = 0xC4;
+    private static final int SOS = 0xDA;
+    private static final int DRI = 0xDD;
+    private static final int EOI = 0xD9;
+
+    //identifier of the APP9 segments holding the restart index, followed by the number of the first segment they
+    //locate and the offset of each segment from the start of the entropy coded data, as 32-bit values
+    static final byte[] RESTART_INDEX = {'R', 'S', 'T', 'I', 0};
+    //offsets in one APP9 segment, keeping it under the 65535 byte limit
+    private static final int INDEX_ENTRIES = 16000;
+
+    private boolean optimizeHuffmanTables;
+    private boolean restartIndex;
+
+    /**
+     * Replace the standard Huffman tables by tables built for each image from the frequencies of its symbols,
+     * giving smaller files at the cost of a second pass over the symbols
+     *
+     * @param optimizeHuffmanTables true to build optimized tables
+     */
+    public void setOptimizeHuffmanTables(boolean optimizeHuffmanTables) {
+        this.optimizeHuffmanTables = optimizeHuffmanTables;
+    }
+
+    /**
+     * Write the byte offset of every restart segment in APP9 segments before the scan, so that a reader can seek to
+     * the segments of a region without looking at the others; the entropy coded data is then buffered until its
+     * offsets are known. Applies to images with a restart interval
+     *
+     * @param restartIndex true to write the index
+     */
+    public void setRestartIndex(boolean restartIndex) {
+        this.restartIndex = restartIndex;
+    }
+
+    public void write(EncodedImage image, WritableByteChannel channel) throws IOException {
+        write(image, Channels.newOutputStream(channel));
+    }
+
+    public void write(EncodedImage image, OutputStream out) throws IOException {
+        write(new BitWriter(out), image.getWidth(), image.getHeight(), image.getSubsampling(),
+                image.getQuantizationTables(), image.getRestartInterval(), image.getEncodedBytes(),
+                image.getNrMcusW() * image.getNrMcusH());
+    }
+
+    /**
+     * Write a JFIF file from the runlength symbols of its MCUs
+     *
+     * @param width of the image
+     * @param height of the image
+     * @param subsampling chroma subsampling mode
+     * @param quantizationTables luminance and chrominance quantization matrices in row-major order
+     * @param restartInterval number of MCUs between restart markers, 0 for none
+     * @param symbols runlength symbols of the MCUs, from position 0
+     * @param nrMcus number of MCUs
+     */
+    void write(BitWriter writer, int width, int height, Subsampling subsampling, int[][] quantizationTables,
+               int restartInterval, byte[] symbols, int nrMcus) throws IOException {
+        HuffmanTable[] huffmanTables = EntropyWriter.STANDARD_TABLES;
+        if (optimizeHuffmanTables) {
+            huffmanTables = EntropyWriter.optimizeTables(symbols, 0, nrMcus, subsampling, restartInterval);
+        }
+        if (restartIndex && restartInterval > 0) {
+            writeIndexed(writer, width, height, subsampling, quantizationTables, huffmanTables, restartInterval,
+                    symbols, nrMcus);
+            return;
+        }
+
+        writeHeaders(writer, width, height, subsampling, quantizationTables, huffmanTables, restartInterval);
+        EntropyWriter entropyWriter = new EntropyWriter(writer, subsampling, restartInterval, huffmanTables);
+        entropyWriter.writeMcus(symbols, 0, nrMcus);
+        entropyWriter.finish();
+        writeEnd(writer);
+    }
+
+    /**
+     * Write a JFIF file with a restart index: the index precedes the scan, so the entropy coded data is written to a
+     * buffer first, noting where each restart segment starts
+     */
+    private void writeIndexed(BitWriter writer, int width, int height, Subsampling subsampling,
+                              int[][] quantizationTables, HuffmanTable[] huffmanTables, int restartInterval,
+                              byte[] symbols, int nrMcus) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(symbols.length / 2);
+        BitWriter dataWriter = new BitWriter(data);
+        EntropyWriter entropyWriter = new EntropyWriter(dataWriter, subsampling, restartInterval, huffmanTables);
+        int nrSegments = (nrMcus + restartInterval - 1) / restartInterval;
+        int[] offsets = new int[nrSegments];
+        int index = 0;
+        for (int segment = 0; segment < nrSegments; segment++) {
+            if (segment > 0) {
+                //the segment starts after the restart marker that ends the padding of the previous one
+                entropyWriter.finish();
+                offsets[segment] = (int) dataWriter.getByteCount() + 2;
+            }
+            int count = Math.min(restartInterval, nrMcus - segment * restartInterval);
+            index = entropyWriter.writeMcus(symbols, index, count);
+        }
+        entropyWriter.finish();
+        dataWriter.flush();
+
+        writeHeaders(writer, width, height, subsampling, quantizationTables, huffmanTables, restartInterval, offsets);
+        writer.writeBytes(data.toByteArray(), 0, data.size());
+        writeEnd(writer);
+    }
+
+    /**
+     * Write every segment preceding the entropy coded data
+     *
+     * @param width of the image
+     * @param height of the image
+     * @param subsampling chroma subsampling mode
+     * @param quantizationTables luminance and chrominance quantization matrices in row-major order
+     * @param huffmanTables luminance DC, luminance AC, chrominance DC and chrominance AC Huffman tables
+     * @param restartInterval number of MCUs between restart markers, 0 for none
+     */
+    void writeHeaders(BitWriter writer, int width, int height, Subsampling subsampling, int[][] quantizationTables,
+                      HuffmanTable[] huffmanTables, int restartInterval) throws IOException {
+        writeHeaders(writer, width, height, subsampling, quantizationTables, huffmanTables, restartInterval, null);
+    }
+
+    /**
+     * @param segmentOffsets offset of each restart segment in the entropy coded data, null for no restart index
+     */
+    private void writeHeaders(BitWriter writer, int width, int height, Subsampling subsampling,
+                              int[][] quantizationTables, HuffmanTable[] huffmanTables, int restartInterval,
+                              int[] segmentOffsets) throws IOException {
+        writer.writeMarker(SOI);
+        writeApplicationHeader(writer);
+        for (int id = 0; id < quantizationTables.length; id++) {
+            writeQuantizationTable(writer, id, quantizationTables[id]);
+        }
+        writeFrameHeader(writer, SOF0, width, height, subsampling);
+        writeHuffmanTable(writer, 0x00, huffmanTables[0]);
+        writeHuffmanTable(writer, 0x10, huffmanTables[1]);
+        writeHuffmanTable(writer, 0x01, huffmanTables[2]);
+        writeHuffmanTable(writer, 0x11, huffmanTables[3]);
+        writeRestartInterval(writer, restartInterval);
+        if (segmentOffsets != null) {
+            writeRestartIndex(writer, segmentOffsets);
+        }
+        //Y uses tables 0, Cb and Cr use tables 1, all coefficients at full precision
+        writeScanHeader(writer, new int[]{0, 1, 2}, new int[]{0x00, 0x11, 0x11}, 0, 63, 0, 0);
+    }
+
+    /**
+     * Write the segments preceding the first scan of a progressive file; each scan brings its own Huffman tables
+     *
+     * @param width of the image
+     * @param height of the image
+     * @param subsampling chroma subsampling mode
+     * @param quantizationTables luminance and chrominance quantization matrices in row-major order
+     * @param restartInterval number of MCUs between restart markers, 0 for none
+     */
+    void writeProgressiveHeaders(BitWriter writer, int width, int height, Subsampling subsampling,
+                                 int[][] quantizationTables, int restartInterval) throws IOException {
+        writer.writeMarker(SOI);
+        writeApplicationHeader(writer);
+        for (int id = 0; id < quantizationTables.length; id++) {
+            writeQuantizationTable(writer, id, quantizationTables[id]);
+        }
+        writeFrameHeader(writer, SOF2, width, height, subsampling);
+        writeRestartInterval(writer, restartInterval);
+    }
+
+    /**
+     * Write the EOI marker and flush everything to the output
+     */
+    void writeEnd(BitWriter writer) throws IOException {
+        writer.writeMarker(EOI);
+        writer.flush();
+    }
+
+    /**
+     * Write the APP0 segment identifying the file as JFIF 1.01 without thumbnail
+     */
+    private void writeApplicationHeader(BitWriter writer) throws IOException {
+        writer.writeMarker(APP0);
+        writer.writeShort(16);
+        writer.writeByte('J');
+        writer.writeByte('F');
+        writer.writeByte('I');
+        writer.writeByte('F');
+        writer.writeByte(0);
+        writer.writeShort(0x0101);
+        //no density units, 1:1 pixel aspect ratio
+        writer.writeByte(0);
+        writer.writeShort(1);
+        writer.writeShort(1);
+        writer.writeByte(0);
+        writer.writeByte(0);
+    }
+
+    /**
+     * Write a DQT segment holding an 8-bit quantization table in zig-zag order
+     *
+     * @param id table destination
+     * @param table quantization matrix in row-major order
+     */
+    private void writeQuantizationTable(BitWriter writer, int id, int[] table) throws IOException {
+        writer.writeMarker(DQT);
+        writer.writeShort(2 + 1 + 64);
+        writer.writeByte(id);
+        for (int i = 0; i < 64; i++) {
+            writer.writeByte(table[ZigZag.ORDER[i]]);
+        }
+    }
+
+    /**
+     * Write the SOF segment describing the Y, Cb and Cr components
+     *
+     * @param marker SOF0 for baseline files, SOF2 for progressive ones
+     * @param subsampling chroma subsampling mode, giving the sampling factors of Y
+     */
+    private void writeFrameHeader(BitWriter writer, int marker, int width, int height, Subsampling subsampling)
+            throws IOException {
+        writer.writeMarker(marker);
+        writer.writeShort(8 + 3 * 3);
+        writer.writeByte(8);
+        writer.writeShort(height);
+        writer.writeShort(width);
+        writer.writeByte(3);
+        for (int id = 1; id <= 3; id++) {
+            writer.writeByte(id);
+            //Y gets the sampling factors of the mode and quantization table 0, Cb and Cr 1x1 and table 1
+            writer.writeByte(id == 1 ? subsampling.getHorizontalFactor() << 4 | subsampling.getVerticalFactor() : 0x11);
+            writer.writeByte(id == 1 ? 0 : 1);
+        }
+    }
+
+    /**
+     * Write a DHT segment
+     *
+     * @param tableClassAndId table class (0 for DC, 1 for AC) in the high nibble and destination in the low nibble
+     * @param table Huffman table
+     */
+    void writeHuffmanTable(BitWriter writer, int tableClassAndId, HuffmanTable table) throws IOException {
+        writer.writeMarker(DHT);
+        writer.writeShort(2 + 1 + 16 + table.getValues().length);
+        writer.writeByte(tableClassAndId);
+        for (int count : table.getBits()) {
+            writer.writeByte(count);
+        }
+        for (int value : table.getValues()) {
+            writer.writeByte(value);
+        }
+    }
+
+    /**
+     * Write the DRI segment when restart markers are used
+     *
+     * @param restartInterval number of MCUs between restart markers, 0 for none
+     */
+    private void writeRestartInterval(BitWriter writer, int restartInterval) throws IOException {
+        if (restartInterval > 0) {
+            writer.writeMarker(DRI);
+            writer.writeShort(4);
+            writer.writeShort(restartInterval);
+        }
+    }
+
+    /**
+     * Write the APP9 segments of the restart index
+     *
+     * @param segmentOffsets offset of each restart segment from the start of the entropy coded data
+     */
+    private void writeRestartIndex(BitWriter writer, int[] segmentOffsets) throws IOException {
+        for (int first = 0; first < segmentOffsets.length; first += INDEX_ENTRIES) {
+            int count = Math.min(INDEX_ENTRIES, segmentOffsets.length - first);
+            writer.writeMarker(APP9);
+            writer.writeShort(2 + RESTART_INDEX.length + 4 + 4 * count);
+            for (byte b : RESTART_INDEX) {
+                writer.writeByte(b);
+            }
+            writer.writeInt(first);
+            for (int i = first; i < first + count; i++) {
+                writer.writeInt(segmentOffsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Write a SOS segment
+     *
+     * @param components indexes of the scan components (0 for Y, 1 for Cb, 2 for Cr)
+     * @param tables DC table id in the high nibble and AC table id in the low nibble, for each component
+     * @param spectralStart first coefficient of the scan, in zig-zag order
+     * @param spectralEnd last coefficient of the scan
+     * @param approximationHigh bit position of the previous scan of these coefficients, 0 for the first one
+     * @param approximationLow number of low-order bits left to later scans
+     */
+    void writeScanHeader(BitWriter writer, int[] components, int[] tables, int spectralStart, int spectralEnd,
+                         int approximationHigh, int approximationLow) throws IOException {
+        writer.writeMarker(SOS);
+        writer.writeShort(6 + 2 * components.length);
+        writer.writeByte(components.length);
+        for (int i = 0; i < components.length; i++) {
+            writer.writeByte(components[i] + 1);
+            writer.writeByte(tables[i]);
+        }
+        writer.writeByte(spectralStart);
+        writer.writeByte(spectralEnd);
+        writer.writeByte(approximationHigh << 4 | approximationLow);
+    }
+}
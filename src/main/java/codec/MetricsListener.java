@@ -0,0 +1,18 @@
+package codec;
+
+/**
+ * Receiver of the measurements of every encode and decode, called on the thread that asked for them once the
+ * output is complete; see Encoder.setMetricsListener and Decoder.setMetricsListener
+ */
+public interface MetricsListener {
+
+    /**
+     * @param metrics measurements of an encode
+     */
+    void encoded(CodecMetrics metrics);
+
+    /**
+     * @param metrics measurements of a decode
+     */
+    void decoded(CodecMetrics metrics);
+}
@@ -0,0 +1,284 @@
+package codec;
+
+import model.Component;
+import model.PPMImage;
+import model.Subsampling;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Encoder running the stages of a baseline encode on three threads at once: colour conversion, then subsampling,
+ * FDCT and quantization, then runlength and Huffman coding, each row of MCUs going from one stage to the next
+ * through single-producer, single-consumer rings; a fixed set of stripes goes round the stages, so only a few rows
+ * of MCUs are in memory and the output is the same as the one of Encoder.encode
+ */
+final class PipelinedEncoder {
+
+    //stripes going round the stages, a power of two
+    private static final int NR_STRIPES = 4;
+    //busy waiting before yielding, and yielding before parking, when a ring is full or empty
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 20_000;
+
+    private final Encoder encoder;
+    private final PPMImage image;
+    private final Subsampling subsampling;
+    private final int nrMcusW;
+    private final int nrMcusH;
+
+    //the stripes waiting for each stage
+    private final SpscRing<Stripe> free = new SpscRing<>(NR_STRIPES);
+    private final SpscRing<Stripe> converted = new SpscRing<>(NR_STRIPES);
+    private final SpscRing<Stripe> transformed = new SpscRing<>(NR_STRIPES);
+    //first failure of a stage, stopping the others
+    private volatile Throwable failure;
+    //null when the encode is not measured
+    private final CodecMetrics metrics;
+
+    PipelinedEncoder(Encoder encoder, PPMImage image, CodecMetrics metrics) {
+        this.encoder = encoder;
+        this.image = image;
+        this.metrics = metrics;
+        this.subsampling = encoder.getSubsampling();
+        nrMcusW = (image.getWidth() + subsampling.getMcuWidth() - 1) / subsampling.getMcuWidth();
+        nrMcusH = (image.getHeight() + subsampling.getMcuHeight() - 1) / subsampling.getMcuHeight();
+        for (int i = 0; i < Math.min(NR_STRIPES, nrMcusH); i++) {
+            free.offer(new Stripe());
+        }
+    }
+
+    /**
+     * Create the executor of the conversion and transform stages: its daemon threads are reused from one encode to
+     * the next, concurrent encodes get threads of their own, since the stages of an encode wait for each other, and
+     * threads end after a minute without encodes
+     */
+    static ExecutorService newExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "jpeg-pipeline-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Encode the image, the conversion and transform stages on threads of an executor and the entropy coding on the
+     * calling thread
+     *
+     * @param writer destination of the JFIF bytes
+     * @param jpegWriter writer of the headers, and of the whole file when the Huffman tables or the restart index
+     *                   depend on the symbols of the whole image
+     * @param executor executor from newExecutor, shared by the encodes of an encoder
+     */
+    void encode(BitWriter writer, JpegWriter jpegWriter, ExecutorService executor) throws IOException {
+        Future<?> convert = executor.submit(() -> runStage(this::convertRows));
+        Future<?> transform = executor.submit(() -> runStage(this::transformRows));
+        try {
+            encodeRows(writer, jpegWriter);
+        } catch (IOException | RuntimeException | Error e) {
+            fail(e);
+            //the exception of the stage that failed first, rather than the one of a stage stopped by it
+            rethrowFailure();
+            throw e;
+        } finally {
+            join(convert);
+            join(transform);
+        }
+        //a stage failing after the entropy coding was done
+        rethrowFailure();
+    }
+
+    /**
+     * Convert the lines of each row of MCUs to YUV
+     */
+    private void convertRows() {
+        byte[] rgb = image.getRgbData();
+        int width = image.getWidth();
+        int mcuHeight = subsampling.getMcuHeight();
+        long nanos = 0;
+        for (int row = 0; row < nrMcusH; row++) {
+            Stripe stripe = take(free);
+            long start = metrics != null ? System.nanoTime() : 0;
+            int fromLine = row * mcuHeight;
+            int toLine = Math.min(fromLine + mcuHeight, image.getHeight());
+            for (int line = fromLine; line < toLine; line++) {
+                stripe.encoder.convertLine(rgb, line * width * 3, line - fromLine);
+            }
+            stripe.nrLines = toLine - fromLine;
+            if (metrics != null) {
+                nanos += System.nanoTime() - start;
+            }
+            put(converted, stripe);
+        }
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.COLOUR_CONVERSION, nanos);
+        }
+    }
+
+    /**
+     * Subsample, transform and quantize each row of MCUs
+     */
+    private void transformRows() {
+        long nanos = 0;
+        for (int row = 0; row < nrMcusH; row++) {
+            Stripe stripe = take(converted);
+            long start = metrics != null ? System.nanoTime() : 0;
+            stripe.encoder.transform(stripe.nrLines, stripe.components, 0);
+            if (metrics != null) {
+                nanos += System.nanoTime() - start;
+            }
+            put(transformed, stripe);
+        }
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.TRANSFORM, nanos);
+        }
+    }
+
+    /**
+     * Runlength and Huffman code each row of MCUs as it arrives; with optimized Huffman tables or a restart index
+     * the symbols of the whole image are kept and the file is written at the end instead
+     */
+    private void encodeRows(BitWriter writer, JpegWriter jpegWriter) throws IOException {
+        int restartInterval = encoder.getRestartInterval();
+        boolean direct = !encoder.isOptimizeHuffmanTables() && !encoder.isRestartIndex();
+        int blocksPerMcu = subsampling.getHorizontalFactor() * subsampling.getVerticalFactor() + 2;
+        SymbolBuffer symbols = new SymbolBuffer(nrMcusW * blocksPerMcu * (direct ? 64 : 16 * nrMcusH));
+        int[] zigZag = new int[64];
+
+        //the time waiting for the other stages is left out
+        long start = metrics != null ? System.nanoTime() : 0;
+        long nanos = 0;
+        EntropyWriter entropyWriter = null;
+        if (direct) {
+            jpegWriter.writeHeaders(writer, image.getWidth(), image.getHeight(), subsampling,
+                    encoder.getQuantizationTables(), EntropyWriter.STANDARD_TABLES, restartInterval);
+            entropyWriter = new EntropyWriter(writer, subsampling, restartInterval, EntropyWriter.STANDARD_TABLES);
+        }
+        for (int row = 0; row < nrMcusH; row++) {
+            if (metrics != null) {
+                nanos += System.nanoTime() - start;
+            }
+            Stripe stripe = take(transformed);
+            start = metrics != null ? System.nanoTime() : 0;
+            for (int j = 0; j < nrMcusW; j++) {
+                encoder.performEntropyEncoding(stripe.components, j, 0, zigZag, symbols);
+            }
+            if (metrics != null) {
+                //counting the blocks is left out of the time as well
+                nanos += System.nanoTime() - start;
+                metrics.addBlocks(stripe.components);
+                start = System.nanoTime();
+            }
+            put(free, stripe);
+            if (direct) {
+                entropyWriter.writeMcus(symbols.array(), 0, nrMcusW);
+                symbols.clear();
+            }
+        }
+
+        if (direct) {
+            entropyWriter.finish();
+            jpegWriter.writeEnd(writer);
+        } else {
+            jpegWriter.write(writer, image.getWidth(), image.getHeight(), subsampling,
+                    encoder.getQuantizationTables(), restartInterval, symbols.array(), nrMcusW * nrMcusH);
+        }
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.ENTROPY_CODING, nanos + System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Wait for a stripe, as the only consumer of a ring
+     */
+    private Stripe take(SpscRing<Stripe> ring) {
+        Stripe stripe;
+        for (int attempt = 0; (stripe = ring.poll()) == null; attempt++) {
+            idle(attempt);
+        }
+        return stripe;
+    }
+
+    /**
+     * Hand a stripe over, as the only producer of a ring
+     */
+    private void put(SpscRing<Stripe> ring, Stripe stripe) {
+        for (int attempt = 0; !ring.offer(stripe); attempt++) {
+            idle(attempt);
+        }
+    }
+
+    /**
+     * Wait a little longer with every attempt, giving up once another stage failed
+     */
+    private void idle(int attempt) {
+        if (failure != null) {
+            throw new IllegalStateException("Another pipeline stage failed", failure);
+        }
+        if (attempt < SPINS) {
+            return;
+        }
+        if (attempt < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    private void runStage(Runnable stage) {
+        try {
+            stage.run();
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Wait for a stage, stopping the pipeline when interrupted
+     */
+    private void join(Future<?> stage) {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the pipeline", e);
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable cause = failure;
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Scratch planes and blocks of one row of MCUs going round the stages
+     */
+    private class Stripe {
+
+        final StripeEncoder encoder = new StripeEncoder(PipelinedEncoder.this.encoder, subsampling, image.getWidth());
+        final Component[] components = Encoder.createComponents(subsampling, nrMcusW, 1);
+        //lines of the image in the row of MCUs
+        int nrLines;
+    }
+}
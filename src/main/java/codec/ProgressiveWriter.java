@@ -0,0 +1,361 @@
+package codec;
+
+import model.Component;
+import model.Subsampling;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writer of progressive JFIF files (SOF2): the quantized coefficients are sent in several scans, first the DC
+ * coefficients at reduced precision, then bands of AC coefficients and finally the bits left out by the earlier
+ * scans, so that a decoder can show a coarse image after the first scans. Every scan gets Huffman tables built from
+ * its own symbols, counted in a first pass over the coefficients; without a BitWriter the coder only counts
+ */
+class ProgressiveWriter {
+
+    private static final int RST0 = 0xD0;
+    //longest run of blocks ending in zeros coded by a single symbol
+    private static final int MAX_EOB_RUN = 0x7FFF;
+    //correction bits buffered while a run of end of blocks grows
+    private static final int MAX_CORRECTION_BITS = 1000;
+
+    //scan script of libjpeg's simple progression for YCbCr: DC at half precision, the first Y band, the chroma AC,
+    //the remaining Y AC, then the refinements down to full precision
+    private static final Scan[] SCRIPT = {
+            new Scan(new int[]{0, 1, 2}, 0, 0, 0, 1),
+            new Scan(new int[]{0}, 1, 5, 0, 2),
+            new Scan(new int[]{2}, 1, 63, 0, 1),
+            new Scan(new int[]{1}, 1, 63, 0, 1),
+            new Scan(new int[]{0}, 6, 63, 0, 2),
+            new Scan(new int[]{0}, 1, 63, 2, 1),
+            new Scan(new int[]{0, 1, 2}, 0, 0, 1, 0),
+            new Scan(new int[]{2}, 1, 63, 1, 0),
+            new Scan(new int[]{1}, 1, 63, 1, 0),
+            new Scan(new int[]{0}, 1, 63, 1, 0)};
+
+    private final JpegWriter jpegWriter = new JpegWriter();
+    private final Component[] components;
+    private final int width;
+    private final int height;
+    private final Subsampling subsampling;
+    private final int restartInterval;
+
+    //null while counting
+    private BitWriter writer;
+    //Huffman tables of the scan by table id (0 for Y, 1 for Cb and Cr), or symbol frequencies while counting
+    private final HuffmanTable[] tables = new HuffmanTable[2];
+    private final int[][] frequencies = new int[2][256];
+
+    private final int[] predictions = new int[3];
+    //AC table of the scan being coded
+    private int acTable;
+    //number of blocks of the pending run of end of blocks
+    private int eobRun;
+    //correction bits to send after the run of end of blocks, followed by those of the current block
+    private final byte[] correctionBits = new byte[MAX_CORRECTION_BITS];
+    private int nrPendingBits;
+    private final int[] magnitudes = new int[64];
+
+    /**
+     * @param components Y, U and V components holding the quantized coefficients of the whole image
+     * @param width of the image
+     * @param height of the image
+     * @param subsampling chroma subsampling mode of the components
+     * @param restartInterval number of MCUs between restart markers in every scan, 0 for none
+     */
+    ProgressiveWriter(Component[] components, int width, int height, Subsampling subsampling, int restartInterval) {
+        this.components = components;
+        this.width = width;
+        this.height = height;
+        this.subsampling = subsampling;
+        this.restartInterval = restartInterval;
+    }
+
+    /**
+     * Write the whole file: headers, the scans of the script and the EOI marker
+     *
+     * @param out writer of the file
+     * @param quantizationTables luminance and chrominance quantization matrices in row-major order
+     */
+    void write(BitWriter out, int[][] quantizationTables) throws IOException {
+        jpegWriter.writeProgressiveHeaders(out, width, height, subsampling, quantizationTables, restartInterval);
+        for (Scan scan : SCRIPT) {
+            int[] tableIds = new int[scan.components.length];
+            boolean dc = scan.spectralStart == 0;
+            //DC refinements are raw bits without Huffman coding
+            if (!dc || scan.approximationHigh == 0) {
+                writer = null;
+                for (int[] counts : frequencies) {
+                    Arrays.fill(counts, 0);
+                }
+                encodeScan(scan);
+                for (int id = 0; id < 2; id++) {
+                    if (usesTable(scan, id)) {
+                        tables[id] = HuffmanTable.optimal(frequencies[id]);
+                        jpegWriter.writeHuffmanTable(out, (dc ? 0x00 : 0x10) | id, tables[id]);
+                    }
+                }
+                for (int i = 0; i < tableIds.length; i++) {
+                    int id = tableId(scan.components[i]);
+                    tableIds[i] = dc ? id << 4 : id;
+                }
+            }
+            jpegWriter.writeScanHeader(out, scan.components, tableIds, scan.spectralStart, scan.spectralEnd,
+                    scan.approximationHigh, scan.approximationLow);
+            writer = out;
+            encodeScan(scan);
+        }
+        jpegWriter.writeEnd(out);
+    }
+
+    private static int tableId(int component) {
+        return component == 0 ? 0 : 1;
+    }
+
+    private static boolean usesTable(Scan scan, int id) {
+        for (int component : scan.components) {
+            if (tableId(component) == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Code the blocks of a scan: interleaved scans go through the MCUs, single component scans through the blocks
+     * of the component inside the image
+     */
+    private void encodeScan(Scan scan) throws IOException {
+        predictions[0] = predictions[1] = predictions[2] = 0;
+        acTable = tableId(scan.components[0]);
+        eobRun = 0;
+        nrPendingBits = 0;
+
+        int mcu = 0;
+        if (scan.components.length > 1) {
+            int nrMcusW = components[1].getNrBlocksW();
+            int nrMcusH = components[1].getNrBlocksH();
+            for (int mcuY = 0; mcuY < nrMcusH; mcuY++) {
+                for (int mcuX = 0; mcuX < nrMcusW; mcuX++, mcu++) {
+                    restartIfDue(mcu);
+                    for (int c : scan.components) {
+                        Component component = components[c];
+                        int h = component.getHorizontalSampling();
+                        int v = component.getVerticalSampling();
+                        for (int n = 0; n < v; n++) {
+                            for (int m = 0; m < h; m++) {
+                                encodeBlock(scan, c, component.getBlockOffset(mcuX * h + m, mcuY * v + n));
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            int c = scan.components[0];
+            Component component = components[c];
+            int horizontalFactor = subsampling.getHorizontalFactor();
+            int verticalFactor = subsampling.getVerticalFactor();
+            int componentWidth = (width * component.getHorizontalSampling() + horizontalFactor - 1) / horizontalFactor;
+            int componentHeight = (height * component.getVerticalSampling() + verticalFactor - 1) / verticalFactor;
+            for (int blockY = 0; blockY < (componentHeight + 7) / 8; blockY++) {
+                for (int blockX = 0; blockX < (componentWidth + 7) / 8; blockX++, mcu++) {
+                    restartIfDue(mcu);
+                    encodeBlock(scan, c, component.getBlockOffset(blockX, blockY));
+                }
+            }
+        }
+
+        emitEobRun();
+        if (writer != null) {
+            writer.alignBits();
+        }
+    }
+
+    private void restartIfDue(int mcu) throws IOException {
+        if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+            emitEobRun();
+            if (writer != null) {
+                writer.alignBits();
+                writer.writeMarker(RST0 + (mcu / restartInterval - 1) % 8);
+            }
+            predictions[0] = predictions[1] = predictions[2] = 0;
+        }
+    }
+
+    private void encodeBlock(Scan scan, int c, int offset) throws IOException {
+        short[] coefficients = components[c].getCoefficients();
+        if (scan.spectralStart == 0) {
+            if (scan.approximationHigh == 0) {
+                encodeDcFirst(coefficients[offset] >> scan.approximationLow, c);
+            } else {
+                writeBits((coefficients[offset] >> scan.approximationLow) & 1, 1);
+            }
+        } else if (scan.approximationHigh == 0) {
+            encodeAcFirst(scan, coefficients, offset);
+        } else {
+            encodeAcRefine(scan, coefficients, offset);
+        }
+    }
+
+    /**
+     * Code the difference of a DC coefficient, shifted right by the point transform, to the previous one
+     */
+    private void encodeDcFirst(int value, int c) throws IOException {
+        int difference = value - predictions[c];
+        predictions[c] = value;
+        int size = countBits(difference);
+        writeSymbol(tableId(c), size);
+        if (size > 0) {
+            writeBits(difference < 0 ? difference - 1 : difference, size);
+        }
+    }
+
+    /**
+     * Code the band of a block at reduced precision: magnitudes are shifted right by the point transform, blocks
+     * ending in zeros join a run of end of blocks
+     */
+    private void encodeAcFirst(Scan scan, short[] coefficients, int offset) throws IOException {
+        int run = 0;
+        for (int k = scan.spectralStart; k <= scan.spectralEnd; k++) {
+            int value = coefficients[offset + ZigZag.ORDER[k]];
+            int magnitude = (value < 0 ? -value : value) >> scan.approximationLow;
+            if (magnitude == 0) {
+                run++;
+                continue;
+            }
+            emitEobRun();
+            while (run > 15) {
+                writeSymbol(acTable, 0xF0);
+                run -= 16;
+            }
+            int size = countBits(magnitude);
+            writeSymbol(acTable, run << 4 | size);
+            writeBits(value < 0 ? ~magnitude : magnitude, size);
+            run = 0;
+        }
+        if (run > 0) {
+            eobRun++;
+            if (eobRun == MAX_EOB_RUN) {
+                emitEobRun();
+            }
+        }
+    }
+
+    /**
+     * Code the next bit of a band: coefficients becoming non-zero are coded as symbols of size 1 followed by their
+     * sign, the coefficients that already were non-zero contribute a raw correction bit
+     */
+    private void encodeAcRefine(Scan scan, short[] coefficients, int offset) throws IOException {
+        //magnitudes at this scan's precision, and the last coefficient becoming non-zero
+        int end = 0;
+        for (int k = scan.spectralStart; k <= scan.spectralEnd; k++) {
+            int value = coefficients[offset + ZigZag.ORDER[k]];
+            magnitudes[k] = (value < 0 ? -value : value) >> scan.approximationLow;
+            if (magnitudes[k] == 1) {
+                end = k;
+            }
+        }
+
+        int run = 0;
+        //correction bits of this block, stored after the pending ones
+        int blockStart = nrPendingBits;
+        int nrBlockBits = 0;
+        for (int k = scan.spectralStart; k <= scan.spectralEnd; k++) {
+            int magnitude = magnitudes[k];
+            if (magnitude == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15 && k <= end) {
+                emitEobRun();
+                writeSymbol(acTable, 0xF0);
+                run -= 16;
+                emitCorrectionBits(blockStart, blockStart + nrBlockBits);
+                blockStart = 0;
+                nrBlockBits = 0;
+            }
+            if (magnitude > 1) {
+                //already non-zero: its new bit goes out after the next symbol
+                correctionBits[blockStart + nrBlockBits++] = (byte) (magnitude & 1);
+                continue;
+            }
+            emitEobRun();
+            writeSymbol(acTable, run << 4 | 1);
+            writeBits(coefficients[offset + ZigZag.ORDER[k]] < 0 ? 0 : 1, 1);
+            emitCorrectionBits(blockStart, blockStart + nrBlockBits);
+            blockStart = 0;
+            nrBlockBits = 0;
+            run = 0;
+        }
+
+        if (run > 0 || nrBlockBits > 0) {
+            eobRun++;
+            nrPendingBits += nrBlockBits;
+            if (eobRun == MAX_EOB_RUN || nrPendingBits > MAX_CORRECTION_BITS - 64 + 1) {
+                emitEobRun();
+            }
+        }
+    }
+
+    /**
+     * Code the pending run of end of blocks, followed by the correction bits buffered meanwhile
+     */
+    private void emitEobRun() throws IOException {
+        if (eobRun > 0) {
+            int size = 31 - Integer.numberOfLeadingZeros(eobRun);
+            writeSymbol(acTable, size << 4);
+            if (size > 0) {
+                writeBits(eobRun, size);
+            }
+            eobRun = 0;
+            emitCorrectionBits(0, nrPendingBits);
+            nrPendingBits = 0;
+        }
+    }
+
+    private void emitCorrectionBits(int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            writeBits(correctionBits[i], 1);
+        }
+    }
+
+    private void writeSymbol(int table, int symbol) throws IOException {
+        if (writer == null) {
+            frequencies[table][symbol]++;
+        } else {
+            writer.writeBits(tables[table].getCode(symbol), tables[table].getCodeLength(symbol));
+        }
+    }
+
+    private void writeBits(int bits, int count) throws IOException {
+        if (writer != null) {
+            writer.writeBits(bits, count);
+        }
+    }
+
+    private static int countBits(int number) {
+        return 32 - Integer.numberOfLeadingZeros(number < 0 ? -number : number);
+    }
+
+    /**
+     * Components and coefficients of one scan
+     */
+    private static class Scan {
+
+        //indexes of the components (0 for Y, 1 for Cb, 2 for Cr)
+        final int[] components;
+        final int spectralStart;
+        final int spectralEnd;
+        final int approximationHigh;
+        final int approximationLow;
+
+        Scan(int[] components, int spectralStart, int spectralEnd, int approximationHigh, int approximationLow) {
+            this.components = components;
+            this.spectralStart = spectralStart;
+            this.spectralEnd = spectralEnd;
+            this.approximationHigh = approximationHigh;
+            this.approximationLow = approximationLow;
+        }
+    }
+}
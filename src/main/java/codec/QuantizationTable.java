@@ -0,0 +1,59 @@
+package codec;
+
+/**
+ * Quantization matrix prepared once for a transform: quantizing becomes a multiplication by a reciprocal that also
+ * carries the scaling left out by the transform's unscaled forward pass, and dequantizing a multiplication by the
+ * matrix value premultiplied by the scaling its unscaled inverse pass expects
+ */
+class QuantizationTable {
+
+    //keeps (int) (value + ROUNDING_OFFSET) positive, so that the conversion rounds to the nearest integer
+    private static final int ROUNDING_BIAS = 16384;
+    private static final float ROUNDING_OFFSET = ROUNDING_BIAS + 0.5f;
+
+    private final int[] values;
+    private final float[] reciprocals = new float[64];
+    private final float[] multipliers = new float[64];
+
+    /**
+     * @param values quantization matrix in row-major order
+     * @param transform DCT whose unscaled passes the table works with
+     */
+    QuantizationTable(int[] values, DiscreteCosineTransform transform) {
+        this.values = values;
+        for (int i = 0; i < 64; i++) {
+            reciprocals[i] = transform.getForwardScale(i) / values[i];
+            multipliers[i] = values[i] * transform.getInverseScale(i);
+        }
+    }
+
+    int[] getValues() {
+        return values;
+    }
+
+    /**
+     * Quantize a block of unscaled DCT output, rounding to the nearest integer
+     *
+     * @param dctValues 64 values produced by forwardUnscaled
+     * @param quantized array receiving the quantized coefficients
+     * @param offset position of the block in the quantized array
+     */
+    void quantize(float[] dctValues, short[] quantized, int offset) {
+        for (int i = 0; i < 64; i++) {
+            quantized[offset + i] = (short) ((int) (dctValues[i] * reciprocals[i] + ROUNDING_OFFSET) - ROUNDING_BIAS);
+        }
+    }
+
+    /**
+     * Dequantize a block into the input of inverseUnscaled
+     *
+     * @param quantized array holding the quantized coefficients
+     * @param offset position of the block in the quantized array
+     * @param dctValues 64 output values
+     */
+    void dequantize(short[] quantized, int offset, float[] dctValues) {
+        for (int i = 0; i < 64; i++) {
+            dctValues[i] = quantized[offset + i] * multipliers[i];
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package codec;
+
+/**
+ * Direct evaluation of the DCT formulas, kept as the accuracy reference for the faster transforms
+ */
+public class ReferenceDCT implements DiscreteCosineTransform {
+
+    @Override
+    public void forward(int[] samples, float[] coefficients) {
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                //calculate value of G(u,v) in the output DCT block matrix
+                double alphaU = u == 0 ? (1 / Math.sqrt(2)) : 1;
+                double alphaV = v == 0 ? (1 / Math.sqrt(2)) : 1;
+                double sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    for (int y = 0; y < 8; y++) {
+                        sum += (samples[x*8+y]-128) * Math.cos(((2*x+1)*u*Math.PI)/16) * Math.cos(((2*y+1)*v*Math.PI)/16);
+                    }
+                }
+                coefficients[u*8+v] = (float) ((1.0/4.0) * alphaU * alphaV * sum);
+            }
+        }
+    }
+
+    @Override
+    public void inverse(float[] coefficients, int[] samples) {
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                //calculate value of f(x,y) in the output block matrix
+                double sum = 0;
+                for (int u = 0; u < 8; u++) {
+                    for (int v = 0; v < 8; v++) {
+                        double alphaU = u == 0 ? (1 / Math.sqrt(2)) : 1;
+                        double alphaV = v == 0 ? (1 / Math.sqrt(2)) : 1;
+                        sum += alphaU * alphaV * coefficients[u*8+v] * Math.cos(((2*x+1)*u*Math.PI)/16) * Math.cos(((2*y+1)*v*Math.PI)/16);
+                    }
+                }
+                samples[x*8+y] = (int) Math.round((1.0/4.0) * sum) + 128;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package codec;
+
+/**
+ * Inverse DCT of the low-frequency coefficients of an 8x8 block into a block of 8, 4, 2 or 1 columns and rows of
+ * samples, each the average of the pixels it stands for: the block is decoded at 1/2, 1/4 or 1/8 of its size along
+ * either direction
+ */
+final class ScaledIDCT {
+
+    //COSINES[n][u*n+x] = C(u)/2 * cos((2x+1)u*PI/(2n)), the n-point inverse DCT giving the averages of 8/n samples
+    private static final float[][] COSINES = new float[9][];
+
+    static {
+        for (int n = 1; n <= 8; n *= 2) {
+            COSINES[n] = new float[n * n];
+            for (int u = 0; u < n; u++) {
+                double alpha = u == 0 ? (1 / Math.sqrt(2)) : 1;
+                for (int x = 0; x < n; x++) {
+                    COSINES[n][u*n+x] = (float) (alpha / 2 * Math.cos(((2*x+1)*u*Math.PI)/(2*n)));
+                }
+            }
+        }
+    }
+
+    private ScaledIDCT() {
+    }
+
+    /**
+     * Dequantize the low-frequency coefficients of a block and transform them
+     *
+     * @param quantized array holding the quantized 8x8 block in row-major order
+     * @param offset position of the block in the array
+     * @param table quantization matrix in row-major order
+     * @param width number of output columns: 8, 4, 2 or 1
+     * @param height number of output rows: 8, 4, 2 or 1
+     * @param tmp scratch array of at least width x height values
+     * @param samples receives width x height samples in row-major order, level shifted by +128
+     */
+    static void inverse(short[] quantized, int offset, int[] table, int width, int height, float[] tmp,
+                        int[] samples) {
+        if (width == 1 && height == 1) {
+            //the DC coefficient is 8 times the average of the block
+            samples[0] = Math.round(quantized[offset] * table[0] / 8f) + 128;
+            return;
+        }
+
+        float[] columnCosines = COSINES[width];
+        float[] rowCosines = COSINES[height];
+        //transform the rows of the coefficients
+        for (int u = 0; u < height; u++) {
+            for (int x = 0; x < width; x++) {
+                float sum = 0;
+                for (int v = 0; v < width; v++) {
+                    sum += quantized[offset + u*8+v] * table[u*8+v] * columnCosines[v*width+x];
+                }
+                tmp[u*width+x] = sum;
+            }
+        }
+
+        //transform the columns
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float sum = 0;
+                for (int u = 0; u < height; u++) {
+                    sum += rowCosines[u*height+y] * tmp[u*width+x];
+                }
+                samples[y*width+x] = Math.round(sum) + 128;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package codec;
+
+/**
+ * Row-column DCT using a cosine table computed once, reducing each block to two passes of 8-point products
+ */
+public class SeparableDCT implements DiscreteCosineTransform {
+
+    //COSINES[u*8+x] = C(u)/2 * cos((2x+1)u*PI/16)
+    private static final float[] COSINES = new float[64];
+
+    static {
+        for (int u = 0; u < 8; u++) {
+            double alpha = u == 0 ? (1 / Math.sqrt(2)) : 1;
+            for (int x = 0; x < 8; x++) {
+                COSINES[u*8+x] = (float) (alpha / 2 * Math.cos(((2*x+1)*u*Math.PI)/16));
+            }
+        }
+    }
+
+    @Override
+    public void forward(int[] samples, float[] coefficients) {
+        float[] tmp = new float[64];
+
+        //transform the rows
+        for (int x = 0; x < 8; x++) {
+            for (int v = 0; v < 8; v++) {
+                float sum = 0;
+                for (int y = 0; y < 8; y++) {
+                    sum += (samples[x*8+y]-128) * COSINES[v*8+y];
+                }
+                tmp[x*8+v] = sum;
+            }
+        }
+
+        //transform the columns
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                float sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    sum += COSINES[u*8+x] * tmp[x*8+v];
+                }
+                coefficients[u*8+v] = sum;
+            }
+        }
+    }
+
+    @Override
+    public void inverse(float[] coefficients, int[] samples) {
+        float[] tmp = new float[64];
+
+        //transform the rows
+        for (int u = 0; u < 8; u++) {
+            for (int y = 0; y < 8; y++) {
+                float sum = 0;
+                for (int v = 0; v < 8; v++) {
+                    sum += coefficients[u*8+v] * COSINES[v*8+y];
+                }
+                tmp[u*8+y] = sum;
+            }
+        }
+
+        //transform the columns
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                float sum = 0;
+                for (int u = 0; u < 8; u++) {
+                    sum += COSINES[u*8+x] * tmp[u*8+y];
+                }
+                samples[x*8+y] = Math.round(sum) + 128;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue between one producer thread and one consumer thread: each side writes only its own
+ * counter, and publishes it with an ordered store after the slot was filled or emptied
+ *
+ * @param <T> type of the elements
+ */
+final class SpscRing<T> {
+
+    private final Object[] slots;
+    private final int mask;
+    //number of elements taken, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    //number of elements put, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity number of slots, a power of two
+     */
+    SpscRing(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        slots = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Called by the producer
+     *
+     * @param element element to add
+     * @return false when the ring is full
+     */
+    boolean offer(T element) {
+        long t = tail.get();
+        if (t - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) t & mask] = element;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer
+     *
+     * @return oldest element, null when the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        T element = (T) slots[index];
+        slots[index] = null;
+        head.lazySet(h + 1);
+        return element;
+    }
+}
@@ -0,0 +1,163 @@
+package codec;
+
+import model.Component;
+import model.Subsampling;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encoder receiving an image one row at a time: the rows of each row of MCUs are transformed, Huffman coded and
+ * passed to the output together, so memory use does not depend on the height of the image; with optimized Huffman
+ * tables the runlength symbols of the whole image are kept instead and written when the stream is closed, and
+ * progressive files keep the quantized coefficients of the whole image until then
+ */
+public class StreamingEncoder implements Closeable {
+
+    private final Encoder encoder;
+    private final int width;
+    private final int height;
+    private final Subsampling subsampling;
+    private final BitWriter writer;
+    private final JpegWriter jpegWriter = new JpegWriter();
+    private final boolean progressive;
+    //null until the headers are written
+    private EntropyWriter entropyWriter;
+
+    //the lines and the blocks of the current row of MCUs
+    private final StripeEncoder stripe;
+    private final Component[] components;
+    private final SymbolBuffer byteArray;
+
+    private final int[] zigZag = new int[64];
+    //null when the encoder has no metrics listener
+    private final CodecMetrics metrics;
+
+    //number of rows received, in total and in the current row of MCUs
+    private int line;
+    private int stripeLine;
+
+    StreamingEncoder(Encoder encoder, int width, int height, OutputStream out) throws IOException {
+        this.encoder = encoder;
+        this.width = width;
+        this.height = height;
+        this.subsampling = encoder.getSubsampling();
+        this.writer = new BitWriter(out);
+        this.progressive = encoder.isProgressive();
+        metrics = encoder.getMetricsListener() != null
+                ? new CodecMetrics(CodecMetrics.Operation.ENCODE, width, height) : null;
+
+        int nrMcusW = (width + subsampling.getMcuWidth() - 1) / subsampling.getMcuWidth();
+        int nrMcusH = (height + subsampling.getMcuHeight() - 1) / subsampling.getMcuHeight();
+        stripe = new StripeEncoder(encoder, subsampling, width);
+        components = Encoder.createComponents(subsampling, nrMcusW, progressive ? nrMcusH : 1);
+        int blocksPerMcu = subsampling.getHorizontalFactor() * subsampling.getVerticalFactor() + 2;
+        byteArray = new SymbolBuffer(nrMcusW * blocksPerMcu * 64);
+
+        if (!encoder.isOptimizeHuffmanTables() && !progressive) {
+            writeHeaders(EntropyWriter.STANDARD_TABLES);
+        }
+    }
+
+    /**
+     * Add the next row of the image
+     *
+     * @param rgb interleaved r, g, b values
+     * @param offset position of the first r value of the row
+     */
+    public void writeRow(byte[] rgb, int offset) throws IOException {
+        if (line == height) {
+            throw new IllegalStateException("All " + height + " rows were already written");
+        }
+        long start = metrics != null ? System.nanoTime() : 0;
+        stripe.convertLine(rgb, offset, stripeLine);
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.COLOUR_CONVERSION, System.nanoTime() - start);
+        }
+        stripeLine++;
+        line++;
+        if (stripeLine == subsampling.getMcuHeight() || line == height) {
+            encodeStripe();
+        }
+    }
+
+    /**
+     * Finish the image, after all its rows were written
+     */
+    @Override
+    public void close() throws IOException {
+        if (line < height) {
+            throw new IllegalStateException("Only " + line + " of " + height + " rows were written");
+        }
+        long start = metrics != null ? System.nanoTime() : 0;
+        if (progressive) {
+            new ProgressiveWriter(components, width, height, subsampling, encoder.getRestartInterval())
+                    .write(writer, encoder.getQuantizationTables());
+        } else {
+            if (entropyWriter == null) {
+                int nrMcusH = (height + subsampling.getMcuHeight() - 1) / subsampling.getMcuHeight();
+                int nrMcus = components[1].getNrBlocksW() * nrMcusH;
+                writeHeaders(EntropyWriter.optimizeTables(byteArray.array(), 0, nrMcus, subsampling,
+                        encoder.getRestartInterval()));
+                entropyWriter.writeMcus(byteArray.array(), 0, nrMcus);
+            }
+            entropyWriter.finish();
+            jpegWriter.writeEnd(writer);
+        }
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.ENTROPY_CODING, System.nanoTime() - start);
+            if (progressive) {
+                metrics.addBlocks(components);
+            }
+            encoder.report(metrics, writer.getByteCount());
+        }
+    }
+
+    /**
+     * @return measurements of the image, null when the encoder has no metrics listener
+     */
+    CodecMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void writeHeaders(HuffmanTable[] huffmanTables) throws IOException {
+        jpegWriter.writeHeaders(writer, width, height, subsampling, encoder.getQuantizationTables(), huffmanTables,
+                encoder.getRestartInterval());
+        entropyWriter = new EntropyWriter(writer, subsampling, encoder.getRestartInterval(), huffmanTables);
+    }
+
+    private void encodeStripe() throws IOException {
+        long start = metrics != null ? System.nanoTime() : 0;
+        if (progressive) {
+            stripe.transform(stripeLine, components, (line - 1) / subsampling.getMcuHeight());
+            stripeLine = 0;
+            if (metrics != null) {
+                metrics.addNanos(CodecMetrics.Stage.TRANSFORM, System.nanoTime() - start);
+            }
+            return;
+        }
+        stripe.transform(stripeLine, components, 0);
+        long transformed = metrics != null ? System.nanoTime() : 0;
+
+        //the symbols accumulate until close when the Huffman tables depend on the whole image
+        int nrMcusW = components[1].getNrBlocksW();
+        if (entropyWriter != null) {
+            byteArray.clear();
+        }
+        int index = byteArray.size();
+        for (int j = 0; j < nrMcusW; j++) {
+            encoder.performEntropyEncoding(components, j, 0, zigZag, byteArray);
+        }
+        if (entropyWriter != null) {
+            entropyWriter.writeMcus(byteArray.array(), index, nrMcusW);
+        }
+        if (metrics != null) {
+            metrics.addNanos(CodecMetrics.Stage.TRANSFORM, transformed - start);
+            metrics.addNanos(CodecMetrics.Stage.ENTROPY_CODING, System.nanoTime() - transformed);
+            metrics.addBlocks(components);
+        }
+
+        stripeLine = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package codec;
+
+import model.Component;
+import model.Plane;
+import model.Subsampling;
+
+/**
+ * Scratch planes of one row of MCUs: the lines are converted to YUV one by one, then the U and V planes are
+ * subsampled and every plane is transformed into the blocks of the row
+ */
+class StripeEncoder {
+
+    private final Encoder encoder;
+    private final Subsampling subsampling;
+    private final int width;
+
+    private final Plane y;
+    //U and V at full resolution, the same planes as u and v without subsampling
+    private final Plane uFull;
+    private final Plane vFull;
+    private final Plane u;
+    private final Plane v;
+
+    private final int[] samples = new int[64];
+    private final float[] dctValues = new float[64];
+
+    StripeEncoder(Encoder encoder, Subsampling subsampling, int width) {
+        this.encoder = encoder;
+        this.subsampling = subsampling;
+        this.width = width;
+
+        int mcuHeight = subsampling.getMcuHeight();
+        y = new Plane(width, mcuHeight);
+        uFull = new Plane(width, mcuHeight);
+        vFull = new Plane(width, mcuHeight);
+        if (subsampling == Subsampling.YUV444) {
+            u = uFull;
+            v = vFull;
+        } else {
+            int chromaWidth = (width + subsampling.getHorizontalFactor() - 1) / subsampling.getHorizontalFactor();
+            u = new Plane(chromaWidth, 8);
+            v = new Plane(chromaWidth, 8);
+        }
+    }
+
+    /**
+     * Convert a line of the row of MCUs to YUV
+     *
+     * @param rgb interleaved r, g, b values
+     * @param offset position of the first r value of the line
+     * @param line index of the line within the row of MCUs
+     */
+    void convertLine(byte[] rgb, int offset, int line) {
+        encoder.convertToYUV(rgb, offset, y, uFull, vFull, line * width, width);
+    }
+
+    /**
+     * Subsample and transform the converted lines into the blocks of a row of MCUs
+     *
+     * @param nrLines number of converted lines, the last one being repeated down to the end of the MCUs
+     * @param components receive the Y, U and V blocks
+     * @param mcuRow index of the row of MCUs in the components
+     */
+    void transform(int nrLines, Component[] components, int mcuRow) {
+        int mcuHeight = subsampling.getMcuHeight();
+        int from = (nrLines - 1) * width;
+        for (int n = nrLines; n < mcuHeight; n++) {
+            System.arraycopy(y.getSamples(), from, y.getSamples(), n * width, width);
+            System.arraycopy(uFull.getSamples(), from, uFull.getSamples(), n * width, width);
+            System.arraycopy(vFull.getSamples(), from, vFull.getSamples(), n * width, width);
+        }
+
+        if (u != uFull) {
+            encoder.subSample(uFull, u, subsampling.getHorizontalFactor(), subsampling.getVerticalFactor());
+            encoder.subSample(vFull, v, subsampling.getHorizontalFactor(), subsampling.getVerticalFactor());
+        }
+
+        int verticalFactor = subsampling.getVerticalFactor();
+        for (int n = 0; n < verticalFactor; n++) {
+            encoder.transformRow(y, n, components[0], mcuRow * verticalFactor + n, samples, dctValues);
+        }
+        encoder.transformRow(u, 0, components[1], mcuRow, samples, dctValues);
+        encoder.transformRow(v, 0, components[2], mcuRow, samples, dctValues);
+    }
+}
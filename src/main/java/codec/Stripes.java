@@ -0,0 +1,63 @@
+package codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent work on consecutive ranges of rows, either on the calling thread or split across an executor
+ */
+class Stripes {
+
+    //number of tasks per available processor, so that uneven tasks still keep every thread busy
+    private static final int TASKS_PER_THREAD = 4;
+
+    interface Task {
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Run a task over the rows [0, nrRows) and wait for its completion
+     *
+     * @param executor executor running the stripes, null to run everything on the calling thread
+     * @param nrRows number of rows
+     * @param task work to do on a range of rows
+     */
+    static void run(ExecutorService executor, int nrRows, Task task) {
+        if (executor == null || nrRows <= 1) {
+            task.run(0, nrRows);
+            return;
+        }
+
+        int nrTasks = Math.min(nrRows, Runtime.getRuntime().availableProcessors() * TASKS_PER_THREAD);
+        List<Callable<Void>> tasks = new ArrayList<>(nrTasks);
+        for (int i = 0; i < nrTasks; i++) {
+            int fromRow = (int) ((long) nrRows * i / nrTasks);
+            int toRow = (int) ((long) nrRows * (i + 1) / nrTasks);
+            tasks.add(() -> {
+                task.run(fromRow, toRow);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for stripes", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package codec;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of runlength symbols in the layout of JPEG entropy coding, before Huffman coding: each symbol is
+ * one byte holding the runlength in the high nibble and the size in the low nibble, followed by the size
+ * low-order bits of the amplitude (negative values in one's complement) in one byte, or two bytes for sizes above 8
+ */
+class SymbolBuffer {
+
+    private byte[] symbols;
+    private int size;
+
+    SymbolBuffer(int initialCapacity) {
+        symbols = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Append a symbol and its amplitude; (0,0) is the end of block and (15,0) a run of 16 zeros
+     *
+     * @param runlength number of zeros preceding the value, up to 15
+     * @param bitCount size of the value, as given by Encoder.countBits
+     * @param value the coefficient, or the DC coefficient with a runlength of 0
+     */
+    void add(int runlength, int bitCount, int value) {
+        if (size + 3 > symbols.length) {
+            symbols = Arrays.copyOf(symbols, symbols.length * 2);
+        }
+        symbols[size++] = (byte) (runlength << 4 | bitCount);
+        int bits = (value < 0 ? value - 1 : value) & ((1 << bitCount) - 1);
+        if (bitCount > 8) {
+            symbols[size++] = (byte) (bits >> 8);
+        }
+        if (bitCount > 0) {
+            symbols[size++] = (byte) bits;
+        }
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    //backing array, valid up to size()
+    byte[] array() {
+        return symbols;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toArray() {
+        return Arrays.copyOf(symbols, size);
+    }
+
+    /**
+     * @param bitCount size of an amplitude
+     * @return number of bytes holding the amplitude
+     */
+    static int amplitudeLength(int bitCount) {
+        return (bitCount + 7) >> 3;
+    }
+
+    /**
+     * Read the bits of an amplitude as they are written to the entropy coded data
+     *
+     * @param symbols symbol array
+     * @param index position of the first amplitude byte
+     * @param bitCount size of the amplitude
+     * @return bitCount low-order bits
+     */
+    static int readBits(byte[] symbols, int index, int bitCount) {
+        return bitCount > 8 ? (symbols[index] & 0xFF) << 8 | (symbols[index + 1] & 0xFF) : symbols[index] & 0xFF;
+    }
+
+    /**
+     * Read an amplitude
+     *
+     * @param symbols symbol array
+     * @param index position of the first amplitude byte
+     * @param bitCount size of the amplitude
+     * @return the signed value, 0 for a size of 0
+     */
+    static int readValue(byte[] symbols, int index, int bitCount) {
+        if (bitCount == 0) {
+            return 0;
+        }
+        int bits = readBits(symbols, index, bitCount);
+        //all ones when the top bit is clear, that is for negative values; signs of AC coefficients are too random
+        //for a branch
+        int negative = ((bits >> (bitCount - 1)) & 1) - 1;
+        return bits + (negative & (1 - (1 << bitCount)));
+    }
+}
@@ -0,0 +1,213 @@
+package codec;
+
+import model.Component;
+import model.Quantization;
+import model.QuantizedImage;
+
+/**
+ * Lossless changes of a JPEG image made on its quantized DCT coefficients, as read by JpegReader, without the
+ * inverse and forward DCT and colour conversion of a decode and encode: the result is written again by
+ * Encoder.encode(QuantizedImage, OutputStream)
+ */
+public final class Transcoder {
+
+    private Transcoder() {
+    }
+
+    /**
+     * Rotate an image clockwise; a partial MCU on the edge that would become the left or top edge is dropped, as
+     * its padding blocks cannot be moved inside the image
+     *
+     * @param image quantized image
+     * @param degrees 90, 180 or 270
+     * @return rotated image
+     */
+    public static QuantizedImage rotate(QuantizedImage image, int degrees) {
+        switch (degrees) {
+            case 90:
+                return transform(image, true, true, false);
+            case 180:
+                return transform(image, false, true, true);
+            case 270:
+                return transform(image, true, false, true);
+            default:
+                throw new IllegalArgumentException("Rotation must be 90, 180 or 270 degrees: " + degrees);
+        }
+    }
+
+    /**
+     * Mirror an image left to right, dropping a partial MCU column on the right edge
+     *
+     * @param image quantized image
+     * @return mirrored image
+     */
+    public static QuantizedImage flipHorizontal(QuantizedImage image) {
+        return transform(image, false, true, false);
+    }
+
+    /**
+     * Mirror an image top to bottom, dropping a partial MCU row on the bottom edge
+     *
+     * @param image quantized image
+     * @return mirrored image
+     */
+    public static QuantizedImage flipVertical(QuantizedImage image) {
+        return transform(image, false, false, true);
+    }
+
+    /**
+     * Cut a rectangle out of an image, its top left corner lying on an MCU boundary
+     *
+     * @param image quantized image
+     * @param x left edge, a multiple of the MCU width
+     * @param y top edge, a multiple of the MCU height
+     * @param width of the rectangle
+     * @param height of the rectangle
+     * @return cropped image
+     */
+    public static QuantizedImage crop(QuantizedImage image, int x, int y, int width, int height) {
+        int mcuWidth = 8 * image.getMaxHorizontalSampling();
+        int mcuHeight = 8 * image.getMaxVerticalSampling();
+        if (x % mcuWidth != 0 || y % mcuHeight != 0) {
+            throw new IllegalArgumentException("Crop must start on an MCU boundary of " + mcuWidth + "x" + mcuHeight
+                    + " pixels: " + x + "," + y);
+        }
+        if (x < 0 || y < 0 || width < 1 || height < 1 || x + width > image.getWidth()
+                || y + height > image.getHeight()) {
+            throw new IllegalArgumentException("Crop outside of the image: " + width + "x" + height + "+" + x + "+"
+                    + y);
+        }
+
+        int nrMcusW = (width + mcuWidth - 1) / mcuWidth;
+        int nrMcusH = (height + mcuHeight - 1) / mcuHeight;
+        Component[] components = image.getComponents();
+        Component[] cropped = new Component[components.length];
+        for (int c = 0; c < components.length; c++) {
+            Component component = components[c];
+            int h = component.getHorizontalSampling();
+            int v = component.getVerticalSampling();
+            cropped[c] = copyLayout(component, nrMcusW * h, nrMcusH * v, false);
+            int fromX = x / mcuWidth * h;
+            int fromY = y / mcuHeight * v;
+            for (int by = 0; by < cropped[c].getNrBlocksH(); by++) {
+                //the blocks of a row are consecutive in both components
+                System.arraycopy(component.getCoefficients(), component.getBlockOffset(fromX, fromY + by),
+                        cropped[c].getCoefficients(), cropped[c].getBlockOffset(0, by), cropped[c].getNrBlocksW() * 64);
+            }
+        }
+        return new QuantizedImage(width, height, cropped, image.getQuantizationTables());
+    }
+
+    /**
+     * Quantize an image again with the standard tables of a lower quality, each value of the new tables being at
+     * least the current one, so that no coefficient gets a finer step than it was coded with
+     *
+     * @param image quantized image
+     * @param quality quality factor from 1 to 100 of the new luminance and chrominance tables
+     * @return image with coarser coefficients and tables
+     */
+    public static QuantizedImage requantize(QuantizedImage image, int quality) {
+        Component[] components = image.getComponents();
+        int[][] tables = new int[image.getQuantizationTables().length][];
+        for (int c = 0; c < components.length; c++) {
+            int id = components[c].getQuantizationTableId();
+            if (tables[id] == null) {
+                //the first component, Y, uses the luminance table
+                int[] standard = Quantization.scale(c == 0 ? Quantization.LUMINANCE : Quantization.CHROMINANCE,
+                        quality);
+                int[] current = image.getQuantizationTables()[id];
+                tables[id] = new int[64];
+                for (int i = 0; i < 64; i++) {
+                    tables[id][i] = Math.max(standard[i], current[i]);
+                }
+            }
+        }
+
+        Component[] requantized = new Component[components.length];
+        for (int c = 0; c < components.length; c++) {
+            Component component = components[c];
+            int[] current = image.getQuantizationTable(component);
+            int[] table = tables[component.getQuantizationTableId()];
+            requantized[c] = copyLayout(component, component.getNrBlocksW(), component.getNrBlocksH(), false);
+            short[] coefficients = component.getCoefficients();
+            short[] result = requantized[c].getCoefficients();
+            for (int i = 0; i < coefficients.length; i++) {
+                int k = i & 63;
+                //rounded to the nearest step, halves away from zero
+                int value = coefficients[i] * current[k];
+                int step = table[k];
+                result[i] = (short) (value >= 0 ? (value + step / 2) / step : -((-value + step / 2) / step));
+            }
+        }
+        return new QuantizedImage(image.getWidth(), image.getHeight(), requantized, tables);
+    }
+
+    /**
+     * Rearrange the blocks of every component and their coefficients: transposing a block transposes its
+     * coefficients, mirroring it negates the coefficients of odd horizontal or vertical frequency
+     *
+     * @param transpose swap rows and columns, before mirroring
+     * @param flipX mirror left to right
+     * @param flipY mirror top to bottom
+     */
+    private static QuantizedImage transform(QuantizedImage image, boolean transpose, boolean flipX, boolean flipY) {
+        int width = transpose ? image.getHeight() : image.getWidth();
+        int height = transpose ? image.getWidth() : image.getHeight();
+        int mcuWidth = 8 * (transpose ? image.getMaxVerticalSampling() : image.getMaxHorizontalSampling());
+        int mcuHeight = 8 * (transpose ? image.getMaxHorizontalSampling() : image.getMaxVerticalSampling());
+        //the padding of a partial MCU on a mirrored edge would end up inside the image
+        if (flipX && width < mcuWidth || flipY && height < mcuHeight) {
+            throw new IllegalArgumentException("Image smaller than one MCU of " + mcuWidth + "x" + mcuHeight
+                    + " pixels along a mirrored edge");
+        }
+        if (flipX) {
+            width -= width % mcuWidth;
+        }
+        if (flipY) {
+            height -= height % mcuHeight;
+        }
+        int nrMcusW = (width + mcuWidth - 1) / mcuWidth;
+        int nrMcusH = (height + mcuHeight - 1) / mcuHeight;
+
+        Component[] components = image.getComponents();
+        Component[] transformed = new Component[components.length];
+        for (int c = 0; c < components.length; c++) {
+            Component component = components[c];
+            int h = transpose ? component.getVerticalSampling() : component.getHorizontalSampling();
+            int v = transpose ? component.getHorizontalSampling() : component.getVerticalSampling();
+            Component result = copyLayout(component, nrMcusW * h, nrMcusH * v, transpose);
+            transformed[c] = result;
+            short[] source = component.getCoefficients();
+            short[] target = result.getCoefficients();
+            for (int by = 0; by < result.getNrBlocksH(); by++) {
+                for (int bx = 0; bx < result.getNrBlocksW(); bx++) {
+                    int x = flipX ? result.getNrBlocksW() - 1 - bx : bx;
+                    int y = flipY ? result.getNrBlocksH() - 1 - by : by;
+                    int from = transpose ? component.getBlockOffset(y, x) : component.getBlockOffset(x, y);
+                    int to = result.getBlockOffset(bx, by);
+                    for (int row = 0; row < 8; row++) {
+                        for (int column = 0; column < 8; column++) {
+                            int value = source[from + (transpose ? column * 8 + row : row * 8 + column)];
+                            boolean negate = (flipX && (column & 1) != 0) != (flipY && (row & 1) != 0);
+                            target[to + row * 8 + column] = (short) (negate ? -value : value);
+                        }
+                    }
+                }
+            }
+        }
+        return new QuantizedImage(width, height, transformed, image.getQuantizationTables());
+    }
+
+    /**
+     * @param transpose swap the sampling factors
+     * @return empty component with the id, sampling factors and quantization table of another one
+     */
+    private static Component copyLayout(Component component, int nrBlocksW, int nrBlocksH, boolean transpose) {
+        Component copy = new Component(nrBlocksW, nrBlocksH);
+        copy.setId(component.getId());
+        copy.setHorizontalSampling(transpose ? component.getVerticalSampling() : component.getHorizontalSampling());
+        copy.setVerticalSampling(transpose ? component.getHorizontalSampling() : component.getVerticalSampling());
+        copy.setQuantizationTableId(component.getQuantizationTableId());
+        return copy;
+    }
+}
@@ -0,0 +1,51 @@
+package model;
+
+import java.nio.file.Path;
+
+/**
+ * One file of a batch: PPM inputs are encoded to JFIF, JPEG inputs (.jpg, .jpeg) decoded to binary PPM
+ */
+public class BatchJob {
+
+    private final Path input;
+    private final Path output;
+
+    public BatchJob(Path input, Path output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    public Path getInput() {
+        return input;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public boolean isDecoding() {
+        return isJpeg(input);
+    }
+
+    /**
+     * @param path file name
+     * @return true for .jpg and .jpeg files, in any case
+     */
+    public static boolean isJpeg(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+
+    /**
+     * @param path file name
+     * @return true for .ppm files, in any case
+     */
+    public static boolean isPpm(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".ppm");
+    }
+
+    @Override
+    public String toString() {
+        return input + " -> " + output;
+    }
+}
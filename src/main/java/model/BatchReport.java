@@ -0,0 +1,78 @@
+package model;
+
+import java.util.Map;
+
+/**
+ * Totals of a batch run: the files that were written, the volume they represent and the files that failed
+ */
+public class BatchReport {
+
+    private final int nrSucceeded;
+    private final long nrPixels;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long elapsedNanos;
+    //error of each failed file, in the order the failures happened
+    private final Map<BatchJob, Exception> failures;
+
+    public BatchReport(int nrSucceeded, long nrPixels, long bytesRead, long bytesWritten, long elapsedNanos,
+                       Map<BatchJob, Exception> failures) {
+        this.nrSucceeded = nrSucceeded;
+        this.nrPixels = nrPixels;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.elapsedNanos = elapsedNanos;
+        this.failures = failures;
+    }
+
+    public int getNrSucceeded() {
+        return nrSucceeded;
+    }
+
+    public int getNrFailed() {
+        return failures.size();
+    }
+
+    public long getNrPixels() {
+        return nrPixels;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public Map<BatchJob, Exception> getFailures() {
+        return failures;
+    }
+
+    public double getFilesPerSecond() {
+        return nrSucceeded / seconds();
+    }
+
+    public double getMegapixelsPerSecond() {
+        return nrPixels / 1e6 / seconds();
+    }
+
+    public double getMegabytesPerSecond() {
+        return (bytesRead + bytesWritten) / 1e6 / seconds();
+    }
+
+    private double seconds() {
+        return Math.max(elapsedNanos, 1) / 1e9;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d files in %.2f s (%d failed): %.1f files/s, %.1f megapixels/s, %.1f MB/s read and written",
+                nrSucceeded, elapsedNanos / 1e9, getNrFailed(), getFilesPerSecond(), getMegapixelsPerSecond(),
+                getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,76 @@
+package model;
+
+/**
+ * Quantized DCT coefficients of one image component, stored as consecutive 64 value blocks in raster order
+ */
+public class Component {
+
+    private final int nrBlocksW;
+    private final int nrBlocksH;
+    private final short[] coefficients;
+    private int id;
+    private int horizontalSampling = 1;
+    private int verticalSampling = 1;
+    private int quantizationTableId;
+
+    public Component(int nrBlocksW, int nrBlocksH) {
+        this.nrBlocksW = nrBlocksW;
+        this.nrBlocksH = nrBlocksH;
+        this.coefficients = new short[nrBlocksW * nrBlocksH * 64];
+    }
+
+    public int getNrBlocksW() {
+        return nrBlocksW;
+    }
+
+    public int getNrBlocksH() {
+        return nrBlocksH;
+    }
+
+    public short[] getCoefficients() {
+        return coefficients;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getHorizontalSampling() {
+        return horizontalSampling;
+    }
+
+    public int getVerticalSampling() {
+        return verticalSampling;
+    }
+
+    public int getQuantizationTableId() {
+        return quantizationTableId;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public void setHorizontalSampling(int horizontalSampling) {
+        this.horizontalSampling = horizontalSampling;
+    }
+
+    public void setVerticalSampling(int verticalSampling) {
+        this.verticalSampling = verticalSampling;
+    }
+
+    public void setQuantizationTableId(int quantizationTableId) {
+        this.quantizationTableId = quantizationTableId;
+    }
+
+    /**
+     * Get the position of the first coefficient of a block
+     *
+     * @param blockX horizontal index of the block
+     * @param blockY vertical index of the block
+     * @return offset of the block in the coefficient array
+     */
+    public int getBlockOffset(int blockX, int blockY) {
+        return (blockY * nrBlocksW + blockX) * 64;
+    }
+}
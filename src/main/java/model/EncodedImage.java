@@ -1,28 +1,78 @@
 package model;
 
-import java.util.List;
-
 public class EncodedImage {
 
-    private List<Integer> encodedBytes;
-    private int nrBlocksW;
-    private int getNrBlocksH;
+    //runlength symbols of the blocks in MCU order, each followed by the bytes of its amplitude
+    private byte[] encodedBytes;
+    private int width;
+    private int height;
+    private int nrMcusW;
+    private int nrMcusH;
+    private Subsampling subsampling = Subsampling.YUV444;
+    //quantization tables in row-major order, indexed by table id (0 for Y, 1 for U and V)
+    private int[][] quantizationTables;
+    //number of MCUs between restart markers, 0 when the image has a single segment
+    private int restartInterval;
+    //position in encodedBytes of the first value of each restart segment
+    private int[] segmentOffsets;
 
-    public EncodedImage(List<Integer> encodedBytes, int nrBlocksW, int getNrBlocksH) {
+    public EncodedImage(byte[] encodedBytes, int width, int height, int nrMcusW, int nrMcusH) {
         this.encodedBytes = encodedBytes;
-        this.nrBlocksW = nrBlocksW;
-        this.getNrBlocksH = getNrBlocksH;
+        this.width = width;
+        this.height = height;
+        this.nrMcusW = nrMcusW;
+        this.nrMcusH = nrMcusH;
     }
 
-    public List<Integer> getEncodedBytes() {
+    public byte[] getEncodedBytes() {
         return encodedBytes;
     }
 
-    public int getNrBlocksW() {
-        return nrBlocksW;
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNrMcusW() {
+        return nrMcusW;
+    }
+
+    public int getNrMcusH() {
+        return nrMcusH;
+    }
+
+    public Subsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public int[][] getQuantizationTables() {
+        return quantizationTables;
+    }
+
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    public int[] getSegmentOffsets() {
+        return segmentOffsets;
+    }
+
+    public void setSubsampling(Subsampling subsampling) {
+        this.subsampling = subsampling;
+    }
+
+    public void setQuantizationTables(int[][] quantizationTables) {
+        this.quantizationTables = quantizationTables;
+    }
+
+    public void setRestartInterval(int restartInterval) {
+        this.restartInterval = restartInterval;
     }
 
-    public int getGetNrBlocksH() {
-        return getNrBlocksH;
+    public void setSegmentOffsets(int[] segmentOffsets) {
+        this.segmentOffsets = segmentOffsets;
     }
 }
@@ -0,0 +1,200 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Image of interleaved 8-bit r, g, b values held outside of the heap, in direct buffers or in a memory-mapped P6
+ * PPM file, for images too large for a byte array or for the heap; the rows are split over several buffers, as a
+ * buffer holds at most 2 GB, and are read and written one row or one rectangle at a time
+ */
+public class ImageBuffer {
+
+    private final int width;
+    private final int height;
+    //whole rows of the image, rowsPerBuffer in every buffer
+    private final ByteBuffer[] buffers;
+    private final int rowsPerBuffer;
+
+    private ImageBuffer(int width, int height, ByteBuffer[] buffers, int rowsPerBuffer) {
+        this.width = width;
+        this.height = height;
+        this.buffers = buffers;
+        this.rowsPerBuffer = rowsPerBuffer;
+    }
+
+    /**
+     * Allocate an image in direct buffers
+     *
+     * @param width of the image
+     * @param height of the image
+     * @return image whose values are all 0
+     */
+    public static ImageBuffer allocate(int width, int height) {
+        int rowsPerBuffer = rowsPerBuffer(width, height);
+        ByteBuffer[] buffers = new ByteBuffer[(height + rowsPerBuffer - 1) / rowsPerBuffer];
+        for (int i = 0; i < buffers.length; i++) {
+            int nrRows = Math.min(rowsPerBuffer, height - i * rowsPerBuffer);
+            buffers[i] = ByteBuffer.allocateDirect(nrRows * width * 3);
+        }
+        return new ImageBuffer(width, height, buffers, rowsPerBuffer);
+    }
+
+    /**
+     * Map the samples of a P6 PPM file with a maximum color value of 255
+     *
+     * @param path location of the file
+     * @param writable whether the values can be changed, writing through to the file
+     * @return image backed by the file
+     */
+    public static ImageBuffer map(Path path, boolean writable) throws IOException {
+        try (FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            PPMReader reader = new PPMReader(channel);
+            if (!reader.isBinary() || reader.getMaxColorValue() != 255) {
+                throw new IOException("Unsupported PPM: only P6 images with 8-bit samples can be mapped");
+            }
+            int width = reader.getWidth();
+            int height = reader.getHeight();
+            if (reader.getPosition() + 3L * width * height > channel.size()) {
+                throw new IOException("Invalid PPM: unexpected end of data");
+            }
+            return map(channel, reader.getPosition(), width, height,
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY);
+        }
+    }
+
+    /**
+     * Create a P6 PPM file of the given size and map its samples, so that the values written to the image end up in
+     * the file
+     *
+     * @param path location of the file, replaced if it exists
+     * @param width of the image
+     * @param height of the image
+     * @return image backed by the file
+     */
+    public static ImageBuffer create(Path path, int width, int height) throws IOException {
+        checkSize(width, height);
+        byte[] header = ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            while (headerBuffer.hasRemaining()) {
+                channel.write(headerBuffer);
+            }
+            return map(channel, header.length, width, height, FileChannel.MapMode.READ_WRITE);
+        }
+    }
+
+    /**
+     * Map the rows of an image, the mappings staying valid once the channel is closed
+     */
+    private static ImageBuffer map(FileChannel channel, long position, int width, int height,
+                                   FileChannel.MapMode mode) throws IOException {
+        checkSize(width, height);
+        int rowsPerBuffer = rowsPerBuffer(width, height);
+        ByteBuffer[] buffers = new ByteBuffer[(height + rowsPerBuffer - 1) / rowsPerBuffer];
+        for (int i = 0; i < buffers.length; i++) {
+            int nrRows = Math.min(rowsPerBuffer, height - i * rowsPerBuffer);
+            buffers[i] = channel.map(mode, position + (long) i * rowsPerBuffer * width * 3, (long) nrRows * width * 3);
+        }
+        return new ImageBuffer(width, height, buffers, rowsPerBuffer);
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width < 1 || height < 1 || width > Integer.MAX_VALUE / 3) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+    }
+
+    private static int rowsPerBuffer(int width, int height) {
+        checkSize(width, height);
+        return Math.min(height, Integer.MAX_VALUE / (width * 3));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Copy a row of the image
+     *
+     * @param y index of the row
+     * @param rgb receives the interleaved r, g, b values
+     * @param offset position of the first r value of the row
+     */
+    public void readRow(int y, byte[] rgb, int offset) {
+        readPixels(0, y, width, 1, rgb, offset);
+    }
+
+    /**
+     * Replace a row of the image
+     *
+     * @param y index of the row
+     * @param rgb interleaved r, g, b values
+     * @param offset position of the first r value of the row
+     */
+    public void writeRow(int y, byte[] rgb, int offset) {
+        writePixels(0, y, width, 1, rgb, offset);
+    }
+
+    /**
+     * Copy a rectangle of the image
+     *
+     * @param rgb receives the interleaved r, g, b values of the rectangle, one row after the other
+     * @param offset position of the first r value
+     */
+    public void readPixels(int x, int y, int width, int height, byte[] rgb, int offset) {
+        checkRectangle(x, y, width, height);
+        for (int row = y; row < y + height; row++) {
+            ByteBuffer buffer = buffers[row / rowsPerBuffer].duplicate();
+            buffer.position(((row % rowsPerBuffer) * this.width + x) * 3);
+            buffer.get(rgb, offset, width * 3);
+            offset += width * 3;
+        }
+    }
+
+    /**
+     * Replace a rectangle of the image
+     *
+     * @param rgb interleaved r, g, b values of the rectangle, one row after the other
+     * @param offset position of the first r value
+     */
+    public void writePixels(int x, int y, int width, int height, byte[] rgb, int offset) {
+        checkRectangle(x, y, width, height);
+        for (int row = y; row < y + height; row++) {
+            ByteBuffer buffer = buffers[row / rowsPerBuffer].duplicate();
+            buffer.position(((row % rowsPerBuffer) * this.width + x) * 3);
+            buffer.put(rgb, offset, width * 3);
+            offset += width * 3;
+        }
+    }
+
+    /**
+     * Write the values changed in a mapped file to the storage device; nothing to do for direct buffers
+     */
+    public void force() {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) buffer).force();
+            }
+        }
+    }
+
+    private void checkRectangle(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height) {
+            throw new IndexOutOfBoundsException("Rectangle outside of the " + this.width + "x" + this.height
+                    + " image: " + width + "x" + height + "+" + x + "+" + y);
+        }
+    }
+}
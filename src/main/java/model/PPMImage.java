@@ -1,23 +1,55 @@
 package model;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class PPMImage {
 
-    private static String FORMAT = "P3";
+    private String format = "P3";
     private int width;
     private int height;
     private int maxColorValue = 255;
-    private List<List<RGB>> rgbData;
+    //interleaved r, g, b samples of each pixel in raster order
+    private byte[] rgbData;
 
     public PPMImage() {
     }
 
+    /**
+     * Load an image from the classpath
+     *
+     * @param filename name of the resource
+     */
     public PPMImage(String filename) {
-        readImage(filename);
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(filename)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + filename);
+            }
+            readImage(new PPMReader(Channels.newChannel(in)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Load a P3 or P6 image from a file
+     *
+     * @param path location of the file
+     * @return image with 8-bit samples
+     */
+    public static PPMImage read(Path path) throws IOException {
+        PPMImage image = new PPMImage();
+        try (PPMReader reader = new PPMReader(path)) {
+            image.readImage(reader);
+        }
+        return image;
+    }
+
+    public String getFormat() {
+        return format;
     }
 
     public int getWidth() {
@@ -28,10 +60,14 @@ public class PPMImage {
         return height;
     }
 
-    public List<List<RGB>> getRgbData() {
+    public byte[] getRgbData() {
         return rgbData;
     }
 
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
     public void setWidth(int width) {
         this.width = width;
     }
@@ -44,65 +80,44 @@ public class PPMImage {
         this.maxColorValue = maxColorValue;
     }
 
-    public void setRgbData(List<List<RGB>> rgbData) {
+    public void setRgbData(byte[] rgbData) {
         this.rgbData = rgbData;
     }
 
-    private void readImage(String filename) {
-        File file = new File(getClass().getClassLoader().getResource(filename).getFile());
-        Scanner scanner = null;
-        try {
-            scanner = new Scanner(file);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+    private void readImage(PPMReader reader) throws IOException {
+        format = reader.isBinary() ? "P6" : "P3";
+        width = reader.getWidth();
+        height = reader.getHeight();
+        //samples are scaled to 8 bits while reading
+        maxColorValue = 255;
 
-        assert scanner != null;
-        if (scanner.hasNextLine()) {
-            //read header
-            FORMAT = scanner.nextLine();
-            scanner.nextLine();
-            String[] dimensions = scanner.nextLine().split(" ");
-            width = Integer.parseInt(dimensions[0]);
-            height = Integer.parseInt(dimensions[1]);
-            maxColorValue = Integer.parseInt(scanner.nextLine());
-
-            //read rgb values
-            rgbData = new ArrayList<List<RGB>>();
-            for (int i = 0; i < height; i++) {
-                List<RGB> line = new ArrayList<RGB>();
-                for (int j = 0; j < width; j++) {
-                    int r = Integer.parseInt(scanner.nextLine());
-                    int g = Integer.parseInt(scanner.nextLine());
-                    int b = Integer.parseInt(scanner.nextLine());
-                    line.add(new RGB(r, g, b));
-                }
-                rgbData.add(line);
-            }
+        if ((long) width * height > Integer.MAX_VALUE / 3) {
+            throw new IOException("Unsupported PPM: " + width + "x" + height + " image too large for an array");
+        }
+        rgbData = new byte[width * height * 3];
+        for (int i = 0; i < height; i++) {
+            reader.readRow(rgbData, i * width * 3);
         }
     }
 
     public void writeToFile() {
-        File file = new File("decodedImage.ppm");
         try {
-            PrintWriter writer = new PrintWriter(new FileWriter(file));
-
-            //write header
-            writer.println(FORMAT);
-            writer.println("# This is a comment");
-            writer.println(width + " " + height);
-            writer.println(maxColorValue);
-
-            //write rgb values
-            rgbData.forEach(line -> line.forEach(pixel -> {
-                writer.println(pixel.getR());
-                writer.println(pixel.getG());
-                writer.println(pixel.getB());
-            }));
-
-            writer.close();
+            writeToFile(Paths.get("decodedImage.ppm"));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Write the image in its format (P3 or P6)
+     *
+     * @param path location of the file
+     */
+    public void writeToFile(Path path) throws IOException {
+        try (PPMWriter writer = new PPMWriter(path, width, height, "P6".equals(format))) {
+            for (int i = 0; i < height; i++) {
+                writer.writeRow(rgbData, i * width * 3);
+            }
+        }
+    }
 }
@@ -0,0 +1,224 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Pull-based reader of P3 (plain) and P6 (binary) PPM images, returning one row of interleaved 8-bit r, g, b
+ * values at a time; samples with a maximum color value other than 255 are scaled to 8 bits
+ */
+public class PPMReader implements Iterator<byte[]>, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    //largest width and height, those of a JPEG file
+    private static final int MAX_DIMENSION = 65535;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean binary;
+    private int width;
+    private int height;
+    private int maxColorValue;
+    //number of rows read so far
+    private int row;
+    //bytes read from the channel so far
+    private long nrBytesRead;
+
+    public PPMReader(Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ), true);
+    }
+
+    public PPMReader(ReadableByteChannel channel) throws IOException {
+        this(channel, false);
+    }
+
+    /**
+     * @param owned whether the reader opened the channel, closing it when the header cannot be read
+     */
+    private PPMReader(ReadableByteChannel channel, boolean owned) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        try {
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            if (owned) {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMaxColorValue() {
+        return maxColorValue;
+    }
+
+    /**
+     * @return position in the channel of the next sample, right after the header until a row is read
+     */
+    long getPosition() {
+        return nrBytesRead - buffer.remaining();
+    }
+
+    /**
+     * Read the next row of the image
+     *
+     * @param rgb receives the interleaved r, g, b values
+     * @param offset position of the first r value of the row
+     */
+    public void readRow(byte[] rgb, int offset) throws IOException {
+        if (row == height) {
+            throw new NoSuchElementException("All " + height + " rows were already read");
+        }
+        int nrValues = width * 3;
+        if (binary && maxColorValue == 255) {
+            readFully(rgb, offset, nrValues);
+        } else if (binary) {
+            boolean twoBytes = maxColorValue > 255;
+            for (int i = 0; i < nrValues; i++) {
+                int value = twoBytes ? (readByte() << 8) | readByte() : readByte();
+                rgb[offset + i] = scale(value);
+            }
+        } else {
+            for (int i = 0; i < nrValues; i++) {
+                rgb[offset + i] = scale(readNumber());
+            }
+        }
+        row++;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return row < height;
+    }
+
+    @Override
+    public byte[] next() {
+        byte[] rgb = new byte[width * 3];
+        try {
+            readRow(rgb, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rgb;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readHeader() throws IOException {
+        if (readByte() != 'P') {
+            throw new IOException("Invalid PPM: missing magic number");
+        }
+        int format = readByte();
+        if (format != '3' && format != '6') {
+            throw new IOException("Unsupported PPM: only P3 and P6 images can be read");
+        }
+        binary = format == '6';
+        width = readNumber();
+        height = readNumber();
+        //images beyond 2 GB are only read row by row or mapped into an ImageBuffer, see PPMImage for whole images
+        if (width < 1 || height < 1 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new IOException("Invalid PPM: image size " + width + "x" + height);
+        }
+        maxColorValue = readNumber();
+        if (maxColorValue < 1 || maxColorValue > 65535) {
+            throw new IOException("Invalid PPM: maximum color value " + maxColorValue);
+        }
+    }
+
+    private byte scale(int value) throws IOException {
+        if (value > maxColorValue) {
+            throw new IOException("Invalid PPM: sample " + value + " exceeds maximum color value " + maxColorValue);
+        }
+        if (maxColorValue == 255) {
+            return (byte) value;
+        }
+        return (byte) ((value * 255 + maxColorValue / 2) / maxColorValue);
+    }
+
+    /**
+     * Read a decimal number, skipping the whitespace and the comments in front of it; the character ending the
+     * number is consumed too, which for the last header field is the single whitespace preceding binary samples
+     */
+    private int readNumber() throws IOException {
+        int c = readByte();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B || c == '#') {
+            if (c == '#') {
+                while (c != '\n' && c != '\r') {
+                    c = readByte();
+                }
+            }
+            c = readByte();
+        }
+        if (c < '0' || c > '9') {
+            throw new IOException("Invalid PPM: expected a number");
+        }
+
+        int number = 0;
+        while (c >= '0' && c <= '9') {
+            if (number > (Integer.MAX_VALUE - (c - '0')) / 10) {
+                throw new IOException("Invalid PPM: number too large");
+            }
+            number = number * 10 + (c - '0');
+            c = buffer.hasRemaining() || fill() ? buffer.get() & 0xFF : -1;
+        }
+        return number;
+    }
+
+    private int readByte() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            throw new IOException("Invalid PPM: unexpected end of data");
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private void readFully(byte[] destination, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining() && !fill()) {
+                throw new IOException("Invalid PPM: unexpected end of data");
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(destination, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Read more bytes from the channel into the empty buffer
+     *
+     * @return false at the end of the channel
+     */
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int count = 0;
+        while (count == 0) {
+            count = channel.read(buffer);
+        }
+        buffer.flip();
+        nrBytesRead += Math.max(count, 0);
+        return count > 0;
+    }
+}
@@ -0,0 +1,92 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writer of 8-bit P3 (plain) or P6 (binary) PPM images, accepting one row of interleaved r, g, b values at a time
+ */
+public class PPMWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final boolean binary;
+    private final int width;
+
+    public PPMWriter(Path path, int width, int height, boolean binary) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), width, height, binary);
+    }
+
+    public PPMWriter(WritableByteChannel channel, int width, int height, boolean binary) throws IOException {
+        this.channel = channel;
+        this.width = width;
+        this.binary = binary;
+
+        String header = (binary ? "P6" : "P3") + "\n" + width + " " + height + "\n255\n";
+        buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Append the next row of the image
+     *
+     * @param rgb interleaved r, g, b values
+     * @param offset position of the first r value of the row
+     */
+    public void writeRow(byte[] rgb, int offset) throws IOException {
+        int nrValues = width * 3;
+        if (binary) {
+            while (nrValues > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int count = Math.min(nrValues, buffer.remaining());
+                buffer.put(rgb, offset, count);
+                offset += count;
+                nrValues -= count;
+            }
+            return;
+        }
+
+        //one pixel per line keeps the lines under the 70 characters allowed by the format
+        for (int i = 0; i < nrValues; i++) {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            writeNumber(rgb[offset + i] & 0xFF);
+            buffer.put((byte) (i % 3 == 2 ? '\n' : ' '));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private void writeNumber(int value) {
+        if (value >= 100) {
+            buffer.put((byte) ('0' + value / 100));
+        }
+        if (value >= 10) {
+            buffer.put((byte) ('0' + value / 10 % 10));
+        }
+        buffer.put((byte) ('0' + value % 10));
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,94 @@
+package model;
+
+/**
+ * Single image component (Y, U or V) stored as a flat array of samples
+ */
+public class Plane {
+
+    private final short[] samples;
+    private final int width;
+    private final int height;
+    private final int stride;
+
+    public Plane(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width;
+        this.samples = new short[width * height];
+    }
+
+    public short[] getSamples() {
+        return samples;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int get(int x, int y) {
+        return samples[y * stride + x];
+    }
+
+    public void set(int x, int y, int value) {
+        samples[y * stride + x] = (short) value;
+    }
+
+    /**
+     * Copy an 8x8 block of samples, replicating the last row and column for blocks crossing the plane edge
+     *
+     * @param blockX horizontal index of the block
+     * @param blockY vertical index of the block
+     * @param block 64 output samples
+     */
+    public void readBlock(int blockX, int blockY, int[] block) {
+        int x0 = blockX * 8;
+        int y0 = blockY * 8;
+        for (int n = 0; n < 8; n++) {
+            int row = Math.min(y0 + n, height - 1) * stride;
+            for (int m = 0; m < 8; m++) {
+                block[n*8+m] = samples[row + Math.min(x0 + m, width - 1)];
+            }
+        }
+    }
+
+    /**
+     * Store an 8x8 block of samples, dropping the samples that fall outside the plane
+     *
+     * @param blockX horizontal index of the block
+     * @param blockY vertical index of the block
+     * @param block 64 input samples
+     */
+    public void writeBlock(int blockX, int blockY, int[] block) {
+        writeBlock(blockX, blockY, block, 8, 8);
+    }
+
+    /**
+     * Store a block of samples of any size, dropping the samples that fall outside the plane
+     *
+     * @param blockX horizontal index of the block, in blocks of that size
+     * @param blockY vertical index of the block
+     * @param block blockWidth x blockHeight input samples
+     * @param blockWidth number of columns of the block
+     * @param blockHeight number of rows of the block
+     */
+    public void writeBlock(int blockX, int blockY, int[] block, int blockWidth, int blockHeight) {
+        int x0 = blockX * blockWidth;
+        int y0 = blockY * blockHeight;
+        int rows = Math.min(blockHeight, height - y0);
+        int columns = Math.min(blockWidth, width - x0);
+        for (int n = 0; n < rows; n++) {
+            int row = (y0 + n) * stride + x0;
+            for (int m = 0; m < columns; m++) {
+                samples[row + m] = (short) block[n*blockWidth+m];
+            }
+        }
+    }
+}
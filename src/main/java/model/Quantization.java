@@ -1,18 +1,49 @@
 package model;
 
-import java.util.Arrays;
-import java.util.List;
-
 public class Quantization {
 
-    public static final List<List<Integer>> matrix = Arrays.asList(
-            Arrays.asList( 6,  4,  4,  6, 10, 16, 20, 24),
-            Arrays.asList( 5,  5,  6,  8, 10, 23, 24, 22),
-            Arrays.asList( 6,  5,  6, 10, 16, 23, 28, 22),
-            Arrays.asList( 6,  7,  9, 12, 20, 35, 32, 25),
-            Arrays.asList( 7,  9, 15, 22, 27, 44, 41, 31),
-            Arrays.asList(10, 14, 22, 26, 32, 42, 45, 37),
-            Arrays.asList(20, 26, 31, 35, 41, 48, 48, 40),
-            Arrays.asList(29, 37, 38, 39, 45, 40, 41, 40)
-    );
+    //luminance quantization matrix of the JPEG standard (Annex K), in row-major order
+    public static final int[] LUMINANCE = {
+            16, 11, 10, 16,  24,  40,  51,  61,
+            12, 12, 14, 19,  26,  58,  60,  55,
+            14, 13, 16, 24,  40,  57,  69,  56,
+            14, 17, 22, 29,  51,  87,  80,  62,
+            18, 22, 37, 56,  68, 109, 103,  77,
+            24, 35, 55, 64,  81, 104, 113,  92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103,  99
+    };
+
+    //chrominance quantization matrix of the JPEG standard (Annex K), in row-major order
+    public static final int[] CHROMINANCE = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    /**
+     * Scale a quantization matrix to a quality factor the way libjpeg does: quality 50 keeps the matrix, lower
+     * qualities enlarge its values and higher qualities shrink them, down to all ones at quality 100
+     *
+     * @param matrix quantization matrix in row-major order
+     * @param quality quality factor from 1 to 100
+     * @return scaled matrix with values from 1 to 255, fitting 8-bit DQT tables
+     */
+    public static int[] scale(int[] matrix, int quality) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("Quality must be between 1 and 100: " + quality);
+        }
+        int percentage = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        int[] scaled = new int[64];
+        for (int i = 0; i < 64; i++) {
+            int value = (matrix[i] * percentage + 50) / 100;
+            scaled[i] = value < 1 ? 1 : (value > 255 ? 255 : value);
+        }
+        return scaled;
+    }
 }
@@ -0,0 +1,72 @@
+package model;
+
+/**
+ * Image in the DCT domain: the quantized coefficients of each component together with the quantization tables
+ */
+public class QuantizedImage {
+
+    private final int width;
+    private final int height;
+    private final Component[] components;
+    //quantization tables in row-major order, indexed by table id
+    private final int[][] quantizationTables;
+
+    public QuantizedImage(int width, int height, Component[] components, int[][] quantizationTables) {
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.quantizationTables = quantizationTables;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Component[] getComponents() {
+        return components;
+    }
+
+    public int[][] getQuantizationTables() {
+        return quantizationTables;
+    }
+
+    public int[] getQuantizationTable(Component component) {
+        return quantizationTables[component.getQuantizationTableId()];
+    }
+
+    public int getMaxHorizontalSampling() {
+        int max = 1;
+        for (Component component : components) {
+            max = Math.max(max, component.getHorizontalSampling());
+        }
+        return max;
+    }
+
+    public int getMaxVerticalSampling() {
+        int max = 1;
+        for (Component component : components) {
+            max = Math.max(max, component.getVerticalSampling());
+        }
+        return max;
+    }
+
+    /**
+     * Get the width of a component's samples, smaller than the image width for subsampled components
+     */
+    public int getComponentWidth(Component component) {
+        int max = getMaxHorizontalSampling();
+        return (width * component.getHorizontalSampling() + max - 1) / max;
+    }
+
+    /**
+     * Get the height of a component's samples, smaller than the image height for subsampled components
+     */
+    public int getComponentHeight(Component component) {
+        int max = getMaxVerticalSampling();
+        return (height * component.getVerticalSampling() + max - 1) / max;
+    }
+}
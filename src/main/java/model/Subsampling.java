@@ -0,0 +1,67 @@
+package model;
+
+/**
+ * Chroma subsampling mode: the U and V planes are stored at a fraction of the resolution of the Y plane, so each
+ * MCU holds horizontalFactor x verticalFactor Y blocks followed by a single U and a single V block
+ */
+public enum Subsampling {
+
+    //4:4:4, U and V at full resolution
+    YUV444(1, 1),
+    //4:2:2, U and V at half the horizontal resolution
+    YUV422(2, 1),
+    //4:4:0, U and V at half the vertical resolution, as 4:2:2 images become when rotated by 90 degrees
+    YUV440(1, 2),
+    //4:2:0, U and V at half the horizontal and half the vertical resolution
+    YUV420(2, 2);
+
+    private final int horizontalFactor;
+    private final int verticalFactor;
+
+    Subsampling(int horizontalFactor, int verticalFactor) {
+        this.horizontalFactor = horizontalFactor;
+        this.verticalFactor = verticalFactor;
+    }
+
+    /**
+     * @param horizontalFactor horizontal sampling factor of Y
+     * @param verticalFactor vertical sampling factor of Y
+     * @return mode with these factors, null when there is none
+     */
+    public static Subsampling of(int horizontalFactor, int verticalFactor) {
+        for (Subsampling subsampling : values()) {
+            if (subsampling.horizontalFactor == horizontalFactor && subsampling.verticalFactor == verticalFactor) {
+                return subsampling;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return horizontal sampling factor of Y, the factor of U and V being 1
+     */
+    public int getHorizontalFactor() {
+        return horizontalFactor;
+    }
+
+    /**
+     * @return vertical sampling factor of Y, the factor of U and V being 1
+     */
+    public int getVerticalFactor() {
+        return verticalFactor;
+    }
+
+    /**
+     * @return width of an MCU in pixels
+     */
+    public int getMcuWidth() {
+        return horizontalFactor * 8;
+    }
+
+    /**
+     * @return height of an MCU in pixels
+     */
+    public int getMcuHeight() {
+        return verticalFactor * 8;
+    }
+}
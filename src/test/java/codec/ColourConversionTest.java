@@ -0,0 +1,111 @@
+package codec;
+
+import model.Plane;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fixed-point colour conversion of Encoder and Decoder against the floating-point JFIF formulas, over every RGB and
+ * every YCbCr triple
+ */
+public class ColourConversionTest {
+
+    //largest difference allowed between a fixed-point result and the floating-point one
+    private static final int TOLERANCE = 1;
+
+    private final Encoder encoder = new Encoder();
+    private final Decoder decoder = new Decoder();
+
+    @Test
+    public void rgbToYuvStaysWithinOneLevelOverTheWholeCube() {
+        //one line of the planes holds every g, b pair of a red value
+        byte[] rgb = new byte[256 * 256 * 3];
+        Plane y = new Plane(256 * 256, 1);
+        Plane u = new Plane(256 * 256, 1);
+        Plane v = new Plane(256 * 256, 1);
+        for (int r = 0; r < 256; r++) {
+            for (int i = 0, p = 0; i < 256 * 256; i++, p += 3) {
+                rgb[p] = (byte) r;
+                rgb[p + 1] = (byte) (i >> 8);
+                rgb[p + 2] = (byte) i;
+            }
+            encoder.convertToYUV(rgb, 0, y, u, v, 0, 256 * 256);
+            for (int i = 0; i < 256 * 256; i++) {
+                int g = i >> 8;
+                int b = i & 0xFF;
+                String pixel = "rgb " + r + "," + g + "," + b;
+                assertLevel(pixel + " Y", (int) (0.299 * r + 0.587 * g + 0.114 * b + 0.5), y.getSamples()[i]);
+                assertLevel(pixel + " U", (int) (-0.168736 * r - 0.331264 * g + 0.5 * b + 128.5), u.getSamples()[i]);
+                assertLevel(pixel + " V", (int) (0.5 * r - 0.418688 * g - 0.081312 * b + 128.5), v.getSamples()[i]);
+            }
+        }
+    }
+
+    @Test
+    public void saturatedBlueAndRedStayWithinRange() {
+        Plane y = new Plane(4, 1);
+        Plane u = new Plane(4, 1);
+        Plane v = new Plane(4, 1);
+        //blue, red, magenta and white
+        byte[] rgb = {0, 0, (byte) 255, (byte) 255, 0, 0, (byte) 255, 0, (byte) 255, (byte) 255, (byte) 255,
+                (byte) 255};
+        encoder.convertToYUV(rgb, 0, y, u, v, 0, 4);
+        //the floating-point formulas give 256 for U of blue and V of red
+        assertEquals(255, u.getSamples()[0]);
+        assertEquals(255, v.getSamples()[1]);
+        assertEquals(255, y.getSamples()[3]);
+        assertEquals(128, u.getSamples()[3]);
+        assertEquals(128, v.getSamples()[3]);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(u.getSamples()[i] >= 0 && u.getSamples()[i] <= 255);
+            assertTrue(v.getSamples()[i] >= 0 && v.getSamples()[i] <= 255);
+        }
+    }
+
+    @Test
+    public void yuvToRgbStaysWithinOneLevelOverTheWholeCube() {
+        short[] ySamples = new short[256 * 256];
+        short[] uSamples = new short[256 * 256];
+        short[] vSamples = new short[256 * 256];
+        byte[] rgb = new byte[256 * 256 * 3];
+        for (int luma = 0; luma < 256; luma++) {
+            for (int i = 0; i < 256 * 256; i++) {
+                ySamples[i] = (short) luma;
+                uSamples[i] = (short) (i >> 8);
+                vSamples[i] = (short) (i & 0xFF);
+            }
+            decoder.convertToRGB(ySamples, 0, uSamples, 0, vSamples, 0, rgb, 0, 256 * 256);
+            for (int i = 0, p = 0; i < 256 * 256; i++, p += 3) {
+                int cb = (i >> 8) - 128;
+                int cr = (i & 0xFF) - 128;
+                String pixel = "ycbcr " + luma + "," + (cb + 128) + "," + (cr + 128);
+                assertLevel(pixel + " R", clamp(Math.round(luma + 1.402 * cr)), rgb[p] & 0xFF);
+                assertLevel(pixel + " G", clamp(Math.round(luma - 0.344136 * cb - 0.714136 * cr)), rgb[p + 1] & 0xFF);
+                assertLevel(pixel + " B", clamp(Math.round(luma + 1.772 * cb)), rgb[p + 2] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void saturatedYuvIsClamped() {
+        short[] ySamples = {255, 0, 255, 0};
+        short[] uSamples = {255, 0, 0, 255};
+        short[] vSamples = {255, 0, 255, 0};
+        byte[] rgb = new byte[12];
+        decoder.convertToRGB(ySamples, 0, uSamples, 0, vSamples, 0, rgb, 0, 4);
+        int[] expected = {255, 121, 255, 0, 135, 0, 255, 208, 28, 0, 48, 225};
+        for (int i = 0; i < 12; i++) {
+            assertLevel("value " + i, expected[i], rgb[i] & 0xFF);
+        }
+    }
+
+    private static void assertLevel(String message, long expected, int actual) {
+        assertTrue(message + ": " + actual + " instead of " + expected, Math.abs(actual - expected) <= TOLERANCE);
+    }
+
+    private static long clamp(long value) {
+        return Math.min(255, Math.max(0, value));
+    }
+}
@@ -0,0 +1,89 @@
+package codec;
+
+import model.PPMImage;
+import model.Subsampling;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Region decodes against the matching crop of the decode of the whole image
+ */
+public class DecoderTest {
+
+    private static final int[][] SIZES = {{101, 77}, {200, 130}};
+    private static final int[] RESTART_INTERVALS = {0, 1, 7};
+
+    @Test
+    public void regionDecodeMatchesCropOfFullDecode() throws IOException {
+        for (int[] size : SIZES) {
+            PPMImage image = image(size[0], size[1]);
+            //MCU-aligned and unaligned rectangles, a single pixel and the bottom right corner
+            int[][] regions = {{0, 0, size[0], size[1]}, {16, 16, 32, 32}, {3, 5, 17, 11}, {9, 21, 60, 40},
+                    {size[0] - 1, size[1] - 1, 1, 1}, {7, 0, 1, size[1]}, {size[0] - 30, size[1] - 19, 30, 19}};
+            for (Subsampling subsampling : Subsampling.values()) {
+                for (int restartInterval : RESTART_INTERVALS) {
+                    //without and with a restart index, then a progressive file
+                    for (int mode = 0; mode < 3; mode++) {
+                        Encoder encoder = new Encoder();
+                        encoder.setSubsampling(subsampling);
+                        encoder.setRestartInterval(restartInterval);
+                        encoder.setRestartIndex(mode == 1);
+                        encoder.setProgressive(mode == 2);
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        encoder.encode(image, out);
+                        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+
+                        Decoder decoder = new Decoder();
+                        PPMImage full = decoder.decode(data.duplicate());
+                        for (int[] region : regions) {
+                            String message = size[0] + "x" + size[1] + " " + subsampling + " restart interval "
+                                    + restartInterval + " mode " + mode + " region " + region[2] + "x" + region[3]
+                                    + "+" + region[0] + "+" + region[1];
+                            PPMImage decoded = decoder.decodeRegion(data.duplicate(), region[0], region[1], region[2],
+                                    region[3]);
+                            assertEquals(message, region[2], decoded.getWidth());
+                            assertEquals(message, region[3], decoded.getHeight());
+                            assertArrayEquals(message, crop(full, region), decoded.getRgbData());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] crop(PPMImage image, int[] region) {
+        byte[] rgb = new byte[region[2] * region[3] * 3];
+        for (int line = 0; line < region[3]; line++) {
+            System.arraycopy(image.getRgbData(), ((region[1] + line) * image.getWidth() + region[0]) * 3, rgb,
+                    line * region[2] * 3, region[2] * 3);
+        }
+        return rgb;
+    }
+
+    /**
+     * @return image of smooth gradients with some noise
+     */
+    private static PPMImage image(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        byte[] rgb = new byte[width * height * 3];
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, p += 3) {
+                rgb[p] = (byte) (x * 255 / width + random.nextInt(16));
+                rgb[p + 1] = (byte) (y * 255 / height + random.nextInt(16));
+                rgb[p + 2] = (byte) ((x + y) * 4 + random.nextInt(64));
+            }
+        }
+        PPMImage image = new PPMImage();
+        image.setWidth(width);
+        image.setHeight(height);
+        image.setRgbData(rgb);
+        return image;
+    }
+}
@@ -0,0 +1,213 @@
+package codec;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Accuracy of SeparableDCT and FastDCT against the direct formulas of ReferenceDCT
+ */
+public class DiscreteCosineTransformTest {
+
+    //largest difference allowed between a coefficient and the reference one
+    private static final double COEFFICIENT_TOLERANCE = 1e-3;
+    //largest difference allowed between a sample and the reference one when the coefficients are arbitrary values
+    //of the full -2047..2047 range, whose sums exceed the precision of a float
+    private static final int SAMPLE_TOLERANCE = 1;
+    private static final int NR_RANDOM_BLOCKS = 2000;
+
+    private final DiscreteCosineTransform reference = new ReferenceDCT();
+    private final DiscreteCosineTransform[] transforms = {new SeparableDCT(), new FastDCT()};
+
+    @Test
+    public void forwardMatchesReference() {
+        for (DiscreteCosineTransform transform : transforms) {
+            for (int[] samples : sampleBlocks()) {
+                float[] expected = new float[64];
+                float[] actual = new float[64];
+                reference.forward(samples, expected);
+                transform.forward(samples, actual);
+                assertCoefficients(transform, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void forwardUnscaledMatchesReferenceOnceScaled() {
+        for (DiscreteCosineTransform transform : transforms) {
+            for (int[] samples : sampleBlocks()) {
+                float[] expected = new float[64];
+                float[] actual = new float[64];
+                reference.forward(samples, expected);
+                transform.forwardUnscaled(samples, actual);
+                for (int i = 0; i < 64; i++) {
+                    actual[i] *= transform.getForwardScale(i);
+                }
+                assertCoefficients(transform, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void inverseRoundsLikeReference() {
+        for (DiscreteCosineTransform transform : transforms) {
+            for (int[] samples : sampleBlocks()) {
+                float[] coefficients = new float[64];
+                reference.forward(samples, coefficients);
+                assertInverse(transform, coefficients, 0);
+            }
+            for (float[] coefficients : edgeCoefficientBlocks()) {
+                assertInverse(transform, coefficients, 0);
+            }
+        }
+    }
+
+    @Test
+    public void inverseOfFullRangeCoefficientsStaysWithinTolerance() {
+        Random random = new Random(2047);
+        for (DiscreteCosineTransform transform : transforms) {
+            for (int n = 0; n < NR_RANDOM_BLOCKS; n++) {
+                float[] coefficients = new float[64];
+                for (int i = 0; i < 64; i++) {
+                    coefficients[i] = random.nextInt(4095) - 2047;
+                }
+                assertInverse(transform, coefficients, SAMPLE_TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void inverseUnscaledMatchesInverse() {
+        for (DiscreteCosineTransform transform : transforms) {
+            for (int[] samples : sampleBlocks()) {
+                float[] coefficients = new float[64];
+                reference.forward(samples, coefficients);
+                float[] scaled = new float[64];
+                for (int i = 0; i < 64; i++) {
+                    scaled[i] = coefficients[i] * transform.getInverseScale(i);
+                }
+                int[] expected = new int[64];
+                int[] actual = new int[64];
+                transform.inverse(coefficients.clone(), expected);
+                transform.inverseUnscaled(scaled, actual);
+                assertArrayEquals(name(transform), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void zeroBlockIsFlat() {
+        for (DiscreteCosineTransform transform : transforms) {
+            int[] samples = new int[64];
+            transform.inverse(new float[64], samples);
+            int[] flat = new int[64];
+            Arrays.fill(flat, 128);
+            assertArrayEquals(name(transform), flat, samples);
+
+            float[] coefficients = new float[64];
+            transform.forward(flat, coefficients);
+            assertCoefficients(transform, new float[64], coefficients);
+        }
+    }
+
+    @Test
+    public void dcOnlyBlockIsFlat() {
+        for (DiscreteCosineTransform transform : transforms) {
+            for (int level = 0; level < 256; level++) {
+                int[] samples = new int[64];
+                Arrays.fill(samples, level);
+                float[] coefficients = new float[64];
+                transform.forward(samples, coefficients);
+                assertEquals(name(transform), (level - 128) * 8, coefficients[0], COEFFICIENT_TOLERANCE);
+                for (int i = 1; i < 64; i++) {
+                    assertEquals(name(transform), 0, coefficients[i], COEFFICIENT_TOLERANCE);
+                }
+
+                int[] decoded = new int[64];
+                transform.inverse(coefficients, decoded);
+                assertArrayEquals(name(transform), samples, decoded);
+            }
+        }
+    }
+
+    /**
+     * Random blocks and blocks at the limits of the sample range
+     */
+    private static List<int[]> sampleBlocks() {
+        List<int[]> blocks = new ArrayList<>();
+        int[] zero = new int[64];
+        int[] full = new int[64];
+        Arrays.fill(full, 255);
+        int[] checkerboard = new int[64];
+        int[] stripes = new int[64];
+        int[] edge = new int[64];
+        for (int i = 0; i < 64; i++) {
+            checkerboard[i] = ((i / 8 + i % 8) & 1) == 0 ? 0 : 255;
+            stripes[i] = (i % 8 & 1) == 0 ? 255 : 0;
+            edge[i] = i % 8 < 4 ? 0 : 255;
+        }
+        blocks.addAll(Arrays.asList(zero, full, checkerboard, stripes, edge));
+
+        Random random = new Random(1);
+        for (int n = 0; n < NR_RANDOM_BLOCKS; n++) {
+            int[] samples = new int[64];
+            for (int i = 0; i < 64; i++) {
+                samples[i] = random.nextInt(256);
+            }
+            blocks.add(samples);
+        }
+        return blocks;
+    }
+
+    /**
+     * Blocks of coefficients at the limits of the -2047..2047 range of 8-bit JPEG files
+     */
+    private static List<float[]> edgeCoefficientBlocks() {
+        List<float[]> blocks = new ArrayList<>();
+        for (int dc : new int[]{-2047, 2047}) {
+            float[] dcOnly = new float[64];
+            dcOnly[0] = dc;
+            blocks.add(dcOnly);
+        }
+        for (int index : new int[]{1, 8, 9, 63}) {
+            for (int value : new int[]{-2047, 2047}) {
+                float[] single = new float[64];
+                single[index] = value;
+                blocks.add(single);
+            }
+        }
+        return blocks;
+    }
+
+    private void assertInverse(DiscreteCosineTransform transform, float[] coefficients, int tolerance) {
+        int[] expected = new int[64];
+        int[] actual = new int[64];
+        reference.inverse(coefficients.clone(), expected);
+        transform.inverse(coefficients.clone(), actual);
+        if (tolerance == 0) {
+            assertArrayEquals(name(transform), expected, actual);
+            return;
+        }
+        for (int i = 0; i < 64; i++) {
+            assertTrue(name(transform) + " sample " + i + ": " + actual[i] + " instead of " + expected[i],
+                    Math.abs(actual[i] - expected[i]) <= tolerance);
+        }
+    }
+
+    private static void assertCoefficients(DiscreteCosineTransform transform, float[] expected, float[] actual) {
+        for (int i = 0; i < 64; i++) {
+            assertEquals(name(transform) + " coefficient " + i, expected[i], actual[i], COEFFICIENT_TOLERANCE);
+        }
+    }
+
+    private static String name(DiscreteCosineTransform transform) {
+        return transform.getClass().getSimpleName();
+    }
+}
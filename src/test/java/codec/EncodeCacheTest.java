@@ -0,0 +1,195 @@
+package codec;
+
+import model.PPMImage;
+import model.Subsampling;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hits, misses and keys of the encode cache, eviction at its size bound and the round trip through its directory
+ */
+public class EncodeCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void secondEncodeOfTheSameImageHits() throws IOException {
+        EncodeCache cache = new EncodeCache(1 << 20);
+        Encoder encoder = new Encoder();
+        PPMImage image = image(40, 24, 1);
+        byte[] first = cache.encode(encoder, image);
+        byte[] second = cache.encode(encoder, image);
+        assertSame(first, second);
+        assertArrayEquals(encode(encoder, image), first);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0.5, cache.getHitRatio(), 0);
+
+        //another encoder with the same settings, and another image with the same pixels
+        PPMImage copy = image(40, 24, 1);
+        assertSame(first, cache.encode(new Encoder(), copy));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void otherPixelsOrSettingsMiss() throws IOException {
+        EncodeCache cache = new EncodeCache(1 << 20);
+        PPMImage image = image(40, 24, 1);
+        cache.encode(new Encoder(), image);
+        cache.encode(new Encoder(), image(40, 24, 2));
+
+        Encoder quality = new Encoder();
+        quality.setQuality(90);
+        Encoder subsampling = new Encoder();
+        subsampling.setSubsampling(Subsampling.YUV444);
+        Encoder restartInterval = new Encoder();
+        restartInterval.setRestartInterval(4);
+        Encoder optimized = new Encoder();
+        optimized.setOptimizeHuffmanTables(true);
+        Encoder progressive = new Encoder();
+        progressive.setProgressive(true);
+        Encoder transform = new Encoder(new SeparableDCT());
+        for (Encoder encoder : new Encoder[]{quality, subsampling, restartInterval, optimized, progressive, transform}) {
+            assertNotEquals(EncodeCache.key(new Encoder(), image), EncodeCache.key(encoder, image));
+            assertArrayEquals(encode(encoder, image), cache.encode(encoder, image));
+        }
+        assertEquals(8, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void transformsWhoseNamesHaveTheSameStringHashDoNotShareKeys() {
+        //"Aa" and "BB" have the same String.hashCode, and so have the names of the classes
+        assertEquals(Aa.class.getName().hashCode(), BB.class.getName().hashCode());
+        PPMImage image = image(40, 24, 1);
+        assertNotEquals(EncodeCache.key(new Encoder(new Aa()), image), EncodeCache.key(new Encoder(new BB()), image));
+        assertEquals(EncodeCache.key(new Encoder(new Aa()), image), EncodeCache.key(new Encoder(new Aa()), image));
+    }
+
+    @Test
+    public void leastRecentlyUsedFileIsEvictedPastTheSizeBound() throws IOException {
+        Encoder encoder = new Encoder();
+        PPMImage first = image(40, 24, 1);
+        PPMImage second = image(40, 24, 2);
+        PPMImage third = image(40, 24, 3);
+        long fileSize = encode(encoder, first).length;
+        //room for two files of about the same size
+        EncodeCache cache = new EncodeCache(fileSize * 5 / 2);
+        cache.encode(encoder, first);
+        cache.encode(encoder, second);
+        //the first image becomes the most recently used one
+        cache.encode(encoder, first);
+        cache.encode(encoder, third);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getEntryCount());
+        assertTrue(cache.getSize() <= fileSize * 5 / 2);
+
+        cache.encode(encoder, first);
+        assertEquals(2, cache.getHitCount());
+        cache.encode(encoder, second);
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void fileLargerThanTheCacheIsNotKept() throws IOException {
+        EncodeCache cache = new EncodeCache(16);
+        Encoder encoder = new Encoder();
+        PPMImage image = image(40, 24, 1);
+        cache.encode(encoder, image);
+        cache.encode(encoder, image);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void directoryKeepsEvictedFilesAndThoseOfEarlierRuns() throws IOException {
+        Path directory = folder.newFolder("cache").toPath();
+        Encoder encoder = new Encoder();
+        PPMImage image = image(40, 24, 1);
+        byte[] expected = encode(encoder, image);
+
+        //nothing is kept in memory, so every file is read back from the directory
+        EncodeCache cache = new EncodeCache(0, directory, 1 << 20);
+        cache.encode(encoder, image);
+        assertArrayEquals(expected, cache.encode(encoder, image));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getDiskHitCount());
+        assertEquals(expected.length, cache.getDiskSize());
+        assertEquals(1, countFiles(directory));
+
+        EncodeCache nextRun = new EncodeCache(1 << 20, directory, 1 << 20);
+        assertArrayEquals(expected, nextRun.encode(encoder, image));
+        assertEquals(0, nextRun.getMissCount());
+        assertEquals(1, nextRun.getDiskHitCount());
+        //kept in memory from then on
+        nextRun.encode(encoder, image);
+        assertEquals(1, nextRun.getHitCount());
+
+        nextRun.clear();
+        assertEquals(0, countFiles(directory));
+        assertEquals(0, nextRun.getDiskSize());
+    }
+
+    @Test
+    public void directoryEvictsPastItsSizeBound() throws IOException {
+        Path directory = folder.newFolder("bounded").toPath();
+        Encoder encoder = new Encoder();
+        long fileSize = encode(encoder, image(40, 24, 1)).length;
+        EncodeCache cache = new EncodeCache(0, directory, fileSize * 5 / 2);
+        for (int seed = 1; seed <= 4; seed++) {
+            cache.encode(encoder, image(40, 24, seed));
+        }
+        assertEquals(2, countFiles(directory));
+        assertTrue(cache.getDiskSize() <= fileSize * 5 / 2);
+        //the two most recent files
+        cache.encode(encoder, image(40, 24, 4));
+        cache.encode(encoder, image(40, 24, 3));
+        assertEquals(2, cache.getDiskHitCount());
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] encode(Encoder encoder, PPMImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return image of noise, the same pixels for the same seed
+     */
+    private static PPMImage image(int width, int height, int seed) {
+        byte[] rgb = new byte[width * height * 3];
+        new Random(seed).nextBytes(rgb);
+        PPMImage image = new PPMImage();
+        image.setWidth(width);
+        image.setHeight(height);
+        image.setRgbData(rgb);
+        return image;
+    }
+
+    public static class Aa extends FastDCT {
+    }
+
+    public static class BB extends FastDCT {
+    }
+}
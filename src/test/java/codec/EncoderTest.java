@@ -0,0 +1,197 @@
+package codec;
+
+import model.ImageBuffer;
+import model.PPMImage;
+import model.Subsampling;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Settings of the encoder, the threads of its pipeline, and the output of the parallel, streaming and pipelined
+ * encodes, which must be the same bytes as the sequential one
+ */
+public class EncoderTest {
+
+    //sizes of a whole MCU, of partial MCUs of every subsampling and of several rows of MCUs
+    private static final int[][] SIZES = {{1, 1}, {8, 8}, {16, 16}, {17, 9}, {33, 47}, {64, 48}, {101, 77},
+            {333, 250}};
+    private static final int[] RESTART_INTERVALS = {0, 1, 3};
+
+    @Test
+    public void acceptsRestartIntervalsOfTheDriSegment() {
+        Encoder encoder = new Encoder();
+        encoder.setRestartInterval(0);
+        encoder.setRestartInterval(65535);
+        assertEquals(65535, encoder.getRestartInterval());
+    }
+
+    @Test
+    public void rejectsRestartIntervalOutsideTheDriSegment() {
+        Encoder encoder = new Encoder();
+        for (int restartInterval : new int[]{-1, 65536, Integer.MIN_VALUE}) {
+            try {
+                encoder.setRestartInterval(restartInterval);
+                fail("Accepted restart interval " + restartInterval);
+            } catch (IllegalArgumentException e) {
+                assertEquals(0, encoder.getRestartInterval());
+            }
+        }
+    }
+
+    @Test
+    public void pipelineReusesItsThreads() throws IOException {
+        PPMImage image = new PPMImage();
+        image.setWidth(64);
+        image.setHeight(48);
+        image.setRgbData(new byte[64 * 48 * 3]);
+        Encoder encoder = new Encoder();
+        encoder.setPipelined(true);
+        Set<Thread> before = pipelineThreads();
+        for (int i = 0; i < 100; i++) {
+            encoder.encode(image, new ByteArrayOutputStream());
+        }
+        //a thread may be back in the pool a little after its stage ended, when the next encode already started
+        Set<Thread> started = pipelineThreads();
+        started.removeAll(before);
+        assertTrue(started.size() + " pipeline threads", started.size() >= 2 && started.size() <= 4);
+    }
+
+    private static Set<Thread> pipelineThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("jpeg-pipeline-")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    @Test
+    public void parallelEncodeMatchesSequential() throws IOException {
+        ForkJoinPool executor = new ForkJoinPool(4);
+        try {
+            for (int[] size : SIZES) {
+                PPMImage image = image(size[0], size[1]);
+                for (Encoder encoder : encoders()) {
+                    byte[] expected = encode(encoder, image);
+                    encoder.setExecutor(executor);
+                    assertArrayEquals(describe(encoder, image), expected, encode(encoder, image));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void streamingEncodeMatchesSequential() throws IOException {
+        for (int[] size : SIZES) {
+            PPMImage image = image(size[0], size[1]);
+            int width = image.getWidth();
+            int height = image.getHeight();
+            List<byte[]> rows = new ArrayList<>();
+            ImageBuffer buffer = ImageBuffer.allocate(width, height);
+            for (int y = 0; y < height; y++) {
+                rows.add(Arrays.copyOfRange(image.getRgbData(), y * width * 3, (y + 1) * width * 3));
+                buffer.writeRow(y, image.getRgbData(), y * width * 3);
+            }
+            for (Encoder encoder : encoders()) {
+                for (boolean progressive : new boolean[]{false, true}) {
+                    encoder.setProgressive(progressive);
+                    byte[] expected = encode(encoder, image);
+                    String message = describe(encoder, image);
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    encoder.encode(rows.iterator(), width, height, out);
+                    assertArrayEquals(message, expected, out.toByteArray());
+
+                    out.reset();
+                    encoder.encode(buffer, out);
+                    assertArrayEquals(message, expected, out.toByteArray());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedEncodeMatchesSequential() throws IOException {
+        for (int[] size : SIZES) {
+            PPMImage image = image(size[0], size[1]);
+            for (Encoder encoder : encoders()) {
+                for (boolean restartIndex : new boolean[]{false, true}) {
+                    encoder.setRestartIndex(restartIndex);
+                    encoder.setPipelined(false);
+                    byte[] expected = encode(encoder, image);
+                    encoder.setPipelined(true);
+                    assertArrayEquals(describe(encoder, image), expected, encode(encoder, image));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return encoders of every subsampling and restart interval, with standard and with optimized Huffman tables
+     */
+    private static Encoder[] encoders() {
+        Encoder[] encoders = new Encoder[Subsampling.values().length * RESTART_INTERVALS.length * 2];
+        int i = 0;
+        for (Subsampling subsampling : Subsampling.values()) {
+            for (int restartInterval : RESTART_INTERVALS) {
+                for (boolean optimize : new boolean[]{false, true}) {
+                    Encoder encoder = new Encoder();
+                    encoder.setSubsampling(subsampling);
+                    encoder.setRestartInterval(restartInterval);
+                    encoder.setOptimizeHuffmanTables(optimize);
+                    encoders[i++] = encoder;
+                }
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * @return image of smooth gradients with some noise, so that the blocks have AC coefficients of every size
+     */
+    private static PPMImage image(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        byte[] rgb = new byte[width * height * 3];
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, p += 3) {
+                rgb[p] = (byte) (x * 255 / width + random.nextInt(16));
+                rgb[p + 1] = (byte) (y * 255 / height + random.nextInt(16));
+                rgb[p + 2] = (byte) ((x + y) * 4 + random.nextInt(64));
+            }
+        }
+        PPMImage image = new PPMImage();
+        image.setWidth(width);
+        image.setHeight(height);
+        image.setRgbData(rgb);
+        return image;
+    }
+
+    private static byte[] encode(Encoder encoder, PPMImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+        return out.toByteArray();
+    }
+
+    private static String describe(Encoder encoder, PPMImage image) {
+        return image.getWidth() + "x" + image.getHeight() + " " + encoder.getSubsampling() + " restart interval "
+                + encoder.getRestartInterval() + (encoder.isOptimizeHuffmanTables() ? " optimized" : "")
+                + (encoder.isProgressive() ? " progressive" : "") + (encoder.isRestartIndex() ? " indexed" : "");
+    }
+}
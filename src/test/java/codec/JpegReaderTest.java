@@ -0,0 +1,192 @@
+package codec;
+
+import model.PPMImage;
+import model.QuantizedImage;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Rejection of table references outside of the four table slots, of tables that do not fit and of segments that
+ * do not fit their data in a JPEG file, and of truncated files outside of partial reads
+ */
+public class JpegReaderTest {
+
+    private static final int SOF0 = 0xC0;
+    private static final int DHT = 0xC4;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int APP0 = 0xE0;
+
+    @Test
+    public void readsValidFile() throws IOException {
+        QuantizedImage image = JpegReader.read(ByteBuffer.wrap(encode()));
+        assertEquals(40, image.getWidth());
+        assertEquals(24, image.getHeight());
+    }
+
+    @Test
+    public void rejectsQuantizationTableIdAboveThree() throws IOException {
+        assertInvalid(patch(DQT, 4, 0x07));
+    }
+
+    @Test
+    public void rejectsSixteenBitQuantizationTable() throws IOException {
+        assertInvalid(patch(DQT, 4, 0x10));
+    }
+
+    @Test
+    public void rejectsHuffmanTableIdAboveThree() throws IOException {
+        assertInvalid(patch(DHT, 4, 0x14));
+    }
+
+    @Test
+    public void rejectsHuffmanTableClassAboveOne() throws IOException {
+        assertInvalid(patch(DHT, 4, 0x20));
+    }
+
+    @Test
+    public void rejectsHuffmanTableOverflowingTheCodeSpace() throws IOException {
+        //three codes of 1 bit
+        assertInvalid(patch(DHT, 5, 0x03));
+        //two codes of 1 bit leave none for the longer lengths
+        assertInvalid(patch(DHT, 5, 0x02));
+    }
+
+    @Test
+    public void rejectsSegmentPastTheEndOfTheData() throws IOException {
+        //the JFIF segment, whose content is skipped
+        byte[] data = patch(APP0, 2, 0xFF);
+        data[indexOf(data, APP0) + 3] = (byte) 0xFF;
+        assertInvalid(data);
+    }
+
+    @Test
+    public void rejectsSegmentShorterThanItsContent() throws IOException {
+        //a length that cuts a table of the segment short
+        assertInvalid(patch(DQT, 3, 2 + 65 + 1));
+        //a frame header without its fields
+        assertInvalid(patch(SOF0, 3, 2));
+    }
+
+    @Test
+    public void rejectsScanHeaderOfWrongLength() throws IOException {
+        assertInvalid(patch(SOS, 3, 10));
+    }
+
+    @Test
+    public void rejectsFrameComponentQuantizationTableAboveThree() throws IOException {
+        //length, precision, height, width, number of components, then id, sampling factors and table of the first
+        assertInvalid(patch(SOF0, 12, 0x05));
+    }
+
+    @Test
+    public void rejectsZeroSamplingFactor() throws IOException {
+        assertInvalid(patch(SOF0, 11, 0x01));
+    }
+
+    @Test
+    public void rejectsScanHuffmanTablesAboveThree() throws IOException {
+        //length, number of components, then id and table ids of the first
+        assertInvalid(patch(SOS, 6, 0x50));
+        assertInvalid(patch(SOS, 6, 0x0A));
+    }
+
+    @Test
+    public void rejectsScanOfNoComponent() throws IOException {
+        assertInvalid(patch(SOS, 4, 0x00));
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws IOException {
+        Encoder restart = new Encoder();
+        restart.setRestartInterval(2);
+        Encoder progressive = new Encoder();
+        progressive.setProgressive(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (Encoder encoder : new Encoder[]{new Encoder(), restart, progressive}) {
+                byte[] data = encode(encoder);
+                for (int percent = 10; percent < 100; percent += 5) {
+                    byte[] truncated = Arrays.copyOf(data, data.length * percent / 100);
+                    assertInvalid(truncated);
+                    try {
+                        JpegReader.read(ByteBuffer.wrap(truncated), executor);
+                        fail("Read a file truncated to " + percent + "%");
+                    } catch (IOException e) {
+                        assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid JPEG: "));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void readsTruncatedFilesPartially() throws IOException {
+        byte[] data = encode(new Encoder());
+        QuantizedImage image = JpegReader.readPartial(ByteBuffer.wrap(Arrays.copyOf(data, data.length * 7 / 10)));
+        assertEquals(40, image.getWidth());
+        assertEquals(24, image.getHeight());
+    }
+
+    private static byte[] encode() throws IOException {
+        return encode(new Encoder());
+    }
+
+    private static byte[] encode(Encoder encoder) throws IOException {
+        PPMImage image = new PPMImage();
+        image.setWidth(40);
+        image.setHeight(24);
+        byte[] rgb = new byte[40 * 24 * 3];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = (byte) (i * 7);
+        }
+        image.setRgbData(rgb);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param marker marker of the segment to change, its first occurrence
+     * @param offset position of the byte to change from the 0xFF of the marker
+     * @param value new value of the byte
+     */
+    private static byte[] patch(int marker, int offset, int value) throws IOException {
+        byte[] data = encode();
+        data[indexOf(data, marker) + offset] = (byte) value;
+        return data;
+    }
+
+    /**
+     * @return position of the 0xFF of the first occurrence of a marker
+     */
+    private static int indexOf(byte[] data, int marker) {
+        for (int i = 0; i < data.length - 1; i++) {
+            if ((data[i] & 0xFF) == 0xFF && (data[i + 1] & 0xFF) == marker) {
+                return i;
+            }
+        }
+        throw new AssertionError("Missing marker " + Integer.toHexString(marker));
+    }
+
+    private static void assertInvalid(byte[] data) {
+        try {
+            JpegReader.read(ByteBuffer.wrap(data));
+            fail("Read an invalid file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid JPEG: "));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reading and validation of the headers and samples of P3 and P6 images
+ */
+public class PPMReaderTest {
+
+    @Test
+    public void scalesSamplesToEightBits() throws IOException {
+        PPMReader reader = reader(ascii("P3\n2 1\n100\n0 50 100 100 50 0\n"));
+        byte[] rgb = new byte[6];
+        reader.readRow(rgb, 0);
+        assertArrayEquals(new byte[]{0, (byte) 128, (byte) 255, (byte) 255, (byte) 128, 0}, rgb);
+    }
+
+    @Test
+    public void readsSixteenBitSamples() throws IOException {
+        byte[] header = ascii("P6\n1 1\n65535\n");
+        byte[] data = new byte[header.length + 6];
+        System.arraycopy(header, 0, data, 0, header.length);
+        data[header.length] = (byte) 0xFF;
+        data[header.length + 1] = (byte) 0xFF;
+        byte[] rgb = new byte[3];
+        reader(data).readRow(rgb, 0);
+        assertArrayEquals(new byte[]{(byte) 255, 0, 0}, rgb);
+    }
+
+    @Test
+    public void rejectsPlainSampleAboveMaximum() throws IOException {
+        assertInvalidSample(ascii("P3\n1 1\n100\n200 0 0\n"));
+        assertInvalidSample(ascii("P3\n1 1\n255\n0 256 0\n"));
+    }
+
+    @Test
+    public void rejectsBinarySampleAboveMaximum() throws IOException {
+        byte[] header = ascii("P6\n1 1\n100\n");
+        byte[] data = new byte[header.length + 3];
+        System.arraycopy(header, 0, data, 0, header.length);
+        data[header.length + 2] = (byte) 200;
+        assertInvalidSample(data);
+    }
+
+    @Test
+    public void rejectsSixteenBitSampleAboveMaximum() throws IOException {
+        byte[] header = ascii("P6\n1 1\n1000\n");
+        byte[] data = new byte[header.length + 6];
+        System.arraycopy(header, 0, data, 0, header.length);
+        //1001
+        data[header.length] = 0x03;
+        data[header.length + 1] = (byte) 0xE9;
+        assertInvalidSample(data);
+    }
+
+    @Test
+    public void rejectsMalformedHeaderOfFile() throws IOException {
+        Path path = Files.createTempFile("invalid", ".ppm");
+        try {
+            Files.write(path, ascii("P5\n1 1\n255\n"));
+            try {
+                new PPMReader(path).close();
+                fail("Read a PGM file");
+            } catch (IOException e) {
+                assertEquals("Unsupported PPM: only P3 and P6 images can be read", e.getMessage());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidImageSize() throws IOException {
+        assertInvalidHeader(ascii("P6\n0 1\n255\n"));
+        assertInvalidHeader(ascii("P6\n1 0\n255\n"));
+        assertInvalidHeader(ascii("P6\n-1 1\n255\n"));
+        assertInvalidHeader(ascii("P3\n70000 1\n255\n"));
+        assertInvalidHeader(ascii("P3\n1 99999999999\n255\n"));
+    }
+
+    @Test
+    public void rejectsWholeImageLargerThanAnArray() throws IOException {
+        Path path = Files.createTempFile("large", ".ppm");
+        try {
+            Files.write(path, ascii("P6\n65535 65535\n255\n"));
+            try {
+                PPMImage.read(path);
+                fail("Read an image of more than 2 GB into an array");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Unsupported PPM: "));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void assertInvalidHeader(byte[] data) {
+        try {
+            reader(data);
+            fail("Read an invalid header");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid PPM: "));
+        }
+    }
+
+    private static void assertInvalidSample(byte[] data) throws IOException {
+        PPMReader reader = reader(data);
+        try {
+            reader.readRow(new byte[3], 0);
+            fail("Read a sample above the maximum color value");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid PPM: sample "));
+        }
+    }
+
+    private static PPMReader reader(byte[] data) throws IOException {
+        return new PPMReader(Channels.newChannel(new ByteArrayInputStream(data)));
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}